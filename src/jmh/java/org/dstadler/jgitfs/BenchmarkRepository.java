@@ -0,0 +1,66 @@
+package org.dstadler.jgitfs;
+
+import org.apache.commons.io.FileUtils;
+import org.dstadler.jgitfs.util.RepositoryGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+/**
+ * Shapes of synthetic repositories which the benchmarks run against, each one stresses
+ * a different part of the path lookup: many entries in one tree, many levels of trees,
+ * a long history with many refs or a mix of large files, long delta chains and symlinks.
+ */
+public enum BenchmarkRepository {
+    /** One commit with 5,000 files in the root directory and one branch and tag */
+    WIDE(() -> new RepositoryGenerator().setCommits(1).setTree(0, 0, 5_000)
+            .setFileSizes(4 * 1024, 4 * 1024).setBranches(2).setTags(1, 0)),
+    /** One commit with 10 files on each of 12 nested levels and one branch and tag */
+    DEEP(() -> new RepositoryGenerator().setCommits(1).setTree(11, 1, 10)
+            .setFileSizes(4 * 1024, 4 * 1024).setBranches(2).setTags(1, 0)),
+    /** 2,000 commits which each change one of 100 files in two levels, with 50 branches and 50 tags */
+    HISTORY(() -> new RepositoryGenerator().setCommits(2_000).setTree(1, 1, 50)
+            .setFileSizes(1024, 1024).setBranches(51).setTags(25, 25)),
+    /** 500 commits on 5,000 files of 100 bytes to 100KB, two 20MB binaries, a delta chain of 50 and 100 symlinks */
+    MIXED(() -> new RepositoryGenerator().setCommits(500).setChangesPerCommit(5).setTree(3, 4, 60)
+            .setFileSizes(100, 100 * 1024).setLargeBinaries(2, 20 * 1024 * 1024).setDeltaChain(50)
+            .setSymlinks(100).setBranches(100).setTags(50, 50));
+
+    private final Supplier<RepositoryGenerator> generator;
+
+    BenchmarkRepository(Supplier<RepositoryGenerator> generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * @return A new generator which is configured for this shape
+     */
+    public RepositoryGenerator generator() {
+        return generator.get();
+    }
+
+    /**
+     * Create the repository in a new temporary directory.
+     *
+     * @param generator A generator returned by {@link #generator()}, it provides the head-commit
+     *                  and the paths of the repository afterwards
+     * @return The directory of the repository, it should be removed via {@link #delete(File)}
+     * @throws IOException If writing the repository fails
+     */
+    public File create(RepositoryGenerator generator) throws IOException {
+        File dir = Files.createTempDirectory("BenchmarkRepository-" + name()).toFile();
+        try {
+            generator.generate(dir);
+        } catch (IOException | RuntimeException e) {
+            delete(dir);
+            throw e;
+        }
+        return dir;
+    }
+
+    public static void delete(File dir) throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+}
@@ -0,0 +1,140 @@
+package org.dstadler.jgitfs;
+
+import net.fusejna.DirectoryFiller;
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import org.dstadler.jgitfs.util.RepositoryGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Benchmarks for the FUSE callbacks of {@link JGitFilesystem}, which are invoked
+ * directly without mounting the filesystem, so only the time spent in JGitFS is measured.
+ * <p>
+ * Each invocation accesses the next path of the repository, so caches are warm,
+ * but the same path is not requested again and again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JGitFilesystemBenchmark {
+    @Param({"WIDE", "DEEP", "HISTORY", "MIXED"})
+    public BenchmarkRepository shape;
+
+    private File dir;
+    private JGitFilesystem fs;
+
+    private String[] files;
+    private String[] dirs;
+    private String[] links;
+
+    @Setup
+    public void setUp() throws IOException {
+        RepositoryGenerator generator = shape.generator();
+        dir = shape.create(generator);
+        fs = new JGitFilesystem(dir.getAbsolutePath(), false);
+
+        String head = generator.getHead();
+        String commitDir = "/commit/" + head.substring(0, 2) + "/" + head.substring(2);
+
+        files = generator.getFiles().stream().map(file -> commitDir + "/" + file).toArray(String[]::new);
+        dirs = generator.getDirs().stream().map(path -> path.isEmpty() ? commitDir : commitDir + "/" + path).toArray(String[]::new);
+
+        List<String> branches = new ArrayList<>();
+        assertEquals(0, fs.readdir("/branch", new JGitFilesystemTest.DirectoryFillerImplementation(branches)), "/branch");
+        links = branches.stream().map(branch -> "/branch/" + branch).toArray(String[]::new);
+
+        // the benchmarks should not measure how fast a lookup fails
+        Cursor cursor = new Cursor();
+        assertEquals(0, getattr(cursor), files[0]);
+        assertTrue(read(cursor) >= 0, files[1 % files.length]);
+        assertEquals(0, fs.readdir(dirs[0], new JGitFilesystemTest.DirectoryFillerImplementation(new ArrayList<>())), dirs[0]);
+        assertEquals(0, readlink(cursor), links[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fs.close();
+        BenchmarkRepository.delete(dir);
+    }
+
+    /**
+     * The buffers and the position in the paths of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final StatWrapper stat = StatWrapperFactory.create();
+        private final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        private int next;
+
+        String next(String[] paths) {
+            return paths[next++ % paths.length];
+        }
+    }
+
+    @Benchmark
+    public int getattr(Cursor cursor) {
+        return fs.getattr(cursor.next(files), cursor.stat);
+    }
+
+    @Benchmark
+    public int read(Cursor cursor) {
+        cursor.buffer.clear();
+        return fs.read(cursor.next(files), cursor.buffer, cursor.buffer.capacity(), 0, null);
+    }
+
+    @Benchmark
+    public int readdir(Cursor cursor, Blackhole blackhole) {
+        return fs.readdir(cursor.next(dirs), new BlackholeFiller(blackhole));
+    }
+
+    @Benchmark
+    public int readlink(Cursor cursor) {
+        cursor.buffer.clear();
+        return fs.readlink(cursor.next(links), cursor.buffer, cursor.buffer.capacity());
+    }
+
+    private static final class BlackholeFiller implements DirectoryFiller {
+        private final Blackhole blackhole;
+
+        private BlackholeFiller(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean add(String... files) {
+            blackhole.consume(files);
+            return true;
+        }
+
+        @Override
+        public boolean add(Iterable<String> files) {
+            files.forEach(blackhole::consume);
+            return true;
+        }
+    }
+}
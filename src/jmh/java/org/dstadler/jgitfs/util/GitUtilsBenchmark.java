@@ -0,0 +1,65 @@
+package org.dstadler.jgitfs.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the classification of paths which is done for every FUSE callback.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GitUtilsBenchmark {
+    // a mix of paths as they are requested by tools which walk the filesystem
+    private static final String[] PATHS = {
+            "/",
+            "/branch",
+            "/branch/master",
+            "/tag/v1.0",
+            "/remote/origin_master",
+            "/commit",
+            "/commit/ab",
+            "/commit/ab/cdef0123456789abcdef0123456789abcdef01",
+            "/commit/ab/cdef0123456789abcdef0123456789abcdef01/src/main/java/org/dstadler/jgitfs/JGitFS.java",
+            "/submodule/sub/commit/ab/cdef0123456789abcdef0123456789abcdef01/README.md",
+            "/stash/stash@{0}",
+            "/.Trash",
+    };
+
+    private int next;
+
+    @Benchmark
+    public int classify() {
+        String path = PATHS[next++ % PATHS.length];
+
+        // same order of checks as in JGitFilesystem.getattr()
+        if (GitUtils.isCommitSub(path) || GitUtils.isCommitDir(path) || GitUtils.isSubmoduleName(path)) {
+            return 1;
+        } else if (GitUtils.isCommitSubDir(path)) {
+            return 2;
+        } else if (GitUtils.isBranchDir(path) || GitUtils.isTagDir(path) || GitUtils.isRemoteDir(path) ||
+                GitUtils.isStashDir(path) || GitUtils.isStashOrigDir(path)) {
+            return 3;
+        } else if (GitUtils.isSubmodulePath(path)) {
+            return 4;
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public OperationStats.Namespace namespace() {
+        return OperationStats.Namespace.of(PATHS[next++ % PATHS.length]);
+    }
+}
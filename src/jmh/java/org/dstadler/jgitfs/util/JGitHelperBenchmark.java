@@ -0,0 +1,112 @@
+package org.dstadler.jgitfs.util;
+
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import org.dstadler.jgitfs.BenchmarkRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the methods of {@link JGitHelper} which are called by the FUSE callbacks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JGitHelperBenchmark {
+    @Param({"WIDE", "DEEP", "HISTORY", "MIXED"})
+    public BenchmarkRepository shape;
+
+    private File dir;
+    private JGitHelper helper;
+
+    private String head;
+    private String[] files;
+    private String[] dirs;
+    private String[] branches;
+
+    @Setup
+    public void setUp() throws IOException {
+        RepositoryGenerator generator = shape.generator();
+        dir = shape.create(generator);
+        helper = new JGitHelper(dir.getAbsolutePath());
+
+        head = generator.getHead();
+        files = generator.getFiles().toArray(new String[0]);
+        dirs = generator.getDirs().toArray(new String[0]);
+        branches = helper.getBranches().toArray(new String[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        helper.close();
+        BenchmarkRepository.delete(dir);
+    }
+
+    /**
+     * The buffers and the position in the paths of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final StatWrapper stat = StatWrapperFactory.create();
+        private final byte[] buffer = new byte[16 * 1024];
+        private int next;
+
+        String next(String[] paths) {
+            return paths[next++ % paths.length];
+        }
+    }
+
+    @Benchmark
+    public StatWrapper readType(Cursor cursor) throws IOException {
+        helper.readType(head, cursor.next(files), cursor.stat);
+        return cursor.stat;
+    }
+
+    @Benchmark
+    public int openFile(Cursor cursor) throws IOException {
+        try (InputStream stream = helper.openFile(head, cursor.next(files))) {
+            return stream.read(cursor.buffer);
+        }
+    }
+
+    @Benchmark
+    public void readElementsAt(Cursor cursor, Blackhole blackhole) throws IOException {
+        helper.readElementsAt(head, cursor.next(dirs), blackhole::consume);
+    }
+
+    @Benchmark
+    public String getBranchHeadCommit(Cursor cursor) throws IOException {
+        return helper.getBranchHeadCommit(cursor.next(branches));
+    }
+
+    @Benchmark
+    public List<String> getBranches() throws IOException {
+        return helper.getBranches();
+    }
+
+    @Benchmark
+    public Set<String> allCommitSubs() throws IOException {
+        return helper.allCommitSubs();
+    }
+}
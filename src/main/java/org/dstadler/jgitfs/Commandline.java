@@ -1,5 +1,6 @@
 package org.dstadler.jgitfs;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.logging.Logger;
@@ -13,6 +14,7 @@ import org.apache.commons.cli.help.HelpFormatter;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.jgitfs.util.StorageProfile;
 
 /**
  * Provide commandline parsing, error messages and getters for
@@ -23,6 +25,22 @@ public class Commandline {
 
     private static final String OPTION_NO_CONSOLE = "n";
     private static final String OPTION_TEST_ONLY = "t";
+    private static final String OPTION_WARM_SUBMODULES = "w";
+    private static final String OPTION_MEMORY_BUDGET = "m";
+    private static final String OPTION_PACKED_GIT_LIMIT = "packed-git-limit";
+    private static final String OPTION_WINDOW_SIZE = "window-size";
+    private static final String OPTION_OPEN_FILES = "open-files";
+    private static final String OPTION_DELTA_BASE_CACHE = "delta-base-cache";
+    private static final String OPTION_MMAP = "mmap";
+    private static final String OPTION_NO_MMAP = "no-mmap";
+    private static final String OPTION_HIBERNATE_AFTER = "hibernate-after";
+    private static final String OPTION_IN_MEMORY = "in-memory";
+    private static final String OPTION_METRICS_PORT = "metrics-port";
+    private static final String OPTION_SLOW_THRESHOLD = "slow-threshold";
+    private static final String OPTION_SLOW_LOG = "slow-log";
+    private static final String OPTION_TRACE = "trace";
+
+    private static final String DEFAULT_SLOW_LOG = "jgitfs-slow.log";
 
     public static final String USAGE_TEXT = "JGitFS [<option> ...] <git-repo> [<mountpoint>] ...";
 
@@ -30,6 +48,15 @@ public class Commandline {
 
     private boolean noConsole;
     private boolean testOnly;
+    private boolean warmSubmodules;
+    private long memoryBudget = -1;
+    private final StorageProfile storageProfile = new StorageProfile();
+    private long hibernateAfter;
+    private long inMemoryLimit = -1;
+    private int metricsPort = -1;
+    private long slowThreshold = -1;
+    private File slowLog = new File(DEFAULT_SLOW_LOG);
+    private File trace;
     private List<String> argList;
 
     public Commandline() {
@@ -45,6 +72,100 @@ public class Commandline {
                         longOpt("test-only").
                         desc("Only try to mount and then exit again").
                         get());
+        cmdLineOptions.addOption(
+                Option.builder(OPTION_WARM_SUBMODULES).
+                        longOpt("warm-submodules").
+                        desc("Open all submodules in the background after mounting instead of on first access").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder(OPTION_MEMORY_BUDGET).
+                        longOpt("memory-budget").
+                        hasArg().
+                        argName("MB").
+                        desc("Heap in MB which is used for caches of all mounted repositories together, default: half of the maximum heap").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_PACKED_GIT_LIMIT).
+                        hasArg().
+                        argName("MB").
+                        desc("Heap in MB which is used for caching pack-files, default: computed from the memory budget and the size of the pack-files").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_WINDOW_SIZE).
+                        hasArg().
+                        argName("KB").
+                        desc("Size in KB of the blocks which are read from pack-files, needs to be a power of 2, default: computed from the packed-git-limit").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_OPEN_FILES).
+                        hasArg().
+                        argName("count").
+                        desc("Number of pack-files which are kept open, default: computed from the number of pack-files and mounts").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_DELTA_BASE_CACHE).
+                        hasArg().
+                        argName("MB").
+                        desc("Heap in MB which is used for caching base objects of deltas, default: computed from the memory budget").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_MMAP).
+                        desc("Access pack-files via memory-mapping, i.e. cached pack-data is held in the page-cache outside of the heap, " +
+                                "default: only if the pack-files are much larger than the packed-git-limit").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_NO_MMAP).
+                        desc("Always copy pack-data into the heap instead of memory-mapping pack-files").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_HIBERNATE_AFTER).
+                        hasArg().
+                        argName("minutes").
+                        desc("Release caches and open files of repositories which were not accessed for this time, default: 0, i.e. disabled").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_IN_MEMORY).
+                        hasArg().
+                        argName("MB").
+                        desc("Hold all objects of repositories which need at most this much heap in memory, " +
+                                "larger repositories are read from the pack-files").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_METRICS_PORT).
+                        hasArg().
+                        argName("port").
+                        desc("Serve metrics in the format of Prometheus at http://127.0.0.1:<port>/metrics").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_SLOW_THRESHOLD).
+                        hasArg().
+                        argName("millis").
+                        desc("Log callbacks which take at least this long with their path and a breakdown of the time spent").
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_SLOW_LOG).
+                        hasArg().
+                        argName("file").
+                        desc("The file for logging slow callbacks, rolled over at 10MB, default: " + DEFAULT_SLOW_LOG).
+                        get());
+        cmdLineOptions.addOption(
+                Option.builder().
+                        longOpt(OPTION_TRACE).
+                        hasArg().
+                        argName("file").
+                        desc("Record all callbacks to this file, they can be replayed with TraceReplayer from the test-sources").
+                        get());
     }
 
     public void parse(String[] args) throws IOException {
@@ -69,9 +190,88 @@ public class Commandline {
                 testOnly = true;
             }
 
+            if(cmdLineParser.hasOption(OPTION_WARM_SUBMODULES)) {
+                warmSubmodules = true;
+            }
+
+            if(cmdLineParser.hasOption(OPTION_MEMORY_BUDGET)) {
+                memoryBudget = Long.parseLong(cmdLineParser.getOptionValue(OPTION_MEMORY_BUDGET)) * 1024 * 1024;
+                if (memoryBudget <= 0) {
+                    throw new IllegalArgumentException("Memory budget needs to be positive, had: " + cmdLineParser.getOptionValue(OPTION_MEMORY_BUDGET));
+                }
+            }
+
+            if(cmdLineParser.hasOption(OPTION_PACKED_GIT_LIMIT)) {
+                storageProfile.setPackedGitLimit(parsePositive(cmdLineParser, OPTION_PACKED_GIT_LIMIT) * 1024 * 1024);
+            }
+
+            if(cmdLineParser.hasOption(OPTION_WINDOW_SIZE)) {
+                long windowSize = parsePositive(cmdLineParser, OPTION_WINDOW_SIZE) * 1024;
+                if (Long.bitCount(windowSize) != 1 || windowSize > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Window size needs to be a power of 2, had: " + cmdLineParser.getOptionValue(OPTION_WINDOW_SIZE));
+                }
+                storageProfile.setWindowSize((int) windowSize);
+            }
+
+            if(cmdLineParser.hasOption(OPTION_OPEN_FILES)) {
+                storageProfile.setOpenFiles((int) parsePositive(cmdLineParser, OPTION_OPEN_FILES));
+            }
+
+            if(cmdLineParser.hasOption(OPTION_DELTA_BASE_CACHE)) {
+                storageProfile.setDeltaBaseCacheLimit((int) (parsePositive(cmdLineParser, OPTION_DELTA_BASE_CACHE) * 1024 * 1024));
+            }
+
+            if(cmdLineParser.hasOption(OPTION_MMAP) && cmdLineParser.hasOption(OPTION_NO_MMAP)) {
+                throw new IllegalArgumentException("Cannot use both --" + OPTION_MMAP + " and --" + OPTION_NO_MMAP);
+            } else if(cmdLineParser.hasOption(OPTION_MMAP)) {
+                storageProfile.setMmap(true);
+            } else if(cmdLineParser.hasOption(OPTION_NO_MMAP)) {
+                storageProfile.setMmap(false);
+            }
+
+            if(cmdLineParser.hasOption(OPTION_HIBERNATE_AFTER)) {
+                long minutes = Long.parseLong(cmdLineParser.getOptionValue(OPTION_HIBERNATE_AFTER));
+                if (minutes < 0) {
+                    throw new IllegalArgumentException("Hibernation time cannot be negative, had: " + cmdLineParser.getOptionValue(OPTION_HIBERNATE_AFTER));
+                }
+                hibernateAfter = minutes * 60 * 1000;
+            }
+
+            if(cmdLineParser.hasOption(OPTION_IN_MEMORY)) {
+                inMemoryLimit = parsePositive(cmdLineParser, OPTION_IN_MEMORY) * 1024 * 1024;
+            }
+
+            if(cmdLineParser.hasOption(OPTION_METRICS_PORT)) {
+                metricsPort = (int) parsePositive(cmdLineParser, OPTION_METRICS_PORT);
+                if (metricsPort > 65535) {
+                    throw new IllegalArgumentException("Invalid port for metrics, had: " + metricsPort);
+                }
+            }
+
+            if(cmdLineParser.hasOption(OPTION_SLOW_THRESHOLD)) {
+                slowThreshold = parsePositive(cmdLineParser, OPTION_SLOW_THRESHOLD);
+            }
+
+            if(cmdLineParser.hasOption(OPTION_SLOW_LOG)) {
+                slowLog = new File(cmdLineParser.getOptionValue(OPTION_SLOW_LOG));
+            }
+
+            if(cmdLineParser.hasOption(OPTION_TRACE)) {
+                trace = new File(cmdLineParser.getOptionValue(OPTION_TRACE));
+            }
+
             log.info("Having commandline options: " +
                     "no-console: " + noConsole +
                     "test-only: " + testOnly +
+                    "warm-submodules: " + warmSubmodules +
+                    "memory-budget: " + memoryBudget +
+                    "storage: " + storageProfile +
+                    "hibernate-after: " + hibernateAfter +
+                    "in-memory: " + inMemoryLimit +
+                    "metrics-port: " + metricsPort +
+                    "slow-threshold: " + slowThreshold +
+                    "slow-log: " + slowLog +
+                    "trace: " + trace +
                     "remaining: " + argList);
         } catch (Exception e) {
             System.err.println("Error parsing arguments: " + ExceptionUtils.getStackTrace(e));
@@ -81,6 +281,14 @@ public class Commandline {
         }
     }
 
+    private static long parsePositive(CommandLine cmdLineParser, String option) {
+        long value = Long.parseLong(cmdLineParser.getOptionValue(option));
+        if (value <= 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Option " + option + " needs to be positive, had: " + cmdLineParser.getOptionValue(option));
+        }
+        return value;
+    }
+
     public boolean isNoConsole() {
         return noConsole;
     }
@@ -89,6 +297,66 @@ public class Commandline {
         return testOnly;
     }
 
+    public boolean isWarmSubmodules() {
+        return warmSubmodules;
+    }
+
+    /**
+     * @return The memory budget in bytes or -1 if none was specified
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return The settings for accessing pack-files, values which were not specified are not set
+     */
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    /**
+     * @return The time in milliseconds without access after which a repository hibernates, 0 if disabled
+     */
+    public long getHibernateAfter() {
+        return hibernateAfter;
+    }
+
+    /**
+     * @return The maximum heap in bytes for holding the objects of a repository in memory or -1 if not enabled
+     */
+    public long getInMemoryLimit() {
+        return inMemoryLimit;
+    }
+
+    /**
+     * @return The local port for serving metrics or -1 if not enabled
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return The duration in milliseconds at which callbacks are logged as slow or -1 if not enabled
+     */
+    public long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    /**
+     * @return The file for logging slow callbacks
+     */
+    public File getSlowLog() {
+        return slowLog;
+    }
+
+    /**
+     * @return The file for recording all callbacks or null if not enabled
+     */
+    public File getTrace() {
+        return trace;
+    }
+
     public List<String> getArgList() {
         return argList;
     }
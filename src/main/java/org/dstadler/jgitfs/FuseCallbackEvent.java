@@ -0,0 +1,43 @@
+package org.dstadler.jgitfs;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one FUSE callback of {@link JGitFilesystem}.
+ * <p>
+ * The fields are only filled when the event is recorded, so the event costs
+ * next to nothing while no recording is running.
+ */
+@Name("org.dstadler.jgitfs.FuseCallback")
+@Label("FUSE Callback")
+@Category({ "JGitFS", "FUSE" })
+@Description("A callback of the filesystem, e.g. getattr or read")
+@StackTrace(false)
+class FuseCallbackEvent extends jdk.jfr.Event {
+    @Label("Repository")
+    String repository;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Path Class")
+    @Description("The top-level directory of the path, e.g. /commit or /branch")
+    String pathClass;
+
+    @Label("Commit")
+    @Description("The commit-id for paths beneath /commit")
+    String commitId;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Result")
+    @Description("The value returned to FUSE, negative values are error-codes, Integer.MIN_VALUE for exceptions")
+    int result;
+}
@@ -2,18 +2,31 @@ package org.dstadler.jgitfs;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.dstadler.jgitfs.console.Console;
 import org.dstadler.jgitfs.util.FuseUtils;
+import org.dstadler.jgitfs.util.LatencyHistogram;
+import org.dstadler.jgitfs.util.MemoryGovernor;
+import org.dstadler.jgitfs.util.OperationStats;
+import org.dstadler.jgitfs.util.OperationStats.Namespace;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.dstadler.jgitfs.util.SlowOperationLog;
+import org.dstadler.jgitfs.util.TraceRecorder;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.fusejna.FuseException;
 
@@ -28,6 +41,16 @@ import net.fusejna.FuseException;
 public class JGitFS {
     private static final ConcurrentMap<String, Pair<File, JGitFilesystem>> mounts = new ConcurrentHashMap<>();
 
+    /**
+     * Check for idle repositories at least this often.
+     */
+    private static final long MAX_HIBERNATION_CHECK_MS = 60 * 1000;
+
+    /**
+     * Repositories whose objects need at most this many bytes are held in memory, -1 if not enabled.
+     */
+    private static volatile long inMemoryLimit = -1;
+
     // private constructor to not instantiate utility class
     private JGitFS() {}
 
@@ -76,9 +99,41 @@ public class JGitFS {
             System.exit(1);
         }
 
+        if (cmd.getMemoryBudget() > 0) {
+            MemoryGovernor.get().setBudget(cmd.getMemoryBudget());
+        }
+
+        // the storage settings are global for the process, so compute them from all repositories before mounting
+        List<File> gitDirs = new ArrayList<>();
+        for (int i = 0; i < argList.size(); i += 2) {
+            gitDirs.add(new File(argList.get(i)));
+        }
+        MemoryGovernor.get().setStorageProfile(cmd.getStorageProfile(), gitDirs);
+        inMemoryLimit = cmd.getInMemoryLimit();
+
+        SlowOperationLog slowLog = null;
+        if (cmd.getSlowThreshold() > 0) {
+            slowLog = new SlowOperationLog(cmd.getSlowLog(), cmd.getSlowThreshold());
+            SlowOperationLog.install(slowLog);
+            System.out.println("Logging callbacks which take at least " + cmd.getSlowThreshold() + "ms to " + cmd.getSlowLog());
+        }
+
+        TraceRecorder traceRecorder = null;
+        if (cmd.getTrace() != null) {
+            traceRecorder = new TraceRecorder(cmd.getTrace());
+            TraceRecorder.install(traceRecorder);
+            System.out.println("Recording all callbacks to " + cmd.getTrace());
+        }
+
+        MetricsServer metricsServer = null;
         try {
             for (int i = 0; i < argList.size(); i += 2) {
                 mount(argList.get(i), new File(argList.get(i + 1)));
+
+                // submodules are opened on first access unless requested otherwise
+                if (cmd.isWarmSubmodules()) {
+                    mounts.get(argList.get(i)).getRight().warmSubmodules();
+                }
             }
 
 			// unmount and exit immediately if requested via commandline argument
@@ -86,6 +141,14 @@ public class JGitFS {
 				return;
 			}
 
+            if (cmd.getHibernateAfter() > 0) {
+                startHibernation(cmd.getHibernateAfter());
+            }
+
+            if (cmd.getMetricsPort() > 0) {
+                metricsServer = new MetricsServer(cmd.getMetricsPort(), JGitFS::getFilesystems);
+            }
+
             if (cmd.isNoConsole()) {
                 // just loop endlessly
                 while (true) {
@@ -95,15 +158,57 @@ public class JGitFS {
                 new Console().run(System.in, System.out);
             }
         } finally {
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+
             // ensure that we try to close all filesystems that we created
             for (Pair<File, JGitFilesystem> gitFS : mounts.values()) {
                 gitFS.getRight().close();
             }
 
 			mounts.clear();
+
+            if (slowLog != null) {
+                slowLog.close();
+            }
+            if (traceRecorder != null) {
+                traceRecorder.close();
+                System.out.println("Recorded trace " + traceRecorder);
+            }
         }
     }
 
+    private static Map<String, JGitFilesystem> getFilesystems() {
+        Map<String, JGitFilesystem> filesystems = new HashMap<>();
+        for (Map.Entry<String, Pair<File, JGitFilesystem>> entry : mounts.entrySet()) {
+            filesystems.put(entry.getKey(), entry.getValue().getRight());
+        }
+        return filesystems;
+    }
+
+    /**
+     * Periodically release the resources of mounted repositories which were not accessed for the given time.
+     *
+     * @param idleMillis The time without access after which a repository hibernates
+     */
+    private static void startHibernation(long idleMillis) {
+        long interval = Math.min(MAX_HIBERNATION_CHECK_MS, idleMillis);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("hibernation")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(() -> {
+            for (Pair<File, JGitFilesystem> mount : mounts.values()) {
+                try {
+                    mount.getRight().hibernateIfIdle(idleMillis);
+                } catch (RuntimeException e) {
+                    System.out.println("Could not hibernate " + mount.getRight() + ": " + e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Unmount the given mounting and free related system resources.
      *
@@ -158,6 +263,15 @@ public class JGitFS {
         // now create the Git filesystem
         JGitFilesystem gitFS = new JGitFilesystem(gitDir, false);
 
+        // small repositories are served from memory if requested
+        if (inMemoryLimit > 0) {
+            try {
+                gitFS.loadIntoMemory(inMemoryLimit);
+            } catch (IOException e) {
+                System.out.println("Could not load " + gitDir + " into memory, reading from pack-files instead: " + e);
+            }
+        }
+
         // ensure that we do not have a previous mount lingering on the mountpoint
         FuseUtils.prepareMountpoint(mountPoint);
 
@@ -188,8 +302,65 @@ public class JGitFS {
                 statsStr.append("%8s: %8d, ".formatted(stat.getKey(), stat.getValue()));
             }
             System.out.printf(
-                    "%-" + maxKey + "s mounted at %-" + maxValue + "s, stats: %s%n",
-                    entry.getKey(), entry.getValue().getLeft().getAbsolutePath(), statsStr);
+                    "%-" + maxKey + "s mounted at %-" + maxValue + "s, %-10s stats: %s%n",
+                    entry.getKey(), entry.getValue().getLeft().getAbsolutePath(),
+                    entry.getValue().getRight().isHibernated() ? "hibernated" : "active", statsStr);
+
+            // latencies since mounting
+            OperationStats operations = entry.getValue().getRight().getOperationStats();
+            for (Operation operation : Operation.values()) {
+                System.out.printf("    %-8s %s%n", operation,
+                        OperationStats.format(operations.getLatencies(operation), operations.getSeconds()));
+            }
+        }
+
+        // the memory is shared by all repositories, so it is only printed once
+        StringBuilder memoryStr = new StringBuilder();
+        for (Pair<String, Long> stat : MemoryGovernor.get().getStats()) {
+            memoryStr.append("%8s: %8d, ".formatted(stat.getKey(), stat.getValue()));
+        }
+        System.out.println("Memory stats: " + memoryStr);
+    }
+
+    /**
+     * Prints the latencies of all mounted git repositories per callback and top-level directory
+     * once per second.
+     *
+     * @param seconds How long to print the statistics
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public static void stats(int seconds) throws InterruptedException {
+        Map<String, LatencyHistogram.Snapshot> previous = new HashMap<>();
+        sampleLatencies(previous);
+
+        for (int i = 0; i < seconds; i++) {
+            long start = System.nanoTime();
+            Thread.sleep(1000);
+
+            Map<String, LatencyHistogram.Snapshot> current = new HashMap<>();
+            sampleLatencies(current);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            System.out.println("---");
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : new TreeMap<>(current).entrySet()) {
+                LatencyHistogram.Snapshot before = previous.get(entry.getKey());
+                LatencyHistogram.Snapshot interval = before == null ? entry.getValue() : entry.getValue().minus(before);
+                if (interval.getCount() > 0) {
+                    System.out.printf("%-60s %s%n", entry.getKey(), OperationStats.format(interval, elapsed));
+                }
+            }
+            previous = current;
+        }
+    }
+
+    private static void sampleLatencies(Map<String, LatencyHistogram.Snapshot> samples) {
+        for (Map.Entry<String, Pair<File, JGitFilesystem>> entry : mounts.entrySet()) {
+            OperationStats operations = entry.getValue().getRight().getOperationStats();
+            for (Operation operation : Operation.values()) {
+                for (Namespace namespace : Namespace.values()) {
+                    samples.put(entry.getKey() + " " + operation + " " + namespace, operations.getLatencies(operation, namespace));
+                }
+            }
         }
     }
 }
@@ -7,14 +7,23 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.collect.ImmutableList;
 import jakarta.annotation.Nonnull;
@@ -28,35 +37,81 @@ import net.fusejna.types.TypeMode.NodeType;
 import net.fusejna.util.FuseFilesystemAdapterFull;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
 import org.apache.commons.lang3.tuple.Pair;
+import org.dstadler.jgitfs.util.CallProfile;
 import org.dstadler.jgitfs.util.GitUtils;
 import org.dstadler.jgitfs.util.JGitHelper;
+import org.dstadler.jgitfs.util.MemoryGovernor;
+import org.dstadler.jgitfs.util.OperationStats;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.dstadler.jgitfs.util.SlowOperationLog;
+import org.dstadler.jgitfs.util.TraceRecorder;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Implementation of the {@link FuseFilesystem} interfaces to
  * provide a view of branches/tags/stashes/commits of the given
  * Git repository.
+ * <p>
+ * libfuse invokes the callbacks from multiple threads concurrently, so all state
+ * is kept in thread-safe structures and no lock is held while Git data is read, i.e.
+ * a slow read of one file does not block requests for other files.
  *
  * @author dominik.stadler
  */
 public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeable {
     private static final long CACHE_TIMEOUT = 60 * 1000;    // one minute
+    private static final int REF_LINK_CACHE_SIZE = 200;
+    private static final int TREE_LINK_CACHE_SIZE = 10_000;
 
-    private long lastLinkCacheCleanup = System.currentTimeMillis();
+    private final AtomicLong lastLinkCacheCleanup = new AtomicLong(System.currentTimeMillis());
 
     private final JGitHelper jgitHelper;
-    private final Map<String, JGitFilesystem> jgitSubmodules = new HashMap<>();
+    private final boolean enableLogging;
+
+    /**
+     * Calls of submodules are traced as part of the call of the parent filesystem.
+     */
+    private final boolean submodule;
+
+    /**
+     * Filesystems for submodules, these are opened lazily on first access
+     */
+    private final ConcurrentMap<String, FutureTask<JGitFilesystem>> jgitSubmodules = new ConcurrentHashMap<>();
+
+    /**
+     * Opens submodules in the background, see {@link #warmSubmodules()}
+     */
+    private volatile ExecutorService submoduleWarmup;
+    private volatile boolean closed;
 
     private final AtomicLong getattrStat = new AtomicLong();
     private final AtomicLong readStat = new AtomicLong();
     private final AtomicLong readdirStat = new AtomicLong();
     private final AtomicLong readlinkStat = new AtomicLong();
+    private final OperationStats operations = new OperationStats();
+
+    /**
+     * Allows the memory governor to evict the caches of filesystems which are not used currently.
+     */
+    private final MemoryGovernor.Participant cacheParticipant = new CacheParticipant();
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    /**
+     * FUSE callbacks hold the read-lock, hibernation only happens while no callback is executing.
+     */
+    private final ReadWriteLock activity = new ReentrantReadWriteLock();
+    private volatile boolean hibernated;
+    private final AtomicLong hibernations = new AtomicLong();
 
     /**
      * static set of directories to handle them quickly in getattr().
@@ -98,20 +153,14 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
         // disable verbose logging
         log(enableLogging);
+        this.enableLogging = enableLogging;
+        this.submodule = false;
 
         jgitHelper = new JGitHelper(gitDir);
+        jgitHelper.addRefsChangedListener(refLinkCache::invalidateAll);
+        MemoryGovernor.get().register(cacheParticipant);
 
-        // open a separate JGitFilesystem for any submodule found in the Git repository
-        for (String subName : jgitHelper.allSubmodules()) {
-            String subPath = jgitHelper.getSubmodulePath(subName);
-            System.out.println("Preparing submodule " + subName + " at " + subPath);
-            try {
-                JGitFilesystem jgitFS = new JGitFilesystem(this, subPath, enableLogging);
-                jgitSubmodules.put(subName, jgitFS);
-            } catch (IllegalArgumentException e) {
-                System.out.println("Error adding submodule: " + subName + ": " + e);
-            }
-        }
+        // a separate JGitFilesystem for submodules is only opened when the submodule is accessed
     }
 
     /**
@@ -127,8 +176,130 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
         // disable verbose logging
         log(enableLogging);
+        this.enableLogging = enableLogging;
+        this.submodule = true;
 
         jgitHelper = new JGitHelper(parent.jgitHelper, submodulePath);
+        jgitHelper.addRefsChangedListener(refLinkCache::invalidateAll);
+        MemoryGovernor.get().register(cacheParticipant);
+    }
+
+    /**
+     * Returns the filesystem for the given submodule, it is opened when
+     * the submodule is accessed for the first time.
+     *
+     * @param subName The name of the submodule
+     * @return The filesystem for the submodule or null if the submodule is unknown, cannot be opened or this filesystem is closed
+     */
+    private JGitFilesystem getSubmodule(String subName) {
+        if (closed) {
+            return null;
+        }
+
+        FutureTask<JGitFilesystem> task = jgitSubmodules.computeIfAbsent(subName,
+                name -> new FutureTask<>(() -> openSubmodule(name)));
+
+        // the first caller opens the submodule outside of the lock of the map,
+        // for concurrent callers or when it is already open this returns immediately
+        task.run();
+        final JGitFilesystem subFS;
+        try {
+            subFS = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            // failures are not kept, so the next access tries again
+            jgitSubmodules.remove(subName, task);
+            if (!closed) {
+                System.out.println("Error adding submodule: " + subName + ": " + e.getCause());
+            }
+            return null;
+        }
+
+        if (closed) {
+            // whoever removes the submodule from the map closes it, close() may not have seen it
+            if (jgitSubmodules.remove(subName, task)) {
+                closeSubmodule(subName, subFS);
+            }
+            return null;
+        }
+
+        return subFS;
+    }
+
+    private JGitFilesystem openSubmodule(String subName) throws IOException {
+        if (closed) {
+            throw new IOException("Cannot open submodule " + subName + " of " + jgitHelper + " as it was closed");
+        }
+
+        String subPath = jgitHelper.getSubmodulePath(subName);
+        System.out.println("Preparing submodule " + subName + " at " + subPath);
+        return new JGitFilesystem(this, subPath, enableLogging);
+    }
+
+    /**
+     * @return The submodules which were opened successfully, ones which are currently opened are not included
+     */
+    private Map<String, JGitFilesystem> getOpenedSubmodules() {
+        Map<String, JGitFilesystem> opened = new TreeMap<>();
+        for (Map.Entry<String, FutureTask<JGitFilesystem>> entry : jgitSubmodules.entrySet()) {
+            if (entry.getValue().state() == Future.State.SUCCESS) {
+                opened.put(entry.getKey(), entry.getValue().resultNow());
+            }
+        }
+        return opened;
+    }
+
+    private static void closeSubmodule(String subName, JGitFilesystem subFS) {
+        System.out.println("Closing submodule " + subName);
+        try {
+            subFS.close();
+        } catch (IOException e) {
+            System.out.println("Could not close submodule " + subName + ": " + e);
+        }
+    }
+
+    /**
+     * Open the filesystems for all submodules in parallel in the background, so that
+     * the first access to a submodule does not need to wait for opening the Git repository.
+     */
+    public void warmSubmodules() {
+        final Collection<String> subNames;
+        try {
+            subNames = jgitHelper.allSubmodules();
+        } catch (IOException e) {
+            System.out.println("Could not read submodules of " + jgitHelper + ": " + e);
+            return;
+        }
+        if (subNames.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(subNames.size(), Runtime.getRuntime().availableProcessors()),
+                new ThreadFactoryBuilder().setNameFormat("submodule-warmup-%d").setDaemon(true).build());
+        submoduleWarmup = executor;
+        for (String subName : subNames) {
+            executor.execute(() -> getSubmodule(subName));
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Serve this repository from memory if all its objects fit into the given number of bytes,
+     * otherwise it is read from the pack-files as usual. Submodules are not affected.
+     *
+     * @param limit The maximum number of bytes of heap to use for the objects of the repository
+     * @return true if the objects are held in memory now
+     * @throws IOException If reading from the Git repository fails
+     */
+    public boolean loadIntoMemory(long limit) throws IOException {
+        return jgitHelper.loadIntoMemory(limit);
     }
 
     @Override
@@ -142,7 +313,23 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
     @Override
     public int getattr(final String path, final StatWrapper stat) {
+        Lock lock = beginCall();
+        FuseCallbackEvent event = new FuseCallbackEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int result = OperationStats.FAILED;
+        try {
+            result = doGetattr(path, stat);
+            return result;
+        } finally {
+            endCall(Operation.GETATTR, path, 0, 0, start, result, event);
+            lock.unlock();
+        }
+    }
+
+    private int doGetattr(final String path, final StatWrapper stat) {
         getattrStat.incrementAndGet();
+        touch();
 
         // known entries and directories beneath /commit are always directories
         if (DIRS.contains(path) || GitUtils.isCommitSub(path) || GitUtils.isCommitDir(path) || GitUtils.isSubmoduleName(path)) {
@@ -169,8 +356,12 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
         } else if (GitUtils.isSubmodulePath(path)) {
             // delegate submodule-requests to the separate filesystem
             Pair<String, String> sub = GitUtils.splitSubmodule(path);
+            JGitFilesystem subFS = getSubmodule(sub.getLeft());
+            if (subFS == null) {
+                return -ErrorCodes.ENOENT();
+            }
 
-            return jgitSubmodules.get(sub.getLeft()).getattr(sub.getRight(), stat);
+            return subFS.getattr(sub.getRight(), stat);
         }
 
         // all others are reported as "not found"
@@ -190,13 +381,33 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
     @Override
     public int read(final String path, final ByteBuffer buffer, final long size, final long offset, final FileInfoWrapper info) {
+        Lock lock = beginCall();
+        FuseCallbackEvent event = new FuseCallbackEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int result = OperationStats.FAILED;
+        try {
+            result = doRead(path, buffer, size, offset, info);
+            return result;
+        } finally {
+            endCall(Operation.READ, path, offset, size, start, result, event);
+            lock.unlock();
+        }
+    }
+
+    private int doRead(final String path, final ByteBuffer buffer, final long size, final long offset, final FileInfoWrapper info) {
         readStat.incrementAndGet();
+        touch();
 
         // delegate submodule-requests to the separate filesystem
         if (GitUtils.isSubmodulePath(path)) {
             Pair<String, String> sub = GitUtils.splitSubmodule(path);
+            JGitFilesystem subFS = getSubmodule(sub.getLeft());
+            if (subFS == null) {
+                return -ErrorCodes.ENOENT();
+            }
 
-            return jgitSubmodules.get(sub.getLeft()).read(sub.getRight(), buffer, size, offset, info);
+            return subFS.read(sub.getRight(), buffer, size, offset, info);
         }
 
         String commit = jgitHelper.readCommit(path);
@@ -204,6 +415,8 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
         try {
             try (InputStream openFile = jgitHelper.openFile(commit, file)) {
+                long copyStart = CallProfile.start();
+
                 // skip until we are at the offset
                 IOUtils.skip(openFile, offset);
 
@@ -211,10 +424,12 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
                 int read = openFile.read(arr, 0, (int) size);
                 // -1 indicates EOF => nothing to put into the buffer
                 if (read == -1) {
+                    CallProfile.stop(CallProfile.Phase.COPY, copyStart, 0);
                     return 0;
                 }
 
                 buffer.put(arr, 0, read);
+                CallProfile.stop(CallProfile.Phase.COPY, copyStart, read);
 
                 return read;
             }
@@ -225,7 +440,23 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
     @Override
     public int readdir(final String path, final DirectoryFiller filler) {
+        Lock lock = beginCall();
+        FuseCallbackEvent event = new FuseCallbackEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int result = OperationStats.FAILED;
+        try {
+            result = doReaddir(path, filler);
+            return result;
+        } finally {
+            endCall(Operation.READDIR, path, 0, 0, start, result, event);
+            lock.unlock();
+        }
+    }
+
+    private int doReaddir(final String path, final DirectoryFiller filler) {
         readdirStat.incrementAndGet();
+        touch();
 
         if (path.equals("/")) {
             // populate top-level directory with all supported sub-directories
@@ -263,11 +494,8 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
             // get the sub that is requested here
             String sub = Strings.CS.removeStart(path, GitUtils.COMMIT_SLASH);
             try {
-                // list all commits for the requested sub
-                Collection<String> items = jgitHelper.allCommits(sub);
-                for (String item : items) {
-                    filler.add(item.substring(2));
-                }
+                // list all commits for the requested sub, without the sub itself
+                jgitHelper.allCommits(sub, 2, filler::add);
             } catch (Exception e) {
                 throw new IllegalStateException("Error reading elements of path " + path, e);
             }
@@ -279,8 +507,7 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
             String dir = jgitHelper.readPath(path);
 
             try {
-                List<String> items = jgitHelper.readElementsAt(commit, dir);
-                items.forEach(filler::add);
+                jgitHelper.readElementsAt(commit, dir, filler::add);
             } catch (Exception e) {
                 throw new IllegalStateException("Error reading elements of path " + path + ", commit " + commit + " and directory " + dir, e);
             }
@@ -288,8 +515,7 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
             return 0;
         } else if (path.equals("/tag")) {
             try {
-                List<String> items = jgitHelper.getTags();
-                items.forEach(filler::add);
+                jgitHelper.getTags(filler::add);
             } catch (Exception e) {
                 throw new IllegalStateException("Error reading tags", e);
             }
@@ -297,8 +523,7 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
             return 0;
         } else if (path.equals("/branch")) {
             try {
-                List<String> items = jgitHelper.getBranches();
-                items.forEach(filler::add);
+                jgitHelper.getBranches(filler::add);
             } catch (Exception e) {
                 throw new IllegalStateException("Error reading branches", e);
             }
@@ -306,8 +531,7 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
             return 0;
         } else if (path.equals("/remote")) {
             try {
-                List<String> items = jgitHelper.getRemotes();
-                items.forEach(filler::add);
+                jgitHelper.getRemotes(filler::add);
             } catch (Exception e) {
                 throw new IllegalStateException("Error reading remotes", e);
             }
@@ -326,12 +550,15 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
         } else if (GitUtils.isSubmodulePath(path)) {
             // delegate submodule-requests to the separate filesystem
             Pair<String, String> sub = GitUtils.splitSubmodule(path);
+            JGitFilesystem subFS = getSubmodule(sub.getLeft());
+            if (subFS == null) {
+                return -ErrorCodes.ENOENT();
+            }
 
-            return jgitSubmodules.get(sub.getLeft()).readdir(sub.getRight(), filler);
+            return subFS.readdir(sub.getRight(), filler);
         } else if (path.equals("/stash") || path.equals("/stashorig")) {
             try {
-                List<String> items = jgitHelper.getStashes();
-                items.forEach(filler::add);
+                jgitHelper.getStashes(filler::add);
             } catch (Exception e) {
                 throw new IllegalStateException("Error reading stashes", e);
             }
@@ -343,16 +570,20 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
     }
 
     /**
-     * A cache for symlinks from branches/tags to commits, this is useful as queries for symlinks
+     * A cache for symlinks from branches/tags/remotes/stashes to commits, this is useful as queries for symlinks
      * are done very often as each access to a file on a branch also requires the symlink to the
      * actual commit to be resolved. This cache greatly improves the speed of these accesses.
      * <p>
+     * These links change whenever refs are updated in the repository, therefore the cache is kept small,
+     * entries expire after a short time and the cache is cleared whenever JGit reports changed refs.
+     * <p>
      * This makes use of the Google Guava LoadingCache features to automatically populate
      * entries when they are missing which makes the usage of the cache very simple.
      */
-    private final LoadingCache<String, byte[]> linkCache = CacheBuilder.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(1, TimeUnit.MINUTES)
+    private final LoadingCache<String, byte[]> refLinkCache = CacheBuilder.newBuilder()
+            .maximumSize(REF_LINK_CACHE_SIZE)
+            .expireAfterWrite(CACHE_TIMEOUT, TimeUnit.MILLISECONDS)
+            .recordStats()
             .build(
                     new CacheLoader<>() {
                         @Override
@@ -371,20 +602,7 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
                                 } else if (GitUtils.isStashOrigDir(path)) {
                                     commit = jgitHelper.getStashOrigCommit(Strings.CS.removeStart(path, GitUtils.STASHORIG_SLASH));
                                 } else {
-                                    String lCommit = jgitHelper.readCommit(path);
-                                    String dir = jgitHelper.readPath(path);
-
-                                    // for symlinks that are actually git-links for a submodule, we need to redirect back to the
-                                    // separate submodule-folder with the correct submodule name filled in
-                                    if (jgitHelper.isGitLink(lCommit, dir)) {
-                                        // TODO: does this still work with submodules in directories further down?
-                                        String subName = jgitHelper.getSubmoduleAt(dir);
-                                        String subHead = jgitHelper.getSubmoduleHead(subName);
-                                        return ("../../.." + GitUtils.SUBMODULE_SLASH + subName + GitUtils.COMMIT_SLASH +
-                                                subHead.substring(0, 2) + "/" + subHead.substring(2)).getBytes();
-                                    }
-
-                                    return jgitHelper.readSymlink(lCommit, dir).getBytes();
+                                    throw new FileNotFoundException("Had unknown path " + path + " in readlink()");
                                 }
 
                                 if (commit == null) {
@@ -398,29 +616,89 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
                         }
                     });
 
+    /**
+     * A cache for symlinks and git-links which are stored inside the tree of a commit.
+     * <p>
+     * As the path contains the full commit-id, the target of these links can never change,
+     * so entries do not expire and the cache can hold many more entries without being
+     * affected by the entries for branches/tags in {@link #refLinkCache}.
+     */
+    private final LoadingCache<String, byte[]> treeLinkCache = CacheBuilder.newBuilder()
+            .maximumSize(TREE_LINK_CACHE_SIZE)
+            .recordStats()
+            .build(
+                    new CacheLoader<>() {
+                        @Override
+                        @Nonnull
+                        public byte[] load(@Nonnull String path) {
+                            try {
+                                String lCommit = jgitHelper.readCommit(path);
+                                String dir = jgitHelper.readPath(path);
+
+                                // for symlinks that are actually git-links for a submodule, we need to redirect back to the
+                                // separate submodule-folder with the correct submodule name and linked commit filled in
+                                Pair<String, String> gitLink = jgitHelper.getGitLink(lCommit, dir);
+                                if (gitLink != null) {
+                                    // go up for "commit", the commit-sub, the commit and each directory above the git-link
+                                    String subCommit = gitLink.getRight();
+                                    return (StringUtils.repeat("..", "/", 3 + StringUtils.countMatches(dir, '/')) +
+                                            GitUtils.SUBMODULE_SLASH + gitLink.getLeft() + GitUtils.COMMIT_SLASH +
+                                            subCommit.substring(0, 2) + "/" + subCommit.substring(2)).getBytes();
+                                }
+
+                                return jgitHelper.readSymlink(lCommit, dir).getBytes();
+                            } catch (Exception e) {
+                                throw new IllegalStateException("Error reading target of link " + path, e);
+                            }
+                        }
+                    });
+
     @Override
     public int readlink(String path, ByteBuffer buffer, long size) {
+        Lock lock = beginCall();
+        FuseCallbackEvent event = new FuseCallbackEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int result = OperationStats.FAILED;
+        try {
+            result = doReadlink(path, buffer, size);
+            return result;
+        } finally {
+            endCall(Operation.READLINK, path, 0, size, start, result, event);
+            lock.unlock();
+        }
+    }
+
+    private int doReadlink(String path, ByteBuffer buffer, long size) {
         readlinkStat.incrementAndGet();
+        touch();
 
         if (GitUtils.isSubmodulePath(path)) {
             // delegate submodule-requests to the separate filesystem
             Pair<String, String> sub = GitUtils.splitSubmodule(path);
+            JGitFilesystem subFS = getSubmodule(sub.getLeft());
+            if (subFS == null) {
+                return -ErrorCodes.ENOENT();
+            }
 
-            return jgitSubmodules.get(sub.getLeft()).readlink(sub.getRight(), buffer, size);
+            return subFS.readlink(sub.getRight(), buffer, size);
         }
 
         // ensure that we evict caches sometimes, Google Guava does not make guarantees that
         // eviction happens automatically in a mostly read-only cache
-        if (System.currentTimeMillis() > (lastLinkCacheCleanup + CACHE_TIMEOUT)) {
-            System.out.println("Perform manual cache maintenance for " + jgitHelper.toString() + " after " + ((System.currentTimeMillis() - lastLinkCacheCleanup) / 1000) + " seconds");
-            lastLinkCacheCleanup = System.currentTimeMillis();
-            linkCache.cleanUp();
+        // compareAndSet() ensures that only one of the concurrent FUSE threads performs the cleanup
+        long lastCleanup = lastLinkCacheCleanup.get();
+        long now = System.currentTimeMillis();
+        if (now > (lastCleanup + CACHE_TIMEOUT) && lastLinkCacheCleanup.compareAndSet(lastCleanup, now)) {
+            System.out.println("Perform manual cache maintenance for " + jgitHelper.toString() + " after " + ((now - lastCleanup) / 1000) + " seconds");
+            refLinkCache.cleanUp();
         }
 
         // use the cache to speed up access, symlinks are always queried even for sub-path access, so we get lots of requests for these!
+        // links inside a commit never change, so they are kept separately from the links for branches/tags/...
         byte[] linkTarget;
         try {
-            linkTarget = linkCache.get(path);
+            linkTarget = GitUtils.isCommitSubDir(path) ? treeLinkCache.get(path) : refLinkCache.get(path);
             if (linkTarget == null) {
                 throw new IllegalStateException("Error reading commit of tag/branch-path " + path);
             }
@@ -449,10 +727,36 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
      */
     @Override
     public void close() throws IOException {
-        // also close any submodules that we found
-        for (Map.Entry<String, JGitFilesystem> entry : jgitSubmodules.entrySet()) {
-            System.out.println("Closing submodule " + entry.getKey());
-            entry.getValue().close();
+        closed = true;
+        MemoryGovernor.get().unregister(cacheParticipant);
+
+        // stop opening submodules in the background
+        ExecutorService executor = submoduleWarmup;
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    System.out.println("Opening submodules of " + jgitHelper + " did not finish while closing");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // also close any submodules that were opened, including those which are still being opened
+        for (Map.Entry<String, FutureTask<JGitFilesystem>> entry : new TreeMap<>(jgitSubmodules).entrySet()) {
+            FutureTask<JGitFilesystem> task = entry.getValue();
+            if (!jgitSubmodules.remove(entry.getKey(), task)) {
+                continue;
+            }
+
+            // a task which was not started yet fails right away as this filesystem is closed
+            task.run();
+            try {
+                closeSubmodule(entry.getKey(), Uninterruptibles.getUninterruptibly(task));
+            } catch (@SuppressWarnings("unused") ExecutionException e) {
+                // not opened, so nothing to close
+            }
         }
 
         jgitHelper.close();
@@ -467,12 +771,164 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
         }
     }
 
+    private Lock beginCall() {
+        Lock lock = activity.readLock();
+        lock.lock();
+
+        if (hibernated) {
+            // resources are opened again on demand, only the state needs to be switched
+            hibernated = false;
+            System.out.println("Waking up " + jgitHelper + " from hibernation");
+        }
+
+        CallProfile.begin();
+        return lock;
+    }
+
+    private void endCall(Operation operation, String path, long offset, long size, long start, int result, FuseCallbackEvent event) {
+        operations.record(operation, path, start, result);
+
+        TraceRecorder recorder = TraceRecorder.get();
+        if (recorder != null && !submodule) {
+            recorder.record(jgitHelper.getName(), operation, path, offset, size, start, result);
+        }
+
+        // only set for the outermost call while the slow-operation log is enabled
+        CallProfile profile = CallProfile.end();
+        if (profile != null) {
+            SlowOperationLog slowLog = SlowOperationLog.get();
+            if (slowLog != null) {
+                slowLog.record(jgitHelper.getName(), operation, path, start, result, profile);
+            }
+        }
+
+        // the fields are only computed while a flight recording is running
+        if (event.shouldCommit()) {
+            event.repository = jgitHelper.getName();
+            event.operation = operation.toString();
+            event.pathClass = OperationStats.Namespace.of(path).toString();
+            event.commitId = GitUtils.isCommitDir(path) || GitUtils.isCommitSubDir(path) ? jgitHelper.readCommit(path) : null;
+            event.bytes = operation == Operation.READ && result > 0 ? result : 0;
+            event.result = result;
+            event.commit();
+        }
+    }
+
+    private void touch() {
+        // only write the field once per second to not have all FUSE threads write the same memory all the time
+        long now = System.currentTimeMillis();
+        if (now - lastAccess > 1000) {
+            lastAccess = now;
+        }
+    }
+
+    /**
+     * Release caches, open pack-files and other resources of this filesystem and of its
+     * submodules if they were not accessed for the given time. They are re-opened on the
+     * next access.
+     *
+     * @param idleMillis The time without access after which the filesystem hibernates
+     * @return true if this filesystem was hibernated by this call
+     */
+    public boolean hibernateIfIdle(long idleMillis) {
+        // submodules are used independently of the parent repository
+        for (JGitFilesystem subFS : getOpenedSubmodules().values()) {
+            subFS.hibernateIfIdle(idleMillis);
+        }
+
+        if (hibernated || System.currentTimeMillis() - lastAccess < idleMillis) {
+            return false;
+        }
+
+        // skip this time if FUSE callbacks are currently executing
+        Lock lock = activity.writeLock();
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            System.out.println("Hibernating " + jgitHelper + " after " + ((System.currentTimeMillis() - lastAccess) / 1000) + " seconds without access");
+
+            clearCaches();
+            jgitHelper.hibernate();
+
+            hibernated = true;
+            hibernations.incrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The estimated number of bytes held in the caches of this filesystem, without submodules
+     */
+    public long estimateCacheSize() {
+        return cacheParticipant.estimateSize();
+    }
+
+    /**
+     * @return The latencies of the FUSE callbacks of this filesystem, submodules have their own
+     */
+    public OperationStats getOperationStats() {
+        return operations;
+    }
+
+    /**
+     * @return true if the resources of this filesystem are currently released because it was not accessed for some time
+     */
+    public boolean isHibernated() {
+        return hibernated;
+    }
+
+    private void clearCaches() {
+        refLinkCache.invalidateAll();
+        treeLinkCache.invalidateAll();
+        jgitHelper.clearCaches();
+    }
+
     public List<Pair<String, Long>> getStats() {
+        CacheStats refLinkStats = refLinkCache.stats();
+        CacheStats treeLinkStats = treeLinkCache.stats();
         return ImmutableList.of(
                 Pair.of("getattr", getattrStat.get()),
                 Pair.of("read", readStat.get()),
                 Pair.of("readdir", readdirStat.get()),
-                Pair.of("readlink", readlinkStat.get())
+                Pair.of("readlink", readlinkStat.get()),
+                Pair.of("bytesRead", operations.getBytesRead()),
+                Pair.of("errors", operations.getErrors()),
+                Pair.of("enoent", operations.getNotFound()),
+                Pair.of("refLinkHit", refLinkStats.hitCount()),
+                Pair.of("refLinkMiss", refLinkStats.missCount()),
+                Pair.of("treeLinkHit", treeLinkStats.hitCount()),
+                Pair.of("treeLinkMiss", treeLinkStats.missCount()),
+                Pair.of("coalesced", jgitHelper.getCoalescedCount()),
+                Pair.of("hibernations", hibernations.get()),
+                Pair.of("inMemory", jgitHelper.getInMemorySize())
         );
     }
+
+    private final class CacheParticipant implements MemoryGovernor.Participant {
+        @Override
+        public long estimateSize() {
+            long size = jgitHelper.estimateCacheSize();
+            for (LoadingCache<String, byte[]> cache : List.of(refLinkCache, treeLinkCache)) {
+                for (Map.Entry<String, byte[]> entry : cache.asMap().entrySet()) {
+                    // two bytes per char of the key, the link-target and the overhead of the cache entry
+                    size += 2L * entry.getKey().length() + entry.getValue().length + 100;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        @Override
+        public void evict() {
+            System.out.println("Evicting caches of " + jgitHelper);
+            clearCaches();
+        }
+    }
 }
@@ -0,0 +1,240 @@
+package org.dstadler.jgitfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.dstadler.jgitfs.util.LatencyHistogram;
+import org.dstadler.jgitfs.util.MemoryBudget;
+import org.dstadler.jgitfs.util.MemoryGovernor;
+import org.dstadler.jgitfs.util.OperationStats;
+import org.dstadler.jgitfs.util.OperationStats.Namespace;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the statistics of all mounted repositories at "/metrics" in the text format of Prometheus,
+ * using the HTTP server which is included in the JDK.
+ * <p>
+ * The server only listens on the loopback interface, so metrics are not accessible from other hosts.
+ */
+public class MetricsServer implements Closeable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Upper bounds of the exported latency buckets in nanoseconds.
+     */
+    private static final long[] BUCKETS = {
+            10_000, 50_000, 100_000, 500_000,
+            1_000_000, 5_000_000, 10_000_000, 50_000_000,
+            100_000_000, 500_000_000, 1_000_000_000, 5_000_000_000L };
+
+    private final HttpServer server;
+    private final Supplier<Map<String, JGitFilesystem>> mounts;
+
+    /**
+     * Start serving metrics.
+     *
+     * @param port The port to listen on, 0 to choose a free port
+     * @param mounts Returns the currently mounted filesystems by the directory of their Git repository
+     * @throws IOException If the port cannot be opened
+     */
+    public MetricsServer(int port, Supplier<Map<String, JGitFilesystem>> mounts) throws IOException {
+        this.mounts = mounts;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+
+        System.out.println("Serving metrics at http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort() + "/metrics");
+    }
+
+    /**
+     * @return The port which the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * @return The metrics of all mounted repositories in the text format of Prometheus
+     */
+    String render() {
+        StringBuilder out = new StringBuilder();
+        Map<String, JGitFilesystem> filesystems = new TreeMap<>(mounts.get());
+
+        header(out, "jgitfs_operation_duration_seconds", "histogram", "Duration of FUSE callbacks by top-level directory");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            OperationStats operations = mount.getValue().getOperationStats();
+            for (Operation operation : Operation.values()) {
+                for (Namespace namespace : Namespace.values()) {
+                    LatencyHistogram.Snapshot latencies = operations.getLatencies(operation, namespace);
+                    if (latencies.getCount() > 0) {
+                        histogram(out, "jgitfs_operation_duration_seconds", latencies,
+                                "mount", mount.getKey(), "operation", operation.toString(), "namespace", namespace.toString());
+                    }
+                }
+            }
+        }
+
+        header(out, "jgitfs_read_bytes_total", "counter", "Bytes returned by read callbacks");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            sample(out, "jgitfs_read_bytes_total", mount.getValue().getOperationStats().getBytesRead(), "mount", mount.getKey());
+        }
+        header(out, "jgitfs_errors_total", "counter", "FUSE callbacks which failed");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            sample(out, "jgitfs_errors_total", mount.getValue().getOperationStats().getErrors(), "mount", mount.getKey());
+        }
+        header(out, "jgitfs_enoent_total", "counter", "FUSE callbacks for paths which do not exist");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            sample(out, "jgitfs_enoent_total", mount.getValue().getOperationStats().getNotFound(), "mount", mount.getKey());
+        }
+
+        header(out, "jgitfs_stat", "untyped", "Statistics of the filesystem as printed by the list command");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            for (Pair<String, Long> stat : mount.getValue().getStats()) {
+                sample(out, "jgitfs_stat", stat.getValue(), "mount", mount.getKey(), "name", stat.getKey());
+            }
+        }
+
+        header(out, "jgitfs_cache_hit_ratio", "gauge", "Share of lookups which were found in the cache of links");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            Map<String, Long> stats = new HashMap<>();
+            for (Pair<String, Long> stat : mount.getValue().getStats()) {
+                stats.put(stat.getKey(), stat.getValue());
+            }
+            for (String cache : List.of("refLink", "treeLink")) {
+                long hits = stats.getOrDefault(cache + "Hit", 0L);
+                long misses = stats.getOrDefault(cache + "Miss", 0L);
+                sample(out, "jgitfs_cache_hit_ratio", hits + misses == 0 ? 0 : (double) hits / (hits + misses),
+                        "mount", mount.getKey(), "cache", cache);
+            }
+        }
+
+        header(out, "jgitfs_cache_bytes", "gauge", "Estimated heap used by the caches of the filesystem");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            sample(out, "jgitfs_cache_bytes", mount.getValue().estimateCacheSize(), "mount", mount.getKey());
+        }
+        header(out, "jgitfs_hibernated", "gauge", "1 if the repository currently released its resources");
+        for (Map.Entry<String, JGitFilesystem> mount : filesystems.entrySet()) {
+            sample(out, "jgitfs_hibernated", mount.getValue().isHibernated() ? 1 : 0, "mount", mount.getKey());
+        }
+
+        WindowCacheStats windowCache = WindowCacheStats.getStats();
+        metric(out, "jgitfs_window_cache_hits_total", "counter", "Lookups of pack-data found in JGit's WindowCache", windowCache.getHitCount());
+        metric(out, "jgitfs_window_cache_misses_total", "counter", "Lookups of pack-data not found in JGit's WindowCache", windowCache.getMissCount());
+        metric(out, "jgitfs_window_cache_hit_ratio", "gauge", "Share of lookups found in JGit's WindowCache", windowCache.getHitRatio());
+        metric(out, "jgitfs_window_cache_evictions_total", "counter", "Windows evicted from JGit's WindowCache", windowCache.getEvictionCount());
+        metric(out, "jgitfs_window_cache_load_seconds_total", "counter", "Time spent loading windows into JGit's WindowCache", windowCache.getTotalLoadTime() / 1e9);
+        metric(out, "jgitfs_window_cache_open_files", "gauge", "Pack-files opened by JGit's WindowCache", windowCache.getOpenFileCount());
+        metric(out, "jgitfs_window_cache_bytes", "gauge", "Bytes of pack-data held by JGit's WindowCache", windowCache.getOpenByteCount());
+
+        Runtime runtime = Runtime.getRuntime();
+        MemoryGovernor governor = MemoryGovernor.get();
+        MemoryBudget memoryBudget = MemoryBudget.get();
+        metric(out, "jgitfs_memory_budget_bytes", "gauge", "Heap budget for all caches", governor.getBudget());
+        metric(out, "jgitfs_memory_queued", "gauge", "Loads currently waiting for memory to inflate file contents", memoryBudget.getQueueDepth());
+        metric(out, "jgitfs_memory_waits_total", "counter", "Loads which had to wait for memory to inflate file contents", memoryBudget.getWaitCount());
+        metric(out, "jgitfs_memory_wait_seconds_total", "counter", "Time spent waiting for memory to inflate file contents", memoryBudget.getWaitTimeMillis() / 1e3);
+        metric(out, "jgitfs_memory_streamed_total", "counter", "Loads which streamed from the pack-file as no memory was available", memoryBudget.getFallbackCount());
+        metric(out, "jgitfs_cache_evictions_total", "counter", "Caches of repositories evicted to stay within the budget", governor.getEvictionCount());
+        metric(out, "jgitfs_memory_shed_total", "counter", "Caches dropped because of high heap usage", governor.getShedCount());
+        metric(out, "jgitfs_window_cache_shrinks_total", "counter", "WindowCache shrunk because of high heap usage", governor.getWindowCacheShrinkCount());
+        metric(out, "jgitfs_heap_used_bytes", "gauge", "Used heap of the JVM", runtime.totalMemory() - runtime.freeMemory());
+        metric(out, "jgitfs_heap_max_bytes", "gauge", "Maximum heap of the JVM", runtime.maxMemory());
+
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String name, LatencyHistogram.Snapshot latencies, String... labels) {
+        for (long bucket : BUCKETS) {
+            sample(out, name + "_bucket", latencies.getCountAtMost(bucket), with(labels, "le", BigDecimal.valueOf(bucket, 9).stripTrailingZeros().toPlainString()));
+        }
+        sample(out, name + "_bucket", latencies.getCount(), with(labels, "le", "+Inf"));
+        sample(out, name + "_sum", latencies.getSum() / 1e9, labels);
+        sample(out, name + "_count", latencies.getCount(), labels);
+    }
+
+    private static String[] with(String[] labels, String name, String value) {
+        String[] all = new String[labels.length + 2];
+        System.arraycopy(labels, 0, all, 0, labels.length);
+        all[labels.length] = name;
+        all[labels.length + 1] = value;
+        return all;
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help, double value) {
+        header(out, name, type, help);
+        sample(out, name, value);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, double value, String... labels) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            }
+            out.append('}');
+        }
+
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
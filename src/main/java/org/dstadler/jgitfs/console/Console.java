@@ -20,6 +20,7 @@ import org.dstadler.jgitfs.JGitFS;
  * @author dominik.stadler
  */
 public class Console {
+    private static final int DEFAULT_STATS_SECONDS = 10;
 
     public void run(final InputStream inStream, final OutputStream outStream) throws IOException {
         try (ConsoleReader reader = new ConsoleReader("JGitFS", inStream, outStream, null)) {
@@ -29,6 +30,7 @@ public class Console {
             reader.addCompleter(new StringsCompleter(Arrays.asList("mount",
                     "unmount",
                     "list",
+                    "stats",
                     "exit",
                     "quit",
                     "cls")));
@@ -83,6 +85,16 @@ public class Console {
                     }
                 } else if (line.startsWith("list")) {
                     JGitFS.list();
+                } else if (line.startsWith("stats")) {
+                    String[] cmd = line.split("\\s+");
+                    try {
+                        JGitFS.stats(cmd.length < 2 ? DEFAULT_STATS_SECONDS : Integer.parseInt(cmd[1]));
+                    } catch (NumberFormatException e) {
+                        out.println("Invalid number of seconds: " + cmd[1]);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
                 } else if (line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")) {
                     break;
                 } else if (line.equalsIgnoreCase("cls")) {
@@ -101,6 +113,7 @@ public class Console {
         out.println("mount <git-dir> <mountpoint>");
         out.println("umount <git-dir>|<mountpoint>");
         out.println("list ... list current mounts");
+        out.println("stats [<seconds>] ... print latencies per second, default: " + DEFAULT_STATS_SECONDS + " seconds");
         out.println("quit ... quit the application");
         out.println("exit ... quit the application");
         out.println("cls  ... clear the screen");
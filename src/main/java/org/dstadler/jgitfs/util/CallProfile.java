@@ -0,0 +1,157 @@
+package org.dstadler.jgitfs.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Collects the time which the current thread spends in the phases of one FUSE callback,
+ * so slow callbacks can be broken down in the {@link SlowOperationLog}.
+ * <p>
+ * Nothing is measured unless a slow-operation log is installed, then each measured
+ * phase costs two calls to {@link System#nanoTime()}.
+ */
+public final class CallProfile {
+    /**
+     * The parts of a callback which are measured.
+     */
+    public enum Phase {
+        /** Parsing commits, the amount is the number of commits */
+        COMMIT("commits"),
+        /** Walking trees to find or list a path, the amount is the number of visited entries */
+        TREE("entries"),
+        /** Opening objects or reading their size, the amount is the size of the objects */
+        OBJECT("bytes"),
+        /** Copying file contents into the buffer of FUSE including inflating streamed objects, the amount is the number of bytes */
+        COPY("bytes");
+
+        private final String label = name().toLowerCase();
+        private final String unit;
+
+        Phase(String unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * @return What the amount of this phase counts, e.g. "bytes"
+         */
+        public String getUnit() {
+            return unit;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final ThreadLocal<CallProfile> CURRENT = ThreadLocal.withInitial(CallProfile::new);
+
+    private static volatile boolean enabled;
+
+    private final long[] nanos = new long[PHASES.length];
+    private final long[] amounts = new long[PHASES.length];
+    private int depth;
+    private long cpuStart;
+    private long cpuNanos;
+
+    private CallProfile() {
+    }
+
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Start profiling a callback on the current thread. Calls can be nested, e.g. when a
+     * filesystem delegates to the one of a submodule, then the phases are added to the outermost call.
+     */
+    public static void begin() {
+        if (!enabled) {
+            return;
+        }
+
+        CallProfile profile = CURRENT.get();
+        if (profile.depth++ == 0) {
+            for (int i = 0; i < PHASES.length; i++) {
+                profile.nanos[i] = 0;
+                profile.amounts[i] = 0;
+            }
+            profile.cpuStart = cpuTime();
+        }
+    }
+
+    /**
+     * Finish profiling a callback on the current thread.
+     *
+     * @return The profile if the outermost callback finished, null for nested calls or if profiling is disabled.
+     *          It is only valid until the next callback on this thread begins.
+     */
+    public static CallProfile end() {
+        if (!enabled) {
+            return null;
+        }
+
+        CallProfile profile = CURRENT.get();
+        // profiling may have been enabled while the callback was running
+        if (profile.depth == 0 || --profile.depth > 0) {
+            return null;
+        }
+
+        profile.cpuNanos = cpuTime() - profile.cpuStart;
+        return profile;
+    }
+
+    /**
+     * @return A start-time for {@link #stop(Phase, long, long)} or 0 if profiling is disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Add the time since the given start-time to a phase of the current callback.
+     *
+     * @param phase The phase which finished
+     * @param start The value returned by {@link #start()}
+     * @param amount The number of commits, tree entries or bytes, see {@link Phase}
+     */
+    public static void stop(Phase phase, long start, long amount) {
+        if (start == 0) {
+            return;
+        }
+
+        CallProfile profile = CURRENT.get();
+        profile.nanos[phase.ordinal()] += System.nanoTime() - start;
+        profile.amounts[phase.ordinal()] += amount;
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * @param phase A phase of the callback
+     * @return The time spent in the given phase in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @param phase A phase of the callback
+     * @return The number of commits, tree entries or bytes which were handled in the given phase
+     */
+    public long getAmount(Phase phase) {
+        return amounts[phase.ordinal()];
+    }
+
+    /**
+     * @return The CPU time of the thread during the callback in nanoseconds, a much lower value than the
+     *          duration shows that the thread was waiting, e.g. for I/O, locks or garbage collection
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+}
@@ -0,0 +1,386 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.ReflogReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Holds all objects which are reachable from the refs of a repository inflated in
+ * the heap, so that reading them needs neither access to the pack-files nor inflating
+ * or applying deltas.
+ * <p>
+ * The objects are only kept as long as they fit into the given limit, larger
+ * repositories fall back to reading from the pack-files. When refs change, the
+ * objects are loaded again in the background, the previous objects are released
+ * before so that at most the limit is used, until then objects are read from
+ * the pack-files.
+ * <p>
+ * As {@link MemoryGovernor.Participant} the objects are released when the caches
+ * need more memory than the budget allows. They are loaded again after a delay, which
+ * doubles each time the objects are evicted soon after loading them, so a repository
+ * which does not fit next to the other caches is not read again and again.
+ */
+class InMemoryObjects implements MemoryGovernor.Participant {
+    /**
+     * Approximate heap used per object in addition to its content: the entry in the map
+     * with the object-id and the header of the byte-array.
+     */
+    static final int ENTRY_OVERHEAD = 80;
+
+    private static final long MIN_RELOAD_DELAY = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_RELOAD_DELAY = TimeUnit.MINUTES.toMillis(30);
+
+    private static final ScheduledExecutorService RELOADER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("in-memory-reload")
+            .setDaemon(true)
+            .build());
+
+    private final Repository repository;
+    private final long limit;
+    private final long minReloadDelay;
+
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong reloadDelay;
+
+    private volatile Snapshot snapshot;
+    private volatile long loadedAt;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private volatile boolean hibernated;
+    private volatile boolean exceeded;
+    private volatile boolean closed;
+
+    /**
+     * @param repository The repository to read objects from
+     * @param limit The maximum number of bytes of heap which may be used for the objects
+     */
+    InMemoryObjects(Repository repository, long limit) {
+        this(repository, limit, MIN_RELOAD_DELAY);
+    }
+
+    /**
+     * @param repository The repository to read objects from
+     * @param limit The maximum number of bytes of heap which may be used for the objects
+     * @param minReloadDelay The milliseconds after which evicted objects are loaded again the first time
+     */
+    InMemoryObjects(Repository repository, long limit, long minReloadDelay) {
+        this.repository = repository;
+        this.limit = limit;
+        this.minReloadDelay = minReloadDelay;
+        this.reloadDelay = new AtomicLong(minReloadDelay);
+    }
+
+    /**
+     * Read all reachable objects into memory.
+     *
+     * @return false if the objects do not fit into the limit, reading falls back to the pack-files then
+     * @throws IOException If reading from the Git repository fails
+     */
+    synchronized boolean load() throws IOException {
+        if (closed || exceeded || hibernated) {
+            return false;
+        }
+
+        // release the previous objects first, otherwise the heap holds both of them
+        // while loading, readers use the pack-files until the new objects are available
+        snapshot = null;
+
+        long start = System.currentTimeMillis();
+        Snapshot loaded = readSnapshot();
+        if (closed) {
+            return false;
+        }
+        if (loaded == null) {
+            System.out.println("Objects of " + repository + " need more than " + (limit / 1024 / 1024) + "MB, reading from pack-files instead");
+            exceeded = true;
+            snapshot = null;
+            return false;
+        }
+
+        snapshot = loaded;
+        loadedAt = System.currentTimeMillis();
+        loads.incrementAndGet();
+        System.out.println("Loaded " + loaded.objects.size() + " objects with " + (loaded.size / 1024) + "KB of " +
+                repository + " into memory in " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    /**
+     * Load the objects again in the background, e.g. because refs were changed.
+     * Multiple requests while a load is pending are combined.
+     */
+    void reloadAsync() {
+        reloadAsync(0);
+    }
+
+    private void reloadAsync(long delayMillis) {
+        if (closed || exceeded || !reloadPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        RELOADER.schedule(() -> {
+            // changes which happen while loading cause another load
+            reloadPending.set(false);
+            try {
+                load();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Could not load objects of " + repository + " into memory: " + e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Release the objects while the repository is not used, they are loaded again in
+     * the background when the next reader is created.
+     */
+    void hibernate() {
+        hibernated = true;
+        snapshot = null;
+    }
+
+    /**
+     * Release the objects and stop loading them.
+     */
+    void close() {
+        closed = true;
+        snapshot = null;
+    }
+
+    /**
+     * @return The estimated number of bytes of heap held by the objects, 0 if they are not loaded
+     */
+    long getSize() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.size;
+    }
+
+    @Override
+    public long estimateSize() {
+        return getSize();
+    }
+
+    @Override
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    @Override
+    public void evict() {
+        // start with the shortest delay again if the objects stayed in memory for a long time
+        long delay = System.currentTimeMillis() - loadedAt > MAX_RELOAD_DELAY ? minReloadDelay : reloadDelay.get();
+        reloadDelay.set(Math.min(MAX_RELOAD_DELAY, delay * 2));
+
+        System.out.println("Releasing objects of " + repository + " held in memory, loading them again in " + (delay / 1000) + " seconds");
+        snapshot = null;
+        reloadAsync(delay);
+    }
+
+    boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    /**
+     * @return The number of times all objects were loaded successfully
+     */
+    long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * @return A reader which serves objects from memory and reads all other objects from the pack-files
+     */
+    ObjectReader newReader() {
+        // all readers are released when the repository hibernates, so a new reader is created on the next access
+        if (hibernated) {
+            hibernated = false;
+            reloadAsync();
+        }
+        return new Reader();
+    }
+
+    /**
+     * @return The objects or null if they do not fit into the limit
+     */
+    private Snapshot readSnapshot() throws IOException {
+        ObjectIdOwnerMap<Entry> objects = new ObjectIdOwnerMap<>();
+        long size = 0;
+
+        try (ObjectReader reader = repository.newObjectReader();
+             ObjectWalk walk = new ObjectWalk(reader)) {
+            for (Ref ref : repository.getRefDatabase().getRefs()) {
+                markStart(walk, ref.getObjectId());
+            }
+
+            // older stashes are only found via the reflog
+            ReflogReader stashes = repository.getRefDatabase().getReflogReader(Constants.R_STASH);
+            if (stashes != null) {
+                for (ReflogEntry entry : stashes.getReverseEntries()) {
+                    markStart(walk, entry.getNewId());
+                }
+            }
+
+            // commits first, then trees, blobs and annotated tags
+            RevObject object;
+            while ((object = walk.next()) != null) {
+                size = add(reader, object, objects, size);
+                if (size > limit) {
+                    return null;
+                }
+            }
+            while ((object = walk.nextObject()) != null) {
+                size = add(reader, object, objects, size);
+                if (size > limit) {
+                    return null;
+                }
+            }
+        }
+
+        return new Snapshot(objects, size);
+    }
+
+    private long add(ObjectReader reader, RevObject object, ObjectIdOwnerMap<Entry> objects, long size) throws IOException {
+        ObjectLoader loader = reader.open(object, object.getType());
+        long newSize = size + loader.getSize() + ENTRY_OVERHEAD;
+        if (newSize <= limit) {
+            // also objects above the stream-threshold are inflated as they fit into the limit
+            objects.add(new Entry(object, loader.getType(), loader.getCachedBytes(Integer.MAX_VALUE)));
+        }
+        return newSize;
+    }
+
+    private static void markStart(ObjectWalk walk, ObjectId id) throws IOException {
+        if (id == null || ObjectId.zeroId().equals(id)) {
+            return;
+        }
+
+        try {
+            walk.markStart(walk.parseAny(id));
+        } catch (MissingObjectException e) {
+            // broken refs are also not shown in the filesystem
+        }
+    }
+
+    private static final class Snapshot {
+        private final ObjectIdOwnerMap<Entry> objects;
+        private final long size;
+
+        private Snapshot(ObjectIdOwnerMap<Entry> objects, long size) {
+            this.objects = objects;
+            this.size = size;
+        }
+    }
+
+    private static final class Entry extends ObjectIdOwnerMap.Entry {
+        private final int type;
+        private final byte[] data;
+
+        private Entry(AnyObjectId id, int type, byte[] data) {
+            super(id);
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Looks up objects in the current snapshot, so readers which are kept by the
+     * {@link WalkerPool} see the objects of a reload as well.
+     */
+    private final class Reader extends ObjectReader {
+        private final ObjectReader packs = repository.newObjectReader();
+
+        private Reader() {
+            // use the same stream-threshold as the reader of the pack-files
+            super.setStreamFileThreshold(packs.getStreamFileThreshold());
+        }
+
+        private Entry lookup(AnyObjectId id) {
+            Snapshot current = snapshot;
+            if (current == null) {
+                return null;
+            }
+
+            // only update once per second to not cause contention between threads
+            long now = System.currentTimeMillis();
+            if (now - lastAccess > 1000) {
+                lastAccess = now;
+            }
+            return current.objects.get(id);
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return InMemoryObjects.this.newReader();
+        }
+
+        @Override
+        public Collection<ObjectId> resolve(AbbreviatedObjectId id) throws IOException {
+            return packs.resolve(id);
+        }
+
+        @Override
+        public boolean has(AnyObjectId objectId) throws IOException {
+            return lookup(objectId) != null || packs.has(objectId);
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId, int typeHint) throws IOException {
+            Entry entry = lookup(objectId);
+            if (entry == null) {
+                return packs.open(objectId, typeHint);
+            }
+
+            if (typeHint != OBJ_ANY && entry.type != typeHint) {
+                throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+            }
+            return new ObjectLoader.SmallObject(entry.type, entry.data);
+        }
+
+        @Override
+        public long getObjectSize(AnyObjectId objectId, int typeHint) throws IOException {
+            Entry entry = lookup(objectId);
+            if (entry == null) {
+                return packs.getObjectSize(objectId, typeHint);
+            }
+            return entry.data.length;
+        }
+
+        @Override
+        public Set<ObjectId> getShallowCommits() throws IOException {
+            return packs.getShallowCommits();
+        }
+
+        @Override
+        public void setStreamFileThreshold(int threshold) {
+            super.setStreamFileThreshold(threshold);
+            packs.setStreamFileThreshold(threshold);
+        }
+
+        @Override
+        public void close() {
+            packs.close();
+        }
+    }
+}
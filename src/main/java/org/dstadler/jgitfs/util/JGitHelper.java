@@ -9,48 +9,85 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 import net.fusejna.StructStat.StatWrapper;
 import net.fusejna.types.TypeMode.NodeType;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
+import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectIdSubclassMap;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.submodule.SubmoduleStatus;
 import org.eclipse.jgit.submodule.SubmoduleStatusType;
 import org.eclipse.jgit.submodule.SubmoduleWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Helper class which#apache-poi encapsulates access to the actual Git repository by
  * using JGit internally, but providing plain object/data as results, i.e.
  * no JGit objects should be necessary as part of the API.
+ * <p>
+ * Instances can be used from multiple threads concurrently, the Repository is
+ * shared, but each thread uses its own ObjectReader and RevWalk/TreeWalk instances,
+ * which are kept between calls to avoid allocating them again for every access.
  *
  * @author cwat-dstadler
  */
 public class JGitHelper implements Closeable {
+    private static final int GIT_LINK_CACHE_SIZE = 100;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private final Repository repository;
     private final Git git;
+    private final SubmoduleTable submodules;
+    private final WalkerPool walkerPool;
+
+    /**
+     * Set when the objects of the repository are held in memory, see {@link #loadIntoMemory(long)}.
+     */
+    private volatile InMemoryObjects inMemoryObjects;
+
+    private final MemoryBudget memoryBudget = MemoryBudget.get();
+
+    private final SingleFlight<String, PathEntry> pathLookups = new SingleFlight<>();
+    private final SingleFlight<ObjectId, SharedBlob> blobLoads = new SingleFlight<>();
+
+    /**
+     * The git-links to submodules found in a tree, keyed by the id of the tree.
+     */
+    private final Cache<ObjectId, Map<String, Pair<String, String>>> gitLinks = CacheBuilder.newBuilder()
+            .maximumSize(GIT_LINK_CACHE_SIZE)
+            .build();
 
     /**
      * Construct the helper with the given directory as Git repository.
@@ -68,12 +105,8 @@ public class JGitHelper implements Closeable {
             throw new IllegalStateException("Could not find git repository at " + gitDir);
         }
 
-        WindowCacheConfig cfg = new WindowCacheConfig();
-        // set a lower stream file threshold as we want to run the code with
-        // very limited memory, e.g. -Xmx60m and having the default of 50MB
-        // would cause OOM if access is done in parallel
-        cfg.setStreamFileThreshold(1024 * 1024);
-        cfg.install();
+        // the WindowCache is global for the process, it is sized as part of the memory budget
+        MemoryGovernor.get().ensureWindowCache();
 
         System.out.println("Using git repo at " + gitDir);
         FileRepositoryBuilder builder = new FileRepositoryBuilder();
@@ -82,6 +115,8 @@ public class JGitHelper implements Closeable {
                 .findGitDir() // scan up the file system tree
                 .build();
         git = new Git(repository);
+        submodules = new SubmoduleTable(repository, git);
+        walkerPool = new WalkerPool(repository, this::newObjectReader);
     }
 
     /**
@@ -101,6 +136,8 @@ public class JGitHelper implements Closeable {
             throw new IllegalArgumentException("Could not open submodule at path " + submodulePath + " in repository " + parent.repository.getDirectory());
         }
         git = new Git(repository);
+        submodules = new SubmoduleTable(repository, git);
+        walkerPool = new WalkerPool(repository, this::newObjectReader);
     }
 
     public String getName() {
@@ -112,6 +149,63 @@ public class JGitHelper implements Closeable {
                 ".git")).getName();
     }
 
+    /**
+     * Register a listener which is invoked whenever JGit detects that refs
+     * like branches, tags or stashes in the Git repository were changed.
+     *
+     * @param listener The callback to invoke on changed refs.
+     */
+    public void addRefsChangedListener(Runnable listener) {
+        repository.getListenerList().addRefsChangedListener(event -> listener.run());
+    }
+
+    /**
+     * Read all objects which are reachable from the refs of the repository into memory and
+     * serve all further reads from there. When refs change, the objects are loaded again in
+     * the background.
+     * <p>
+     * If the objects need more than the given number of bytes, they are not kept and
+     * objects are read from the pack-files as usual. The {@link MemoryGovernor} may release
+     * the objects when the heap is needed for other caches, so the limit is reduced to
+     * the share of the budget which all caches may use.
+     *
+     * @param limit The maximum number of bytes of heap to use for the objects
+     * @return true if the objects fit into the limit and are held in memory now
+     * @throws IOException If reading from the Git repository fails
+     */
+    public boolean loadIntoMemory(long limit) throws IOException {
+        // larger objects would be evicted again by the governor right away
+        long cacheLimit = MemoryGovernor.get().getCacheLimit();
+        if (limit > cacheLimit) {
+            System.out.println("Holding at most " + (cacheLimit / 1024 / 1024) + "MB of objects of " + this +
+                    " in memory, the share of the caches in the memory budget");
+            limit = cacheLimit;
+        }
+
+        InMemoryObjects objects = new InMemoryObjects(repository, limit);
+        if (!objects.load()) {
+            return false;
+        }
+
+        repository.getListenerList().addRefsChangedListener(event -> objects.reloadAsync());
+        MemoryGovernor.get().register(objects);
+        inMemoryObjects = objects;
+        return true;
+    }
+
+    /**
+     * @return The estimated number of bytes of heap used by objects held in memory, 0 if none are held
+     */
+    public long getInMemorySize() {
+        InMemoryObjects objects = inMemoryObjects;
+        return objects == null ? 0 : objects.getSize();
+    }
+
+    private ObjectReader newObjectReader() {
+        InMemoryObjects objects = inMemoryObjects;
+        return objects == null ? repository.newObjectReader() : objects.newReader();
+    }
+
     /**
      * For a path to a commit, i.e. something like "/commit/00/123456..." return the
      * actual commit-id, i.e. 00123456...
@@ -147,43 +241,64 @@ public class JGitHelper implements Closeable {
      * @throws FileNotFoundException If the given path cannot be found as part of the given commit-id
      */
     public void readType(String commit, String path, StatWrapper stat) throws IOException {
-        RevCommit revCommit = buildRevCommit(commit);
+        PathEntry entry = lookupPath(commit, path);
 
         // set time and user-id/group-id
-        stat.ctime(revCommit.getCommitTime());
-        stat.mtime(revCommit.getCommitTime());
+        stat.ctime(entry.commitTime);
+        stat.mtime(entry.commitTime);
         stat.uid(GitUtils.UID);
         stat.gid(GitUtils.GID);
 
-        // and using commit's tree find the path
-        RevTree tree = revCommit.getTree();
+        // now set the file/directory attributes
+        FileMode fileMode = entry.fileMode;
+        if (fileMode.equals(FileMode.EXECUTABLE_FILE) ||
+                fileMode.equals(FileMode.REGULAR_FILE)) {
+            stat.size(entry.size);
+            stat.setMode(NodeType.FILE,
+                    true, false, fileMode.equals(FileMode.EXECUTABLE_FILE),
+                    true, false, fileMode.equals(FileMode.EXECUTABLE_FILE),
+                    false, false, false);
+            return;
+        } else if (fileMode.equals(FileMode.TREE)) {
+            stat.setMode(NodeType.DIRECTORY, true, false, true, true, false, true, false, false, false);
+            return;
+        } else if (fileMode.equals(FileMode.SYMLINK)) {
+            stat.setMode(NodeType.SYMBOLIC_LINK, true, false, true, true, false, true, false, false, false);
+            return;
+        } else if (fileMode.equals(FileMode.GITLINK)) {
+            stat.setMode(NodeType.SYMBOLIC_LINK, true, false, true, true, false, true, false, false, false);
+            return;
+        }
 
-        // now read the file/directory attributes
-        try (TreeWalk treeWalk = buildTreeWalk(tree, path)) {
-            FileMode fileMode = treeWalk.getFileMode(0);
-            if (fileMode.equals(FileMode.EXECUTABLE_FILE) ||
-                    fileMode.equals(FileMode.REGULAR_FILE)) {
-                ObjectLoader loader = repository.open(treeWalk.getObjectId(0));
-                stat.size(loader.getSize());
-                stat.setMode(NodeType.FILE,
-                        true, false, fileMode.equals(FileMode.EXECUTABLE_FILE),
-                        true, false, fileMode.equals(FileMode.EXECUTABLE_FILE),
-                        false, false, false);
-                return;
-            } else if (fileMode.equals(FileMode.TREE)) {
-                stat.setMode(NodeType.DIRECTORY, true, false, true, true, false, true, false, false, false);
-                return;
-            } else if (fileMode.equals(FileMode.SYMLINK)) {
-                stat.setMode(NodeType.SYMBOLIC_LINK, true, false, true, true, false, true, false, false, false);
-                return;
-            } else if (fileMode.equals(FileMode.GITLINK)) {
-                stat.setMode(NodeType.SYMBOLIC_LINK, true, false, true, true, false, true, false, false, false);
-                return;
-            }
+        throw new IllegalStateException("Found unknown FileMode 0o" + Integer.toOctalString(fileMode.getBits()) + "/" + fileMode.getClass() +
+                " in Git for commit '" + commit + "' and path '" + path + "'");
+    }
 
-            throw new IllegalStateException("Found unknown FileMode 0o" + Integer.toOctalString(fileMode.getBits()) + "/" + fileMode.getClass() +
-                    " in Git for commit '" + commit + "' and path '" + path + "'");
-        }
+    private PathEntry lookupPath(String commit, String path) throws IOException {
+        // concurrent requests for the same path, e.g. by parallel compiler processes, share one lookup
+        return pathLookups.execute(commit + ":" + path, () -> {
+            TreeWalkEvent event = new TreeWalkEvent();
+            event.begin();
+
+            try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+                RevCommit revCommit = walkers.parseCommit(commit);
+
+                // using commit's tree find the path
+                TreeWalk treeWalk = walkers.find(revCommit.getTree(), path);
+                FileMode fileMode = treeWalk.getFileMode(0);
+                ObjectId objectId = treeWalk.getObjectId(0);
+
+                // only reads the object header instead of loading the contents of small files
+                long start = CallProfile.start();
+                long size = (fileMode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_FILE ?
+                        walkers.reader().getObjectSize(objectId, ObjectReader.OBJ_ANY) : 0;
+                CallProfile.stop(CallProfile.Phase.OBJECT, start, 0);
+
+                return new PathEntry(revCommit.getCommitTime(), fileMode, objectId, size);
+            } finally {
+                commitTreeWalk(event, commit, path, "lookup", 1);
+            }
+        });
     }
 
     /**
@@ -195,14 +310,12 @@ public class JGitHelper implements Closeable {
      * @throws IOException If access to the Git repository fails
      */
     public boolean isGitLink(String commit, String path) throws IOException {
-        RevCommit revCommit = buildRevCommit(commit);
+        try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+            // using commit's tree find the path
+            RevTree tree = walkers.parseCommit(commit).getTree();
 
-        // and using commit's tree find the path
-        RevTree tree = revCommit.getTree();
-
-        // now read the file/directory attributes
-        try (TreeWalk treeWalk = buildTreeWalk(tree, path)) {
-            FileMode fileMode = treeWalk.getFileMode(0);
+            // now read the file/directory attributes
+            FileMode fileMode = walkers.find(tree, path).getFileMode(0);
 
             // TODO: this also returns true for a normal symbolic link,
             // how can we determine the difference?
@@ -221,29 +334,28 @@ public class JGitHelper implements Closeable {
      * @throws IllegalArgumentException If the given path does not denote a symlink
      */
     public String readSymlink(String commit, String path) throws IOException {
-        RevCommit revCommit = buildRevCommit(commit);
+        try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+            // using commit's tree find the path
+            RevTree tree = walkers.parseCommit(commit).getTree();
 
-        // and using commit's tree find the path
-        RevTree tree = revCommit.getTree();
-
-        // now read the file/directory attributes
-        final FileMode fileMode;
-        try (TreeWalk treeWalk = buildTreeWalk(tree, path)) {
-            fileMode = treeWalk.getFileMode(0);
-        }
+            // now read the file/directory attributes
+            TreeWalk treeWalk = walkers.find(tree, path);
+            FileMode fileMode = treeWalk.getFileMode(0);
 
-        if (!fileMode.equals(FileMode.SYMLINK) && !fileMode.equals(FileMode.GITLINK)) {
-            throw new IllegalArgumentException("Had request for symlink-target which is not a symlink, commit '" + commit + "' and path '" + path + "': " + fileMode.getBits());
-        }
+            if (!fileMode.equals(FileMode.SYMLINK) && !fileMode.equals(FileMode.GITLINK)) {
+                throw new IllegalArgumentException("Had request for symlink-target which is not a symlink, commit '" + commit + "' and path '" + path + "': " + fileMode.getBits());
+            }
 
-        // TODO: add full support for Submodules
-        if (fileMode.equals(FileMode.GITLINK)) {
-            throw new UnsupportedOperationException("Support for git submodules is not yet available, cannot read path " + path + " of commit " + commit);
-        }
+            // TODO: add full support for Submodules
+            if (fileMode.equals(FileMode.GITLINK)) {
+                throw new UnsupportedOperationException("Support for git submodules is not yet available, cannot read path " + path + " of commit " + commit);
+            }
 
-        // try to read the file-data as it contains the symlink target
-        try (InputStream openFile = openFile(commit, path)) {
-            return IOUtils.toString(openFile, StandardCharsets.UTF_8);
+            // the file-data contains the symlink target
+            long start = CallProfile.start();
+            byte[] target = walkers.reader().open(treeWalk.getObjectId(0)).getCachedBytes();
+            CallProfile.stop(CallProfile.Phase.OBJECT, start, target.length);
+            return new String(target, StandardCharsets.UTF_8);
         }
     }
 
@@ -258,42 +370,126 @@ public class JGitHelper implements Closeable {
      * @throws FileNotFoundException If the given path cannot be found in the given commit-id
      */
     public InputStream openFile(String commit, String path) throws IOException {
-        RevCommit revCommit = buildRevCommit(commit);
+        // find the file in the commit's tree
+        PathEntry entry = lookupPath(commit, path);
+        if ((entry.fileMode.getBits() & FileMode.TYPE_FILE) == 0) {
+            throw new IllegalStateException("Tried to read the contents of a non-file for commit '" + commit + "' and path '" + path + "', had filemode " + entry.fileMode.getBits());
+        }
 
-        // use the commit's tree find the path
-        RevTree tree = revCommit.getTree();
-        //System.out.println("Having tree: " + tree + " for commit " + commit);
+        // objects below the stream-threshold are inflated into memory completely
+        final boolean inMemory;
+        try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+            inMemory = entry.size < walkers.reader().getStreamFileThreshold();
+        }
+        ObjectOpenEvent event = new ObjectOpenEvent();
+        event.begin();
+        long start = CallProfile.start();
 
-        // now try to find a specific file
-        try (TreeWalk treeWalk = buildTreeWalk(tree, path)) {
-            if ((treeWalk.getFileMode(0).getBits() & FileMode.TYPE_FILE) == 0) {
-                throw new IllegalStateException("Tried to read the contents of a non-file for commit '" + commit + "' and path '" + path + "', had filemode " + treeWalk.getFileMode(0).getBits());
+        boolean streamed = !inMemory;
+        try {
+            // then open the file for reading, concurrent requests for the same blob share the loaded data,
+            // a blob which was released by closing all streams already is loaded again
+            SharedBlob blob;
+            do {
+                blob = blobLoads.execute(entry.objectId, () -> loadBlob(entry.objectId, inMemory ? entry.size : 0));
+            } while (!blob.retain());
+
+            if (!blob.isLoaded()) {
+                blob.release();
+                streamed = true;
+                try (ObjectReader reader = newObjectReader()) {
+                    reader.setStreamFileThreshold(0);
+                    return reader.open(entry.objectId).openStream();
+                }
             }
 
-            // then open the file for reading.
-            ObjectId objectId = treeWalk.getObjectId(0);
-            ObjectLoader loader = repository.open(objectId);
+            // finally open an InputStream for the file contents, large objects are
+            // streamed with a separate reader, so the stream stays valid after releasing the walkers
+            return blob.openStream();
+        } finally {
+            CallProfile.stop(CallProfile.Phase.OBJECT, start, entry.size);
+            commitObjectOpen(event, entry, streamed);
+        }
+    }
+
+    /**
+     * Load an object once for all concurrent readers, objects which are inflated into memory
+     * need to fit into the memory budget, otherwise the readers stream them instead.
+     *
+     * @param objectId The object to load
+     * @param size The number of bytes to reserve for the inflated object, 0 for objects which are streamed
+     */
+    private SharedBlob loadBlob(ObjectId objectId, long size) throws IOException {
+        if (size > 0 && !memoryBudget.acquire(size)) {
+            return new SharedBlob(null, memoryBudget, 0);
+        }
 
-            // finally open an InputStream for the file contents
-            return loader.openStream();
+        boolean success = false;
+        try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+            SharedBlob blob = new SharedBlob(walkers.reader().open(objectId), memoryBudget, size);
+            success = true;
+            return blob;
+        } finally {
+            if (size > 0 && !success) {
+                memoryBudget.release(size);
+            }
         }
     }
 
-    private TreeWalk buildTreeWalk(RevTree tree, final String path) throws IOException {
-        TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
+    private static void commitObjectOpen(ObjectOpenEvent event, PathEntry entry, boolean streamed) {
+        if (event.shouldCommit()) {
+            event.objectId = entry.objectId.getName();
+            event.size = entry.size;
+            event.streamed = streamed;
+            event.commit();
+        }
+    }
 
-        if (treeWalk == null) {
-            throw new FileNotFoundException("Did not find expected file '" + path + "' in tree '" + tree.getName() + "'");
+    /**
+     * @return The estimated number of bytes held in the caches of this instance
+     */
+    public long estimateCacheSize() {
+        long size = 0;
+        for (Map<String, Pair<String, String>> links : gitLinks.asMap().values()) {
+            // the path, the name of the submodule and the commit-id plus some overhead per entry
+            size += 200L * links.size();
         }
+        return size;
+    }
 
-        return treeWalk;
+    /**
+     * Remove all entries from the caches of this instance.
+     */
+    public void clearCaches() {
+        gitLinks.invalidateAll();
     }
 
-    private RevCommit buildRevCommit(String commit) throws IOException {
-        // a RevWalk allows to walk over commits based on some filtering that is defined
-        try (RevWalk revWalk = new RevWalk(repository)) {
-            return revWalk.parseCommit(ObjectId.fromString(commit));
+    /**
+     * Release resources which are re-created on the next access: the caches, the readers
+     * of all threads, objects held in memory and the open pack-files together with their
+     * indexes and the cached pack-data in the WindowCache.
+     * <p>
+     * This must only be called while no other method of this instance is executing.
+     */
+    public void hibernate() {
+        clearCaches();
+        walkerPool.reset();
+
+        InMemoryObjects objects = inMemoryObjects;
+        if (objects != null) {
+            // loaded again in the background on the next access
+            objects.hibernate();
         }
+
+        // the pack-files are opened again when objects are read the next time
+        repository.getObjectDatabase().close();
+    }
+
+    /**
+     * @return The number of lookups of paths and blobs which used the result of an identical concurrent request
+     */
+    public long getCoalescedCount() {
+        return pathLookups.getCoalesced() + blobLoads.getCoalesced();
     }
 
     /**
@@ -306,16 +502,26 @@ public class JGitHelper implements Closeable {
      * @throws IOException If accessing the Git repository fails
      */
     public List<String> getBranches() throws IOException {
-        final List<Ref> branchRefs = readBranches();
         List<String> branches = new ArrayList<>();
-        for (Ref ref : branchRefs) {
+        getBranches(branches::add);
+        return branches;
+    }
+
+    /**
+     * Same as {@link #getBranches()}, but passes the branch-names to the given consumer
+     * instead of collecting them in a list.
+     *
+     * @param consumer Receives the branch-names
+     * @throws IOException If accessing the Git repository fails
+     */
+    public void getBranches(Consumer<String> consumer) throws IOException {
+        for (Ref ref : readBranches()) {
             String name = adjustName(ref.getName());
-            branches.add(name);
+            consumer.accept(name);
             if (name.startsWith("refs_heads_")) {
-                branches.add(Strings.CS.removeStart(name, "refs_heads_"));
+                consumer.accept(Strings.CS.removeStart(name, "refs_heads_"));
             }
         }
-        return branches;
     }
 
     /**
@@ -342,16 +548,29 @@ public class JGitHelper implements Closeable {
     }
 
     private List<Ref> readBranches() throws IOException {
+        RefReadEvent event = new RefReadEvent();
+        event.begin();
+
         final List<Ref> branchRefs;
         try {
             branchRefs = git.branchList().setListMode(null).call();
         } catch (GitAPIException e) {
             throw new IOException("Had error while reading the list of branches from the Git repository", e);
         }
+
+        commitRefRead(event, "branches", branchRefs.size());
         return branchRefs;
     }
 
 
+    private static void commitRefRead(RefReadEvent event, String kind, int count) {
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.count = count;
+            event.commit();
+        }
+    }
+
     /**
      * Return all remote branches and tags.
      * <p>
@@ -362,16 +581,26 @@ public class JGitHelper implements Closeable {
      * @throws IOException If accessing the Git repository fails
      */
     public List<String> getRemotes() throws IOException {
-        final List<Ref> remoteRefs = readRemotes();
         List<String> remotes = new ArrayList<>();
-        for (Ref ref : remoteRefs) {
+        getRemotes(remotes::add);
+        return remotes;
+    }
+
+    /**
+     * Same as {@link #getRemotes()}, but passes the remote-names to the given consumer
+     * instead of collecting them in a list.
+     *
+     * @param consumer Receives the remote-names
+     * @throws IOException If accessing the Git repository fails
+     */
+    public void getRemotes(Consumer<String> consumer) throws IOException {
+        for (Ref ref : readRemotes()) {
             String name = adjustName(ref.getName());
-            remotes.add(name);
+            consumer.accept(name);
             if (name.startsWith("refs_remotes_")) {
-                remotes.add(Strings.CS.removeStart(name, "refs_remotes_"));
+                consumer.accept(Strings.CS.removeStart(name, "refs_remotes_"));
             }
         }
-        return remotes;
     }
 
     /**
@@ -398,12 +627,17 @@ public class JGitHelper implements Closeable {
     }
 
     private List<Ref> readRemotes() throws IOException {
+        RefReadEvent event = new RefReadEvent();
+        event.begin();
+
         final List<Ref> remoteRefs;
         try {
             remoteRefs = git.branchList().setListMode(ListMode.REMOTE).call();
         } catch (GitAPIException e) {
             throw new IOException("Had error while reading the list of remote branches/tags from the Git repository", e);
         }
+
+        commitRefRead(event, "remotes", remoteRefs.size());
         return remoteRefs;
     }
 
@@ -417,16 +651,26 @@ public class JGitHelper implements Closeable {
      * @throws IOException If accessing the Git repository fails
      */
     public List<String> getTags() throws IOException {
-        List<Ref> tagRefs = readTags();
         List<String> tags = new ArrayList<>();
-        for (Ref ref : tagRefs) {
+        getTags(tags::add);
+        return tags;
+    }
+
+    /**
+     * Same as {@link #getTags()}, but passes the tag-names to the given consumer
+     * instead of collecting them in a list.
+     *
+     * @param consumer Receives the tag-names
+     * @throws IOException If accessing the Git repository fails
+     */
+    public void getTags(Consumer<String> consumer) throws IOException {
+        for (Ref ref : readTags()) {
             String name = adjustName(ref.getName());
-            tags.add(name);
+            consumer.accept(name);
             if (name.startsWith("refs_tags_")) {
-                tags.add(Strings.CS.removeStart(name, "refs_tags_"));
+                consumer.accept(Strings.CS.removeStart(name, "refs_tags_"));
             }
         }
-        return tags;
     }
 
     /**
@@ -453,12 +697,17 @@ public class JGitHelper implements Closeable {
     }
 
     private List<Ref> readTags() throws IOException {
+        RefReadEvent event = new RefReadEvent();
+        event.begin();
+
         final List<Ref> tagRefs;
         try {
             tagRefs = git.tagList().call();
         } catch (GitAPIException e) {
             throw new IOException("Had error while reading the list of tags from the Git repository", e);
         }
+
+        commitRefRead(event, "tags", tagRefs.size());
         return tagRefs;
     }
 
@@ -469,6 +718,8 @@ public class JGitHelper implements Closeable {
 
     /**
      * Returns a collection of all submodules in the current repository.
+     * <p>
+     * To ease implementation, slashes in submodule-names are replaced by underscore.
      *
      * @return A collection containing the name of all known submodules.
      * @throws IOException If accessing the Git repository fails
@@ -479,11 +730,11 @@ public class JGitHelper implements Closeable {
             return Collections.emptyList();
         }
 
-        try {
-            return git.submoduleStatus().call().keySet();
-        } catch (GitAPIException e) {
-            throw new IOException(e);
+        List<String> names = new ArrayList<>();
+        for (String name : submodules.get().keySet()) {
+            names.add(adjustName(name));
         }
+        return names;
     }
 
     /**
@@ -495,15 +746,12 @@ public class JGitHelper implements Closeable {
      * @throws IOException            If accessing the Git repository fails
      */
     public String getSubmoduleAt(String path) throws IOException {
-        try {
-            Map<String, SubmoduleStatus> set = git.submoduleStatus().addPath(path).call();
-            if (set.isEmpty()) {
-                throw new NoSuchElementException("Could not read submodule at path " + path);
+        for (Map.Entry<String, SubmoduleStatus> entry : submodules.get().entrySet()) {
+            if (entry.getValue().getPath().equals(path)) {
+                return adjustName(entry.getKey());
             }
-            return set.keySet().iterator().next();
-        } catch (GitAPIException e) {
-            throw new IOException(e);
         }
+        throw new NoSuchElementException("Could not read submodule at path " + path);
     }
 
     /**
@@ -515,45 +763,97 @@ public class JGitHelper implements Closeable {
      * @throws IOException            If accessing the Git repository fails
      */
     public String getSubmodulePath(String name) throws IOException {
-        try {
-            Map<String, SubmoduleStatus> set = git.submoduleStatus().call();
-            for (Map.Entry<String, SubmoduleStatus> entry : set.entrySet()) {
-                if (entry.getKey().equals(name)) {
-                    return entry.getValue().getPath();
-                }
-            }
-            throw new NoSuchElementException("Could not read submodule " + name);
-        } catch (GitAPIException e) {
-            throw new IOException(e);
-        }
+        return getSubmoduleStatus(name).getPath();
     }
 
     /**
-     * Returns the path where the given submodule is linked.
+     * Returns the commit-id which is currently checked out for the given submodule.
      *
      * @param name the name of the Git submodule.
-     * @return The path where the Git submodule is linked.
-     * @throws NoSuchElementException if the given name is not known.
+     * @return The commit-id of the HEAD of the Git submodule.
+     * @throws NoSuchElementException if the given name is not known or the submodule is not checked out.
      * @throws IOException            If accessing the Git repository fails
      */
     public String getSubmoduleHead(String name) throws IOException {
+        SubmoduleStatus value = getSubmoduleStatus(name);
+        SubmoduleStatusType type = value.getType();
+        if (type == SubmoduleStatusType.MISSING ||
+                type == SubmoduleStatusType.UNINITIALIZED) {
+            throw new NoSuchElementException("Could not read submodule " + name + " because it is in state " + type);
+        }
+        return value.getHeadId().getName();
+    }
+
+    private SubmoduleStatus getSubmoduleStatus(String name) throws IOException {
+        for (Map.Entry<String, SubmoduleStatus> entry : submodules.get().entrySet()) {
+            if (adjustName(entry.getKey()).equals(name)) {
+                return entry.getValue();
+            }
+        }
+        throw new NoSuchElementException("Could not read submodule " + name);
+    }
+
+    /**
+     * Returns the submodule which is linked at the given path as-of the given commit.
+     * <p>
+     * The submodules are read from the .gitmodules file of the commit, so this also works for
+     * commits where submodules were located differently and for submodules in sub-directories.
+     * The result is cached per tree, so repeated lookups for the same commit are cheap.
+     *
+     * @param commit The commit-id as-of which we read the data
+     * @param path   The path to the file/directory
+     * @return A pair of the name of the submodule (slashes replaced by underscore) and the commit-id
+     *          which is linked at the given path or null if the path is not a git-link to a submodule.
+     * @throws IOException If access to the Git repository fails
+     */
+    public Pair<String, String> getGitLink(String commit, String path) throws IOException {
+        try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+            RevTree tree = walkers.parseCommit(commit).getTree();
+
+            return gitLinks.get(tree.copy(), () -> readGitLinks(walkers, tree)).get(path);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read git-links of commit " + commit, e.getCause());
+        }
+    }
+
+    private Map<String, Pair<String, String>> readGitLinks(WalkerPool.Walkers walkers, RevTree tree) throws IOException {
+        // read the names and paths of submodules from the .gitmodules file in this tree
+        Map<String, String> names = new HashMap<>();
         try {
-            Map<String, SubmoduleStatus> set = git.submoduleStatus().call();
-            for (Map.Entry<String, SubmoduleStatus> entry : set.entrySet()) {
-                if (entry.getKey().equals(name)) {
-                    SubmoduleStatus value = entry.getValue();
-                    SubmoduleStatusType type = value.getType();
-                    if (type == SubmoduleStatusType.MISSING ||
-                            type == SubmoduleStatusType.UNINITIALIZED) {
-                        throw new NoSuchElementException("Could not read submodule " + name + " because it is in state " + type);
-                    }
-                    return value.getHeadId().getName();
+            TreeWalk treeWalk = walkers.find(tree, Constants.DOT_GIT_MODULES);
+
+            Config config = new Config();
+            config.fromText(new String(walkers.reader().open(treeWalk.getObjectId(0)).getCachedBytes(), StandardCharsets.UTF_8));
+            for (String name : config.getSubsections(ConfigConstants.CONFIG_SUBMODULE_SECTION)) {
+                String subPath = config.getString(ConfigConstants.CONFIG_SUBMODULE_SECTION, name, ConfigConstants.CONFIG_KEY_PATH);
+                if (subPath != null) {
+                    names.put(subPath, name);
                 }
             }
-            throw new NoSuchElementException("Could not read submodule " + name);
-        } catch (GitAPIException e) {
-            throw new IOException(e);
+        } catch (FileNotFoundException e) {
+            return Collections.emptyMap();
+        } catch (ConfigInvalidException e) {
+            throw new IOException("Could not read " + Constants.DOT_GIT_MODULES + " in tree " + tree.getName(), e);
         }
+
+        if (names.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // then look up the linked commits for all these paths in one walk
+        Map<String, Pair<String, String>> links = new HashMap<>();
+        TreeWalk treeWalk = walkers.walk(tree);
+        treeWalk.setRecursive(true);
+        treeWalk.setFilter(PathFilterGroup.createFromStrings(names.keySet()));
+
+        while (treeWalk.next()) {
+            if (treeWalk.getFileMode(0).equals(FileMode.GITLINK)) {
+                String subPath = treeWalk.getPathString();
+                links.put(subPath, Pair.of(adjustName(names.get(subPath)), treeWalk.getObjectId(0).getName()));
+            }
+        }
+
+        return links;
     }
 
     /**
@@ -567,14 +867,23 @@ public class JGitHelper implements Closeable {
      */
     public List<String> getStashes() throws IOException {
         List<String> stashNames = new ArrayList<>();
+        getStashes(stashNames::add);
+        return stashNames;
+    }
 
-        // first a list of all stashes
-        for (int i = 0; i < readStashes().size(); i++) {
+    /**
+     * Same as {@link #getStashes()}, but passes the stash-names to the given consumer
+     * instead of collecting them in a list.
+     *
+     * @param consumer Receives the stash-names
+     * @throws IOException If accessing the Git repository fails
+     */
+    public void getStashes(Consumer<String> consumer) throws IOException {
+        int count = readStashes().size();
+        for (int i = 0; i < count; i++) {
             // for now just use the simple numbering as done in git stash list without the commit message
-            stashNames.add(getStashName(i));
+            consumer.accept(getStashName(i));
         }
-
-        return stashNames;
     }
 
     private String getStashName(int i) {
@@ -622,12 +931,17 @@ public class JGitHelper implements Closeable {
     }
 
     private Collection<RevCommit> readStashes() throws IOException {
+        RefReadEvent event = new RefReadEvent();
+        event.begin();
+
         final Collection<RevCommit> stashes;
         try {
             stashes = git.stashList().call();
         } catch (GitAPIException e) {
             throw new IOException(e);
         }
+
+        commitRefRead(event, "stashes", stashes.size());
         return stashes;
     }
 
@@ -639,27 +953,40 @@ public class JGitHelper implements Closeable {
      * @throws IOException If access to the Git repository fails.
      */
     public Set<String> allCommitSubs() throws IOException {
-        try (RevWalk walk = new RevWalk(repository)) {
+        try (WalkerPool.Walkers walkers = walkerPool.acquire();
+             RevWalk walk = new RevWalk(walkers.reader())) {
             // optimization: we only need the commit-ids here, so we can discard the contents right away
             walk.setRetainBody(false);
 
             // use all refs (tags, branches, remotes, ...) for finding commits quickly
             addAllRefs(walk);
 
-            // now iterate over all commits to find out which 2-hex-char sub-directories should be provided
-            Set<String> commitSubs = new HashSet<>();
+            // now iterate over all commits to find out which 2-hex-char sub-directories should be provided,
+            // the first byte of the commit-id is the sub, so no String is needed per commit
+            boolean[] found = new boolean[256];
+            int count = 0;
             for (RevCommit rev : walk) {
-                String name = rev.getName();
-                commitSubs.add(name.substring(0, 2));
-
-                // we can leave the loop as soon as we have all two-digit values, which is typically the case for large repositories
-                if (commitSubs.size() >= 256) {
-                    break;
+                int sub = rev.getFirstByte();
+                if (!found[sub]) {
+                    found[sub] = true;
+                    count++;
+
+                    // we can leave the loop as soon as we have all two-digit values, which is typically the case for large repositories
+                    if (count >= 256) {
+                        break;
+                    }
                 }
             }
 
             walk.dispose();
 
+            Set<String> commitSubs = new HashSet<>();
+            for (int sub = 0; sub < found.length; sub++) {
+                if (found[sub]) {
+                    commitSubs.add("%02x".formatted(sub));
+                }
+            }
+
             return commitSubs;
         }
     }
@@ -674,31 +1001,72 @@ public class JGitHelper implements Closeable {
      * @throws IOException If access to the Git repository fails.
      */
     public Collection<String> allCommits(String sub) throws IOException {
-        try (RevWalk walk = new RevWalk(repository)) {
+        List<String> commits = new ArrayList<>();
+        allCommits(sub, 0, commits::add);
+        return commits;
+    }
+
+    /**
+     * Same as {@link #allCommits(String)}, but passes the commit-ids to the given consumer
+     * while walking the history instead of collecting them first.
+     *
+     * @param sub      A two-digit which is used to filter commit-ids, or null if no filtering should be done.
+     * @param skip     The number of leading characters to leave out of the commit-ids, e.g. 2 to skip the commit-sub
+     * @param consumer Receives the commit-ids
+     * @throws IOException If access to the Git repository fails.
+     */
+    public void allCommits(String sub, int skip, Consumer<String> consumer) throws IOException {
+        char[] buffer = new char[Constants.OBJECT_ID_STRING_LENGTH];
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        walkCommits(sub, rev -> consumer.accept(formatName(rev, raw, buffer, skip)));
+    }
+
+    /**
+     * Format the hex-name of the given id using the provided buffers, so only the
+     * resulting String is created instead of the full name and a substring of it.
+     *
+     * @param id     The id to format
+     * @param raw    A buffer of {@link Constants#OBJECT_ID_LENGTH} bytes
+     * @param buffer A buffer of {@link Constants#OBJECT_ID_STRING_LENGTH} chars
+     * @param skip   The number of leading characters to leave out
+     * @return The hex-name without the first skip characters
+     */
+    private static String formatName(AnyObjectId id, byte[] raw, char[] buffer, int skip) {
+        id.copyRawTo(raw, 0);
+        for (int i = 0; i < raw.length; i++) {
+            buffer[i * 2] = HEX[(raw[i] >> 4) & 0xf];
+            buffer[i * 2 + 1] = HEX[raw[i] & 0xf];
+        }
+
+        return new String(buffer, skip, buffer.length - skip);
+    }
+
+    private void walkCommits(String sub, Consumer<RevCommit> consumer) throws IOException {
+        // commit-ids are lower-case hex, so other prefixes cannot match any commit
+        if (sub != null && (sub.length() > Constants.OBJECT_ID_STRING_LENGTH || !StringUtils.containsOnly(sub, "0123456789abcdef"))) {
+            return;
+        }
+
+        // compare the prefix on the binary form of the commit-id, a 2-char sub only needs the first byte
+        final int firstByte = sub != null && sub.length() == 2 ? Integer.parseInt(sub, 16) : -1;
+        final AbbreviatedObjectId prefix = sub != null && firstByte == -1 ? AbbreviatedObjectId.fromString(sub) : null;
+
+        try (WalkerPool.Walkers walkers = walkerPool.acquire();
+             RevWalk walk = new RevWalk(walkers.reader())) {
             // optimization: we only need the commit-ids here, so we can discard the contents right away
             walk.setRetainBody(false);
 
             // use all refs (tags, branches, remotes, ...) for finding commits quickly
             addAllRefs(walk);
 
-            ObjectIdSubclassMap<RevCommit> map = new ObjectIdSubclassMap<>();
+            // the RevWalk returns each commit only once, so no de-duplication is necessary
             for (RevCommit rev : walk) {
-                String name = rev.getName();
-                if (sub == null || name.startsWith(sub)) {
-                    map.addIfAbsent(rev);
+                if (firstByte != -1 ? rev.getFirstByte() == firstByte : prefix == null || prefix.prefixCompare(rev) == 0) {
+                    consumer.accept(rev);
                 }
             }
 
             walk.dispose();
-
-            // use the ObjectIdSubclassMap for quick map-insertion and only afterwards convert the resulting commits
-            // to Strings. ObjectIds can be compared much quicker as Strings as they only are 4 ints, not 40 character strings
-            List<String> commits = new ArrayList<>(map.size());
-            for (RevCommit commit : map) {
-                commits.add(commit.getName());
-            }
-
-            return commits;
         }
     }
 
@@ -726,6 +1094,12 @@ public class JGitHelper implements Closeable {
      */
     @Override
     public void close() {
+        InMemoryObjects objects = inMemoryObjects;
+        if (objects != null) {
+            MemoryGovernor.get().unregister(objects);
+            objects.close();
+        }
+        walkerPool.close();
         repository.close();
     }
 
@@ -740,43 +1114,65 @@ public class JGitHelper implements Closeable {
      * @throws FileNotFoundException If the given path cannot be found as part of the commit-id
      */
     public List<String> readElementsAt(String commit, String path) throws IOException {
-        RevCommit revCommit = buildRevCommit(commit);
-
-        // and using commit's tree find the path
-        RevTree tree = revCommit.getTree();
-        //System.out.println("Having tree: " + tree + " for commit " + commit);
-
         List<String> items = new ArrayList<>();
+        readElementsAt(commit, path, items::add);
+        return items;
+    }
 
-        // shortcut for root-path
-        if (path.isEmpty()) {
-            try (TreeWalk treeWalk = new TreeWalk(repository)) {
-                treeWalk.addTree(tree);
-                treeWalk.setRecursive(false);
-                treeWalk.setPostOrderTraversal(false);
-
-                while (treeWalk.next()) {
-                    items.add(treeWalk.getPathString());
-                }
-            }
-        } else {
-            // now try to find a specific file
-            try (TreeWalk treeWalk = buildTreeWalk(tree, path)) {
+    /**
+     * Same as {@link #readElementsAt(String, String)}, but passes the elements to the given
+     * consumer while walking the tree instead of collecting them in a list.
+     *
+     * @param commit   The commit-id to show the path as-of
+     * @param path     The path underneath the commit-id to list
+     * @param consumer Receives the file, directory and symlink elements underneath the given path
+     * @throws IllegalStateException If the path or the commit cannot be found or does not denote a directory
+     * @throws IOException           If access to the Git repository fails
+     * @throws FileNotFoundException If the given path cannot be found as part of the commit-id
+     */
+    public void readElementsAt(String commit, String path, Consumer<String> consumer) throws IOException {
+        TreeWalkEvent event = new TreeWalkEvent();
+        event.begin();
+
+        int entries = 0;
+        try (WalkerPool.Walkers walkers = walkerPool.acquire()) {
+            // using commit's tree find the path
+            RevTree tree = walkers.parseCommit(commit).getTree();
+            //System.out.println("Having tree: " + tree + " for commit " + commit);
+
+            // shortcut for root-path
+            final ObjectId dir;
+            if (path.isEmpty()) {
+                dir = tree;
+            } else {
+                // now try to find a specific file
+                TreeWalk treeWalk = walkers.find(tree, path);
                 if ((treeWalk.getFileMode(0).getBits() & FileMode.TYPE_TREE) == 0) {
                     throw new IllegalStateException("Tried to read the elements of a non-tree for commit '" + commit + "' and path '" + path + "', had filemode " + treeWalk.getFileMode(0).getBits());
                 }
+                dir = treeWalk.getObjectId(0);
+            }
 
-                try (TreeWalk dirWalk = new TreeWalk(repository)) {
-                    dirWalk.addTree(treeWalk.getObjectId(0));
-                    dirWalk.setRecursive(false);
-                    while (dirWalk.next()) {
-                        items.add(dirWalk.getPathString());
-                    }
-                }
+            long start = CallProfile.start();
+            TreeWalk dirWalk = walkers.walk(dir);
+            while (dirWalk.next()) {
+                consumer.accept(dirWalk.getPathString());
+                entries++;
             }
+            CallProfile.stop(CallProfile.Phase.TREE, start, entries);
+        } finally {
+            commitTreeWalk(event, commit, path, "list", entries);
         }
+    }
 
-        return items;
+    private static void commitTreeWalk(TreeWalkEvent event, String commit, String path, String kind, int entries) {
+        if (event.shouldCommit()) {
+            event.commitId = commit;
+            event.path = path;
+            event.kind = kind;
+            event.entries = entries;
+            event.commit();
+        }
     }
 
     @Override
@@ -784,4 +1180,21 @@ public class JGitHelper implements Closeable {
         // just return toString() from Repository as it prints out the git-directory
         return repository.toString();
     }
+
+    /**
+     * The attributes of a path in a commit which are needed for getattr and read.
+     */
+    private static final class PathEntry {
+        private final int commitTime;
+        private final FileMode fileMode;
+        private final ObjectId objectId;
+        private final long size;
+
+        private PathEntry(int commitTime, FileMode fileMode, ObjectId objectId, long size) {
+            this.commitTime = commitTime;
+            this.fileMode = fileMode;
+            this.objectId = objectId;
+            this.size = size;
+        }
+    }
 }
@@ -0,0 +1,223 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds which can be updated concurrently without locking.
+ * <p>
+ * Values are counted in buckets which grow exponentially, each power of two is split into
+ * eight buckets, so percentiles are reported with an error of at most 12.5%. Recording a value
+ * only needs a few atomic increments, so it can be done for every FUSE callback.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets needed to cover all positive long values.
+     */
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Count one duration.
+     *
+     * @param nanos The duration in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return A copy of the current state, values recorded afterwards are not included
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum(), max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @param bucket The index of a bucket
+     * @return The largest value which is counted in the given bucket
+     */
+    public static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long lower = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Format a duration in nanoseconds for printing, e.g. "850us" or "1.2ms".
+     *
+     * @param nanos The duration in nanoseconds
+     * @return The duration with a unit which keeps the number short
+     */
+    public static String format(long nanos) {
+        if (nanos < 10_000) {
+            return "%.1fus".formatted(nanos / 1_000.0);
+        } else if (nanos < 1_000_000) {
+            return (nanos / 1_000) + "us";
+        } else if (nanos < 1_000_000_000) {
+            return "%.1fms".formatted(nanos / 1_000_000.0);
+        }
+        return "%.1fs".formatted(nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            this.max = max;
+
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /**
+         * @return The number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The sum of all recorded values in nanoseconds
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return The largest recorded value in nanoseconds, 0 if nothing was recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param bucket The index of a bucket, see {@link #getBucketCount()}
+         * @return The number of values counted in the given bucket
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * @return The number of buckets, the largest value of each is returned by {@link LatencyHistogram#getUpperBound(int)}
+         */
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * Count the values which are not larger than the given value, e.g. for exporting
+         * the histogram with other bucket boundaries.
+         * <p>
+         * Buckets which contain values above the given value are not counted.
+         *
+         * @param value A duration in nanoseconds
+         * @return The number of values which are at most the given value
+         */
+        public long getCountAtMost(long value) {
+            long sum = 0;
+            for (int i = 0; i < counts.length && getUpperBound(i) <= value; i++) {
+                sum += counts[i];
+            }
+            return sum;
+        }
+
+        /**
+         * @param percentile A value between 0 and 1, e.g. 0.99
+         * @return The value in nanoseconds below which the given share of values is, 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long target = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(getUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Combine the values of this and the given snapshot, e.g. of different namespaces.
+         *
+         * @param other Another snapshot
+         * @return A snapshot which contains the values of both
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] combined = new long[counts.length];
+            for (int i = 0; i < combined.length; i++) {
+                combined[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(combined, sum + other.sum, Math.max(max, other.max));
+        }
+
+        /**
+         * Compute the values recorded between an older snapshot of the same histogram and this one.
+         * <p>
+         * The maximum of the interval is only known at the precision of the buckets.
+         *
+         * @param older A snapshot which was taken before this one
+         * @return A snapshot which contains only the values recorded in between
+         */
+        public Snapshot minus(Snapshot older) {
+            long[] interval = new long[counts.length];
+            int highest = -1;
+            for (int i = 0; i < interval.length; i++) {
+                interval[i] = counts[i] - older.counts[i];
+                if (interval[i] > 0) {
+                    highest = i;
+                }
+            }
+            long intervalMax = highest < 0 ? 0 : Math.min(getUpperBound(highest), max);
+            return new Snapshot(interval, sum - older.sum, intervalMax);
+        }
+    }
+}
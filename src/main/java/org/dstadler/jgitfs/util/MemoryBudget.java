@@ -0,0 +1,156 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many bytes of file contents are inflated into memory at the same time
+ * across all mounted repositories, so that reading several files in parallel does
+ * not cause an OutOfMemoryError when running with a small heap, e.g. -Xmx60m.
+ * <p>
+ * Requests which do not fit into the budget wait for a short time, afterwards
+ * the caller should fall back to streaming the contents instead of loading them.
+ */
+public final class MemoryBudget {
+    /**
+     * How long a request waits for other requests to release memory before it
+     * falls back to streaming.
+     */
+    private static final long MAX_WAIT_MS = 200;
+
+    private final ResizableSemaphore semaphore;
+    private volatile int limit;
+
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitTimeNanos = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    MemoryBudget(long limit) {
+        this.limit = (int) limit;
+        this.semaphore = new ResizableSemaphore(this.limit);
+    }
+
+    /**
+     * @return The budget which is shared by all repositories in this process,
+     *          its size is defined by the {@link MemoryGovernor}
+     */
+    public static MemoryBudget get() {
+        return MemoryGovernor.get().getInflationBudget();
+    }
+
+    /**
+     * Change the number of bytes which can be held in memory at the same time. Currently
+     * reserved bytes stay reserved, so the available bytes can temporarily be negative.
+     *
+     * @param newLimit The new number of bytes
+     */
+    synchronized void setLimit(long newLimit) {
+        int delta = (int) newLimit - limit;
+        if (delta > 0) {
+            semaphore.release(delta);
+        } else if (delta < 0) {
+            semaphore.reducePermits(-delta);
+        }
+        limit = (int) newLimit;
+    }
+
+    /**
+     * Reserve the given number of bytes, waiting for a short time if not enough memory is available.
+     *
+     * @param bytes The number of bytes which are going to be held in memory
+     * @return true if the bytes were reserved and need to be released via {@link #release(long)},
+     *          false if the caller should stream the data instead
+     * @throws InterruptedIOException If the thread is interrupted while waiting
+     */
+    boolean acquire(long bytes) throws InterruptedIOException {
+        if (bytes > limit) {
+            fallbacks.incrementAndGet();
+            return false;
+        }
+
+        int permits = (int) bytes;
+        if (semaphore.tryAcquire(permits)) {
+            return true;
+        }
+
+        waits.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            if (semaphore.tryAcquire(permits, MAX_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + bytes + " bytes of memory");
+        } finally {
+            waitTimeNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        fallbacks.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Return bytes which were reserved via {@link #acquire(long)}.
+     *
+     * @param bytes The number of bytes which were reserved
+     */
+    void release(long bytes) {
+        semaphore.release((int) bytes);
+    }
+
+    /**
+     * @return The number of bytes which can be held in memory at the same time
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return The number of bytes which are currently not reserved
+     */
+    public long getAvailable() {
+        return semaphore.availablePermits();
+    }
+
+    /**
+     * @return The number of threads which currently wait for memory to become available
+     */
+    public int getQueueDepth() {
+        return semaphore.getQueueLength();
+    }
+
+    /**
+     * @return How often requests had to wait for memory to become available
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * @return The accumulated time that requests waited for memory in milliseconds
+     */
+    public long getWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTimeNanos.get());
+    }
+
+    /**
+     * @return How often the contents were streamed because the request did not fit into the budget
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleToLongFunction;
+
+import javax.management.NotificationEmitter;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Divides one heap budget across all caches of the process: JGit's WindowCache and
+ * delta base cache, the {@link MemoryBudget} for inflating file contents and the caches
+ * of all mounted repositories and their submodules.
+ * <p>
+ * The caches of the repositories register as {@link Participant}. They are checked
+ * periodically and when their estimated size exceeds their share of the budget, the caches
+ * which were not accessed for the longest time are evicted first. When the JVM reports
+ * that the heap is still mostly used after a garbage collection, caches are evicted
+ * down to half of their share. Only if this cannot free enough memory, the WindowCache
+ * is shrunk to half of its size. It is restored when the heap usage stays low for a while.
+ */
+public final class MemoryGovernor {
+    static final double WINDOW_CACHE_SHARE = 0.25;
+    static final double DELTA_BASE_CACHE_SHARE = 0.10;
+    static final double INFLATION_SHARE = 0.25;
+    private static final double CACHE_SHARE = 1 - WINDOW_CACHE_SHARE - DELTA_BASE_CACHE_SHARE - INFLATION_SHARE;
+
+    private static final long MIN_INFLATION = 4 * 1024 * 1024;
+
+    /**
+     * Heap usage after garbage collection at which caches are dropped.
+     */
+    private static final double USAGE_THRESHOLD = 0.8;
+
+    /**
+     * Heap usage after garbage collection below which a shrunk WindowCache is restored.
+     */
+    private static final double RESTORE_THRESHOLD = 0.5;
+
+    private static final long CHECK_INTERVAL_SECONDS = 10;
+
+    /**
+     * The JVM reports high heap usage after every garbage collection, so caches are dropped at most once per interval.
+     */
+    private static final long SHED_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(CHECK_INTERVAL_SECONDS);
+
+    /**
+     * Without high heap usage for this long, a shrunk WindowCache is restored.
+     */
+    private static final long RESTORE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(6 * CHECK_INTERVAL_SECONDS);
+
+    private static final MemoryGovernor INSTANCE = new MemoryGovernor(getDefaultBudget());
+
+    /**
+     * A cache which is controlled by the governor.
+     */
+    public interface Participant {
+        /**
+         * @return The estimated number of bytes held by the cache
+         */
+        long estimateSize();
+
+        /**
+         * @return The time of the last access in milliseconds, caches with older access are evicted first
+         */
+        long getLastAccess();
+
+        /**
+         * Remove all entries from the cache.
+         */
+        void evict();
+    }
+
+    private final Set<Participant> participants = ConcurrentHashMap.newKeySet();
+    private final MemoryBudget inflationBudget;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong sheds = new AtomicLong();
+    private final AtomicLong windowCacheShrinks = new AtomicLong();
+
+    /**
+     * Computes the bytes of the heap which were still used after the last garbage collection
+     * above the given fraction of the maximum heap.
+     */
+    private final DoubleToLongFunction heapUsageAbove;
+
+    private volatile long budget;
+
+    private StorageProfile requestedProfile = new StorageProfile();
+    private Collection<File> gitDirs = Collections.emptyList();
+    private StorageProfile storageProfile;
+
+    private boolean windowCacheInstalled;
+    private boolean windowCacheShrunk;
+    private long lastShed = Long.MIN_VALUE;
+    private ScheduledExecutorService checker;
+
+    MemoryGovernor(long budget) {
+        this(budget, MemoryGovernor::getHeapUsageAbove);
+    }
+
+    MemoryGovernor(long budget, DoubleToLongFunction heapUsageAbove) {
+        this.budget = budget;
+        this.heapUsageAbove = heapUsageAbove;
+        this.inflationBudget = new MemoryBudget(getInflationLimit());
+    }
+
+    private static long getDefaultBudget() {
+        // the heap may be configured larger than the container allows
+        long memory = Runtime.getRuntime().maxMemory();
+        long containerLimit = StorageProfile.getContainerLimit();
+        if (containerLimit > 0) {
+            memory = Math.min(memory, containerLimit);
+        }
+        return memory / 2;
+    }
+
+    /**
+     * @return The governor which is shared by all repositories in this process
+     */
+    public static MemoryGovernor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Change the heap budget, the WindowCache and the other caches are resized accordingly.
+     *
+     * @param bytes The number of bytes of the heap which may be used for caching
+     */
+    public synchronized void setBudget(long bytes) {
+        System.out.println("Using memory budget of " + (bytes / 1024 / 1024) + "MB for caches");
+
+        budget = bytes;
+        inflationBudget.setLimit(getInflationLimit());
+        if (windowCacheInstalled) {
+            installWindowCache();
+        }
+
+        enforce();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return The number of bytes available to the caches of all registered participants together
+     */
+    public long getCacheLimit() {
+        return (long) (budget * CACHE_SHARE);
+    }
+
+    private long getInflationLimit() {
+        return Math.min(Integer.MAX_VALUE, Math.max(MIN_INFLATION, (long) (budget * INFLATION_SHARE)));
+    }
+
+    MemoryBudget getInflationBudget() {
+        return inflationBudget;
+    }
+
+    /**
+     * Define the settings for JGit's WindowCache, values which are not set in the profile are
+     * computed from the budget and the given repositories. If the WindowCache is already
+     * installed, it is replaced.
+     *
+     * @param profile The explicitly requested settings
+     * @param gitDirs The repositories which are going to be mounted
+     */
+    public synchronized void setStorageProfile(StorageProfile profile, Collection<File> gitDirs) {
+        requestedProfile = profile;
+        this.gitDirs = gitDirs;
+        if (windowCacheInstalled) {
+            installWindowCache();
+        }
+    }
+
+    /**
+     * @return The settings of the installed WindowCache or null if it is not installed yet
+     */
+    public synchronized StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    /**
+     * Configure JGit's WindowCache according to the {@link StorageProfile}. The configuration is
+     * global for the process, so it is only done once, additional calls have no effect. This also
+     * starts listening for notifications about high heap usage.
+     */
+    public synchronized void ensureWindowCache() {
+        if (windowCacheInstalled) {
+            return;
+        }
+
+        installWindowCache();
+        windowCacheInstalled = true;
+
+        listenForLowMemory();
+    }
+
+    private void installWindowCache() {
+        storageProfile = requestedProfile.resolve(budget, gitDirs);
+        windowCacheShrunk = false;
+        System.out.println("Using storage profile " + storageProfile);
+
+        // this replaces the current WindowCache, i.e. drops all cached pack-data
+        storageProfile.toConfig().install();
+    }
+
+    private void listenForLowMemory() {
+        for (MemoryPoolMXBean pool : getOldGenerationPools()) {
+            long max = pool.getUsage().getMax();
+            if (pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * USAGE_THRESHOLD));
+            }
+        }
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener((notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                // do not block the thread which delivers the notification
+                getChecker().execute(() -> shed(System.nanoTime()));
+            }
+        }, null, null);
+    }
+
+    /**
+     * Add a cache which should be limited by the budget.
+     *
+     * @param participant The cache to add
+     */
+    public void register(Participant participant) {
+        participants.add(participant);
+        getChecker();
+    }
+
+    /**
+     * Remove a cache, e.g. when the repository is closed.
+     *
+     * @param participant The cache to remove
+     */
+    public void unregister(Participant participant) {
+        participants.remove(participant);
+    }
+
+    private synchronized ScheduledExecutorService getChecker() {
+        if (checker == null) {
+            checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("memory-governor")
+                    .setDaemon(true)
+                    .build());
+            checker.scheduleWithFixedDelay(this::enforce, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+        return checker;
+    }
+
+    /**
+     * Evict the least recently used caches until all caches together fit into their share of the budget
+     * and restore a shrunk WindowCache when the heap usage is low again.
+     */
+    void enforce() {
+        evictColdest(getCacheLimit());
+        restoreWindowCache(System.nanoTime());
+    }
+
+    /**
+     * React to a low-memory situation by dropping caches down to half of their share. The WindowCache
+     * is only shrunk if the evicted caches are smaller than the heap usage above the threshold.
+     * Calls within {@link #CHECK_INTERVAL_SECONDS} of the previous one are ignored, as the
+     * collections which free the evicted data also report high usage.
+     *
+     * @param now The current time as returned by {@link System#nanoTime()}
+     */
+    void shed(long now) {
+        synchronized (this) {
+            if (lastShed != Long.MIN_VALUE && now - lastShed < SHED_INTERVAL_NANOS) {
+                return;
+            }
+            lastShed = now;
+        }
+
+        sheds.incrementAndGet();
+        long excess = heapUsageAbove.applyAsLong(USAGE_THRESHOLD);
+        System.out.println("Heap usage is high, dropping cached data, " + (excess / 1024 / 1024) + "MB above the threshold");
+
+        long evicted = evictColdest(getCacheLimit() / 2);
+        if (evicted >= excess) {
+            // the next garbage collection brings the usage back below the threshold
+            return;
+        }
+
+        synchronized (this) {
+            StorageProfile shrunk = windowCacheInstalled ? storageProfile.shrink() : null;
+            if (shrunk != null) {
+                System.out.println("Shrinking WindowCache to " + shrunk);
+
+                // JGit cannot resize the WindowCache, installing a new one drops the cached pack-data
+                storageProfile = shrunk;
+                windowCacheShrunk = true;
+                windowCacheShrinks.incrementAndGet();
+                storageProfile.toConfig().install();
+            }
+        }
+    }
+
+    /**
+     * Install the WindowCache with its full size again after it was shrunk and the heap
+     * usage stayed low for some time.
+     *
+     * @param now The current time as returned by {@link System#nanoTime()}
+     */
+    synchronized void restoreWindowCache(long now) {
+        if (!windowCacheShrunk || now - lastShed < RESTORE_DELAY_NANOS || heapUsageAbove.applyAsLong(RESTORE_THRESHOLD) > 0) {
+            return;
+        }
+
+        System.out.println("Heap usage is low again, restoring WindowCache");
+        installWindowCache();
+    }
+
+    /**
+     * @return The number of bytes which the evicted caches held
+     */
+    private long evictColdest(long limit) {
+        // estimate the sizes only once as this iterates the caches
+        List<Pair<Participant, Long>> sizes = new ArrayList<>();
+        long total = 0;
+        for (Participant participant : participants) {
+            long size = participant.estimateSize();
+            sizes.add(Pair.of(participant, size));
+            total += size;
+        }
+
+        if (total <= limit) {
+            return 0;
+        }
+
+        sizes.sort(Comparator.comparingLong(pair -> pair.getLeft().getLastAccess()));
+        long evicted = 0;
+        for (Pair<Participant, Long> pair : sizes) {
+            if (total <= limit) {
+                break;
+            }
+
+            pair.getLeft().evict();
+            evictions.incrementAndGet();
+            total -= pair.getRight();
+            evicted += pair.getRight();
+        }
+        return evicted;
+    }
+
+    private static long getHeapUsageAbove(double fraction) {
+        long above = 0;
+        for (MemoryPoolMXBean pool : getOldGenerationPools()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0) {
+                above += Math.max(0, usage.getUsed() - (long) (usage.getMax() * fraction));
+            }
+        }
+        return above;
+    }
+
+    /**
+     * The survivor space is often mostly full after a young collection, so only the pools which
+     * hold long-lived objects are checked. Unlike eden and survivor spaces, they support a usage threshold.
+     */
+    private static List<MemoryPoolMXBean> getOldGenerationPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * @return The number of caches which are currently registered
+     */
+    public int getParticipantCount() {
+        return participants.size();
+    }
+
+    /**
+     * @return How often the cache of a participant was evicted
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return How often caches were dropped because of high heap usage
+     */
+    public long getShedCount() {
+        return sheds.get();
+    }
+
+    /**
+     * @return How often the WindowCache was shrunk because of high heap usage
+     */
+    public long getWindowCacheShrinkCount() {
+        return windowCacheShrinks.get();
+    }
+
+    /**
+     * @return The counters of the memory handling, they are shared by all repositories in this process
+     */
+    public List<Pair<String, Long>> getStats() {
+        return List.of(
+                Pair.of("memoryQueued", (long) inflationBudget.getQueueDepth()),
+                Pair.of("memoryWaits", inflationBudget.getWaitCount()),
+                Pair.of("memoryWaitMs", inflationBudget.getWaitTimeMillis()),
+                Pair.of("memoryStreamed", inflationBudget.getFallbackCount()),
+                Pair.of("cacheEvictions", getEvictionCount()),
+                Pair.of("memoryShed", getShedCount()),
+                Pair.of("windowCacheShrinks", getWindowCacheShrinkCount())
+        );
+    }
+}
@@ -0,0 +1,29 @@
+package org.dstadler.jgitfs.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for opening the contents of a file in the repository.
+ */
+@Name("org.dstadler.jgitfs.ObjectOpen")
+@Label("Object Open")
+@Category({ "JGitFS", "JGit" })
+@Description("Opening a blob, either inflated into memory or as stream")
+@StackTrace(false)
+class ObjectOpenEvent extends jdk.jfr.Event {
+    @Label("Object")
+    String objectId;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Streamed")
+    @Description("True if the object was too large to be inflated into memory")
+    boolean streamed;
+}
@@ -0,0 +1,179 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import net.fusejna.ErrorCodes;
+
+/**
+ * Latencies of the FUSE callbacks of one filesystem per operation and per top-level
+ * directory, together with the number of bytes read, errors and paths which were not found.
+ */
+public final class OperationStats {
+    /**
+     * Result which is recorded when the callback failed with an exception.
+     */
+    public static final int FAILED = Integer.MIN_VALUE;
+
+    private static final int ENOENT = -ErrorCodes.ENOENT();
+
+    public enum Operation {
+        GETATTR, READ, READDIR, READLINK;
+
+        private final String label = name().toLowerCase();
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * The top-level directory of the path of a callback.
+     */
+    public enum Namespace {
+        ROOT(""), BRANCH("branch"), COMMIT("commit"), REMOTE("remote"), TAG("tag"),
+        SUBMODULE("submodule"), STASH("stash"), STASHORIG("stashorig"), OTHER("other");
+
+        private static final Namespace[] ALL = values();
+
+        private final String dir;
+
+        Namespace(String dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * @param path A path in the filesystem, e.g. "/commit/ab/cdef..."
+         * @return The namespace of the path, {@link #ROOT} for "/" and {@link #OTHER} for unknown directories
+         */
+        public static Namespace of(String path) {
+            if (path.length() <= 1) {
+                return ROOT;
+            }
+
+            // compare in place, this is done for every callback
+            for (Namespace namespace : ALL) {
+                int end = 1 + namespace.dir.length();
+                if (namespace != ROOT && path.startsWith(namespace.dir, 1) &&
+                        (path.length() == end || path.charAt(end) == '/')) {
+                    return namespace;
+                }
+            }
+            return OTHER;
+        }
+
+        @Override
+        public String toString() {
+            return "/" + dir;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Namespace[] NAMESPACES = Namespace.values();
+
+    private final LatencyHistogram[][] latencies = new LatencyHistogram[OPERATIONS.length][NAMESPACES.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] notFound = new LongAdder[OPERATIONS.length];
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final long created = System.nanoTime();
+
+    public OperationStats() {
+        for (Operation operation : OPERATIONS) {
+            for (Namespace namespace : NAMESPACES) {
+                latencies[operation.ordinal()][namespace.ordinal()] = new LatencyHistogram();
+            }
+            errors[operation.ordinal()] = new LongAdder();
+            notFound[operation.ordinal()] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record one finished callback.
+     *
+     * @param operation The callback
+     * @param path The path which was accessed
+     * @param startNanos The value of {@link System#nanoTime()} when the callback started
+     * @param result The value which is returned to FUSE, or {@link #FAILED} if an exception was thrown
+     */
+    public void record(Operation operation, String path, long startNanos, int result) {
+        latencies[operation.ordinal()][Namespace.of(path).ordinal()].record(System.nanoTime() - startNanos);
+
+        if (result == ENOENT) {
+            notFound[operation.ordinal()].increment();
+        } else if (result < 0) {
+            errors[operation.ordinal()].increment();
+        } else if (operation == Operation.READ) {
+            bytesRead.add(result);
+        }
+    }
+
+    /**
+     * @param operation The callback
+     * @param namespace The top-level directory
+     * @return The latencies of the callback for paths in the given directory
+     */
+    public LatencyHistogram.Snapshot getLatencies(Operation operation, Namespace namespace) {
+        return latencies[operation.ordinal()][namespace.ordinal()].snapshot();
+    }
+
+    /**
+     * @param operation The callback
+     * @return The latencies of the callback for all paths
+     */
+    public LatencyHistogram.Snapshot getLatencies(Operation operation) {
+        LatencyHistogram.Snapshot all = getLatencies(operation, NAMESPACES[0]);
+        for (int i = 1; i < NAMESPACES.length; i++) {
+            all = all.plus(getLatencies(operation, NAMESPACES[i]));
+        }
+        return all;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return The number of callbacks which failed, not including paths which were not found
+     */
+    public long getErrors() {
+        long sum = 0;
+        for (LongAdder adder : errors) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * @return The number of callbacks which returned ENOENT
+     */
+    public long getNotFound() {
+        long sum = 0;
+        for (LongAdder adder : notFound) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * @return The number of seconds since the filesystem was created
+     */
+    public double getSeconds() {
+        return (System.nanoTime() - created) / 1e9;
+    }
+
+    /**
+     * Format the latencies of one callback for printing.
+     *
+     * @param snapshot The latencies
+     * @param seconds The time in which the calls happened
+     * @return A line with the number of calls, calls per second, p50, p99 and maximum
+     */
+    public static String format(LatencyHistogram.Snapshot snapshot, double seconds) {
+        return "%8d ops, %9.1f ops/s, p50: %7s, p99: %7s, max: %7s".formatted(
+                snapshot.getCount(), seconds <= 0 ? 0 : snapshot.getCount() / seconds,
+                LatencyHistogram.format(snapshot.getPercentile(0.5)),
+                LatencyHistogram.format(snapshot.getPercentile(0.99)),
+                LatencyHistogram.format(snapshot.getMax()));
+    }
+}
@@ -0,0 +1,24 @@
+package org.dstadler.jgitfs.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for reading branches, remotes, tags or stashes.
+ */
+@Name("org.dstadler.jgitfs.RefRead")
+@Label("Ref Read")
+@Category({ "JGitFS", "JGit" })
+@Description("Reading a list of refs from the repository")
+@StackTrace(false)
+class RefReadEvent extends jdk.jfr.Event {
+    @Label("Kind")
+    @Description("branches, remotes, tags or stashes")
+    String kind;
+
+    @Label("Count")
+    int count;
+}
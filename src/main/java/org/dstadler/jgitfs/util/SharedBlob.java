@@ -0,0 +1,117 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectLoader;
+
+/**
+ * The contents of a file which concurrent readers share: the object is loaded
+ * once and the bytes which were reserved in the {@link MemoryBudget} for it are
+ * returned when the stream of the last reader is closed.
+ * <p>
+ * Every reader needs to {@link #retain()} the blob before opening a stream. As soon
+ * as all streams are closed, the blob is released and cannot be retained any more,
+ * readers need to load the object again then.
+ */
+class SharedBlob {
+    private static final int RELEASED = -1;
+
+    private final ObjectLoader loader;
+    private final MemoryBudget budget;
+    private final long reserved;
+
+    private final AtomicInteger streams = new AtomicInteger();
+
+    /**
+     * @param loader   The loader of the object, null if not enough memory was available to load it
+     * @param budget   The budget to return the reserved bytes to
+     * @param reserved The number of bytes which were reserved for the object, 0 if none
+     */
+    SharedBlob(ObjectLoader loader, MemoryBudget budget, long reserved) {
+        this.loader = loader;
+        this.budget = budget;
+        this.reserved = reserved;
+    }
+
+    /**
+     * @return false if there was not enough memory to load the object, the reader needs to stream it itself
+     */
+    boolean isLoaded() {
+        return loader != null;
+    }
+
+    /**
+     * Register another reader of the blob.
+     *
+     * @return false if all streams were closed already and the reserved bytes returned to the budget
+     */
+    boolean retain() {
+        while (true) {
+            int count = streams.get();
+            if (count == RELEASED) {
+                return false;
+            }
+            if (streams.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unregister a reader, the reserved bytes are returned to the budget by the last one.
+     */
+    void release() {
+        while (true) {
+            int count = streams.get();
+            int next = count == 1 ? RELEASED : count - 1;
+            if (streams.compareAndSet(count, next)) {
+                if (next == RELEASED && reserved > 0) {
+                    budget.release(reserved);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Open a stream for a reader which called {@link #retain()} before, closing the stream releases the reader.
+     *
+     * @return A stream of the contents of the file
+     * @throws IOException If the object cannot be read
+     */
+    InputStream openStream() throws IOException {
+        boolean success = false;
+        try {
+            InputStream stream = new ReleasingInputStream(loader.openStream());
+            success = true;
+            return stream;
+        } finally {
+            if (!success) {
+                release();
+            }
+        }
+    }
+
+    private final class ReleasingInputStream extends FilterInputStream {
+        private boolean released;
+
+        private ReleasingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent requests for the same key share one computation: the first
+ * caller computes the value, callers which ask for the same key while this
+ * is still in progress wait for it and get the same value or exception.
+ * <p>
+ * Nothing is cached, as soon as the computation is finished the next request
+ * for the key computes the value again.
+ *
+ * @param <K> The type of the key
+ * @param <V> The type of the computed value
+ */
+class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Computes the value for the given key or waits for the computation that
+     * another thread already started for it.
+     *
+     * @param key    The key of the computation, needs to be immutable
+     * @param loader Computes the value if no computation is in progress for the key
+     * @return The computed value
+     * @throws IOException If the computation failed with an IOException
+     */
+    V execute(K key, Loader<V> loader) throws IOException {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        try {
+            V value = loader.load();
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for concurrent request");
+        } catch (ExecutionException e) {
+            // re-throw the original exception, e.g. FileNotFoundException is reported as ENOENT
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return The number of requests which did not compute the value themselves, but used the result of a concurrent request
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+}
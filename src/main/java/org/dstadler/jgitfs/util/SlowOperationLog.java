@@ -0,0 +1,241 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dstadler.jgitfs.util.CallProfile.Phase;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+
+/**
+ * Writes FUSE callbacks which take longer than a threshold to a log-file, together with the
+ * full path, the time spent in each {@link Phase} and the CPU time of the thread.
+ * <p>
+ * Lines are written by a background thread, so callbacks never wait for the disk. When the
+ * file exceeds its maximum size it is rolled over to "&lt;file&gt;.1", "&lt;file&gt;.2", ...
+ * and the oldest file is removed. If the writer cannot keep up, lines are dropped and counted.
+ */
+public final class SlowOperationLog implements Closeable {
+    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024;
+    private static final int MAX_FILES = 5;
+    private static final int QUEUE_SIZE = 10_000;
+
+    private static volatile SlowOperationLog active;
+
+    private final File file;
+    private final long thresholdNanos;
+    private final long maxFileSize;
+    private final int maxFiles;
+
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private OutputStream out;
+    private long fileSize;
+
+    /**
+     * Start writing slow callbacks to the given file.
+     *
+     * @param file The log-file, it is appended to if it exists already
+     * @param thresholdMillis Callbacks which take at least this many milliseconds are logged
+     */
+    public SlowOperationLog(File file, long thresholdMillis) {
+        this(file, TimeUnit.MILLISECONDS.toNanos(thresholdMillis), MAX_FILE_SIZE, MAX_FILES);
+    }
+
+    SlowOperationLog(File file, long thresholdNanos, long maxFileSize, int maxFiles) {
+        this.file = file;
+        this.thresholdNanos = thresholdNanos;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+
+        writer = new Thread(this::write, "slow-operation-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return The log which receives slow callbacks of all filesystems, null if none is installed
+     */
+    public static SlowOperationLog get() {
+        return active;
+    }
+
+    /**
+     * Make the given log receive the slow callbacks of all filesystems and enable
+     * profiling of callbacks via {@link CallProfile}.
+     *
+     * @param log The log to use, null to disable logging of slow callbacks
+     */
+    public static void install(SlowOperationLog log) {
+        active = log;
+        CallProfile.setEnabled(log != null);
+    }
+
+    /**
+     * Log the given callback if it took at least as long as the threshold.
+     *
+     * @param repository The name of the repository
+     * @param operation The callback
+     * @param path The full path which was accessed
+     * @param startNanos The value of {@link System#nanoTime()} when the callback started
+     * @param result The value which is returned to FUSE, or {@link OperationStats#FAILED} if an exception was thrown
+     * @param profile The phases of the callback as returned by {@link CallProfile#end()}
+     * @return true if the callback was slow
+     */
+    public boolean record(String repository, Operation operation, String path, long startNanos, int result, CallProfile profile) {
+        long duration = System.nanoTime() - startNanos;
+        if (duration < thresholdNanos || closed) {
+            return false;
+        }
+
+        // the profile is re-used by the next callback of this thread, so format it right away
+        StringBuilder line = new StringBuilder(256);
+        line.append(Instant.now()).append(' ').append(operation)
+                .append(' ').append(LatencyHistogram.format(duration))
+                .append(' ').append(path)
+                .append(" repository=").append(repository)
+                .append(" result=").append(result == OperationStats.FAILED ? "failed" : Integer.toString(result))
+                .append(" thread=").append(Thread.currentThread().getName())
+                .append(" cpu=").append(LatencyHistogram.format(profile.getCpuNanos()));
+
+        long other = duration;
+        for (Phase phase : Phase.values()) {
+            other -= profile.getNanos(phase);
+            line.append(' ').append(phase).append('=').append(LatencyHistogram.format(profile.getNanos(phase)))
+                    .append('/').append(profile.getAmount(phase)).append(' ').append(phase.getUnit());
+        }
+        line.append(" other=").append(LatencyHistogram.format(Math.max(0, other))).append('\n');
+
+        if (queue.offer(line.toString())) {
+            logged.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of slow callbacks which were passed to the writer
+     */
+    public long getLogged() {
+        return logged.get();
+    }
+
+    /**
+     * @return The number of slow callbacks which were not written because the writer could not keep up
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    private void write() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                String line = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    continue;
+                }
+
+                try {
+                    writeLine(line);
+
+                    // lines usually come alone, so flush as soon as nothing is waiting
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Could not write slow operation to " + file + ": " + e);
+                    closeFile();
+                }
+            }
+        } catch (@SuppressWarnings("unused") InterruptedException e) {
+            // stop writing
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        if (out == null) {
+            fileSize = file.length();
+            out = new FileOutputStream(file, true);
+        }
+
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (fileSize > 0 && fileSize + bytes.length > maxFileSize) {
+            roll();
+            out = new FileOutputStream(file, true);
+            fileSize = 0;
+        }
+
+        out.write(bytes);
+        fileSize += bytes.length;
+    }
+
+    private void roll() throws IOException {
+        closeFile();
+
+        File oldest = new File(file.getPath() + "." + (maxFiles - 1));
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Could not delete " + oldest);
+        }
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            File from = new File(file.getPath() + "." + i);
+            if (from.exists() && !from.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+                throw new IOException("Could not rename " + from);
+            }
+        }
+        if (!file.renameTo(new File(file.getPath() + ".1"))) {
+            throw new IOException("Could not rename " + file);
+        }
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.out.println("Could not close " + file + ": " + e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Write the remaining lines and stop the background thread.
+     */
+    @Override
+    public void close() {
+        if (active == this) {
+            install(null);
+        }
+
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (@SuppressWarnings("unused") InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file + " (threshold " + getThresholdMillis() + "ms, " + logged + " logged, " + dropped + " dropped)";
+    }
+}
@@ -0,0 +1,305 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+/**
+ * The settings for JGit's process-wide WindowCache: how much pack-data is cached,
+ * in which window size, how many pack-files are kept open, the size of the delta
+ * base cache, from which size file contents are streamed and whether pack-files
+ * are accessed via memory-mapping.
+ * <p>
+ * Values which are not set explicitly are computed by {@link #resolve(long, Collection)}
+ * from the memory budget, the memory limit of the container, the size of the
+ * pack-files and the number of mounted repositories.
+ */
+public final class StorageProfile {
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+
+    private static final long MIN_PACKED_GIT_LIMIT = 4 * MB;
+    private static final int MIN_WINDOW_SIZE = (int) (8 * KB);
+    private static final int MAX_WINDOW_SIZE = (int) MB;
+    private static final int MIN_OPEN_FILES = 128;
+    private static final int MAX_OPEN_FILES = 4096;
+    private static final int OPEN_FILES_PER_MOUNT = 32;
+    private static final int MIN_STREAM_FILE_THRESHOLD = (int) MB;
+    private static final int MAX_STREAM_FILE_THRESHOLD = (int) (50 * MB);
+
+    /**
+     * Pack-data larger than this multiple of the WindowCache is accessed via
+     * memory-mapping, as the cache on the heap could only hold a small part of it.
+     */
+    private static final int MMAP_PACK_FACTOR = 4;
+
+    // 0 or null means that the value is computed when resolving the profile
+    private long packedGitLimit;
+    private int windowSize;
+    private int openFiles;
+    private int deltaBaseCacheLimit;
+    private int streamFileThreshold;
+    private Boolean mmap;
+
+    public long getPackedGitLimit() {
+        return packedGitLimit;
+    }
+
+    /**
+     * @param packedGitLimit The number of bytes of pack-data which are cached on the heap
+     */
+    public void setPackedGitLimit(long packedGitLimit) {
+        this.packedGitLimit = packedGitLimit;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize The number of bytes which are read from a pack-file at once, needs to be a power of 2
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getOpenFiles() {
+        return openFiles;
+    }
+
+    /**
+     * @param openFiles The number of pack-files which are kept open at the same time
+     */
+    public void setOpenFiles(int openFiles) {
+        this.openFiles = openFiles;
+    }
+
+    public int getDeltaBaseCacheLimit() {
+        return deltaBaseCacheLimit;
+    }
+
+    /**
+     * @param deltaBaseCacheLimit The number of bytes of inflated objects which are cached as base for deltas
+     */
+    public void setDeltaBaseCacheLimit(int deltaBaseCacheLimit) {
+        this.deltaBaseCacheLimit = deltaBaseCacheLimit;
+    }
+
+    public int getStreamFileThreshold() {
+        return streamFileThreshold;
+    }
+
+    /**
+     * @param streamFileThreshold File contents above this number of bytes are streamed instead of loaded into memory
+     */
+    public void setStreamFileThreshold(int streamFileThreshold) {
+        this.streamFileThreshold = streamFileThreshold;
+    }
+
+    public boolean isMmap() {
+        return mmap != null && mmap;
+    }
+
+    /**
+     * @param mmap true to access pack-files via memory-mapping, false to copy them into the heap,
+     *             null to decide based on the size of the pack-files
+     */
+    public void setMmap(Boolean mmap) {
+        this.mmap = mmap;
+    }
+
+    /**
+     * Compute all values which were not set explicitly.
+     *
+     * @param budget  The memory budget in bytes which the {@link MemoryGovernor} uses for all caches
+     * @param gitDirs The repositories which are going to be mounted, may be empty if not known
+     * @return A new profile where all values are set
+     */
+    public StorageProfile resolve(long budget, Collection<File> gitDirs) {
+        long packBytes = 0;
+        int packCount = 0;
+        for (File gitDir : gitDirs) {
+            long[] packs = scanPacks(getGitDir(gitDir));
+            packBytes += packs[0];
+            packCount += (int) packs[1];
+        }
+
+        return resolve(budget, packBytes, packCount, gitDirs.size(), getOpenFilesLimit());
+    }
+
+    StorageProfile resolve(long budget, long packBytes, int packCount, int mounts, long openFilesLimit) {
+        StorageProfile resolved = new StorageProfile();
+
+        // caching more than the pack-files contain does not help
+        long limit = Math.max(MIN_PACKED_GIT_LIMIT, (long) (budget * MemoryGovernor.WINDOW_CACHE_SHARE));
+        if (packBytes > 0) {
+            limit = Math.max(MIN_PACKED_GIT_LIMIT, Math.min(limit, packBytes));
+        }
+        resolved.packedGitLimit = packedGitLimit > 0 ? packedGitLimit : limit;
+
+        // larger windows reduce the number of reads when enough memory is available
+        resolved.windowSize = windowSize > 0 ? windowSize : Integer.highestOneBit((int) Math.min(MAX_WINDOW_SIZE,
+                Math.max(MIN_WINDOW_SIZE, resolved.packedGitLimit / 1024)));
+
+        // every mounted repository keeps a few pack-files open, but leave most file-descriptors for FUSE
+        long files = Math.max(MIN_OPEN_FILES, packCount + (long) OPEN_FILES_PER_MOUNT * mounts);
+        if (openFilesLimit > 0) {
+            files = Math.min(files, Math.max(MIN_OPEN_FILES, openFilesLimit / 4));
+        }
+        resolved.openFiles = openFiles > 0 ? openFiles : (int) Math.min(MAX_OPEN_FILES, files);
+
+        resolved.deltaBaseCacheLimit = deltaBaseCacheLimit > 0 ? deltaBaseCacheLimit :
+                (int) Math.min(Integer.MAX_VALUE, Math.max(MB, (long) (budget * MemoryGovernor.DELTA_BASE_CACHE_SHARE)));
+
+        // a file is only loaded into memory when a few of them fit into the inflation budget at the same time,
+        // with very limited memory, e.g. -Xmx60m, the default of 50MB would cause OOM if access is done in parallel
+        resolved.streamFileThreshold = streamFileThreshold > 0 ? streamFileThreshold : (int) Math.min(MAX_STREAM_FILE_THRESHOLD,
+                Math.max(MIN_STREAM_FILE_THRESHOLD, (long) (budget * MemoryGovernor.INFLATION_SHARE) / 8));
+
+        // when only a small part of the pack-data fits into the heap, let the page-cache hold it instead
+        resolved.mmap = mmap != null ? mmap : is64Bit() && packBytes > resolved.packedGitLimit * MMAP_PACK_FACTOR;
+
+        return resolved;
+    }
+
+    /**
+     * Halve the caches of a resolved profile, e.g. when the heap is running low.
+     *
+     * @return A new profile which caches half of the pack-data and delta bases,
+     *          null if the caches are already at their minimum size
+     */
+    StorageProfile shrink() {
+        if (packedGitLimit <= MIN_PACKED_GIT_LIMIT) {
+            return null;
+        }
+
+        StorageProfile shrunk = new StorageProfile();
+        shrunk.packedGitLimit = Math.max(MIN_PACKED_GIT_LIMIT, packedGitLimit / 2);
+        shrunk.windowSize = (int) Math.min(windowSize, shrunk.packedGitLimit);
+        shrunk.openFiles = openFiles;
+        shrunk.deltaBaseCacheLimit = (int) Math.max(MB, deltaBaseCacheLimit / 2);
+        shrunk.streamFileThreshold = streamFileThreshold;
+        shrunk.mmap = mmap;
+        return shrunk;
+    }
+
+    /**
+     * @return The configuration for JGit which corresponds to this profile
+     */
+    public WindowCacheConfig toConfig() {
+        WindowCacheConfig cfg = new WindowCacheConfig();
+        cfg.setPackedGitLimit(packedGitLimit);
+        cfg.setPackedGitWindowSize(windowSize);
+        cfg.setPackedGitOpenFiles(openFiles);
+        cfg.setDeltaBaseCacheLimit(deltaBaseCacheLimit);
+        cfg.setStreamFileThreshold(streamFileThreshold);
+        cfg.setPackedGitMMAP(isMmap());
+        return cfg;
+    }
+
+    /**
+     * Sum up the size and number of pack-files of the repository and its submodules.
+     *
+     * @param gitDir The .git directory or the directory of a bare repository
+     * @return The number of bytes and the number of pack-files
+     */
+    static long[] scanPacks(File gitDir) {
+        long[] result = new long[2];
+
+        File[] packs = new File(gitDir, "objects/pack").listFiles((dir, name) -> name.endsWith(".pack"));
+        if (packs != null) {
+            for (File pack : packs) {
+                result[0] += pack.length();
+                result[1]++;
+            }
+        }
+
+        // submodules are stored beneath .git/modules, possibly nested if names contain slashes
+        scanModules(new File(gitDir, "modules"), result);
+
+        return result;
+    }
+
+    private static void scanModules(File dir, long[] result) {
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (new File(child, "objects").isDirectory()) {
+                long[] packs = scanPacks(child);
+                result[0] += packs[0];
+                result[1] += packs[1];
+            } else {
+                scanModules(child, result);
+            }
+        }
+    }
+
+    private static File getGitDir(File dir) {
+        File gitDir = new File(dir, ".git");
+        return gitDir.isDirectory() ? gitDir : dir;
+    }
+
+    /**
+     * Read the memory limit of the container from the cgroup-filesystem.
+     *
+     * @return The limit in bytes or -1 if there is no limit or it cannot be determined
+     */
+    public static long getContainerLimit() {
+        // cgroup v2 and v1
+        for (String file : new String[] { "/sys/fs/cgroup/memory.max", "/sys/fs/cgroup/memory/memory.limit_in_bytes" }) {
+            try {
+                String value = Files.readString(new File(file).toPath(), StandardCharsets.US_ASCII).trim();
+                if (!value.equals("max")) {
+                    long limit = Long.parseLong(value);
+
+                    // cgroup v1 reports a huge number if there is no limit
+                    if (limit > 0 && limit < Long.MAX_VALUE / 2) {
+                        return limit;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // not available, try the next one
+            }
+        }
+
+        return -1;
+    }
+
+    private static long getOpenFilesLimit() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof UnixOperatingSystemMXBean unix) {
+            return unix.getMaxFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private static boolean is64Bit() {
+        return !"32".equals(System.getProperty("sun.arch.data.model"));
+    }
+
+    private static String format(long value, long unit, String suffix) {
+        // values which are not set yet are computed when resolving the profile
+        return value > 0 ? (value / unit) + suffix : "auto";
+    }
+
+    @Override
+    public String toString() {
+        return "packed-git-limit: " + format(packedGitLimit, MB, "MB") +
+                ", window-size: " + format(windowSize, KB, "KB") +
+                ", open-files: " + format(openFiles, 1, "") +
+                ", delta-base-cache: " + format(deltaBaseCacheLimit, MB, "MB") +
+                ", stream-threshold: " + format(streamFileThreshold, KB, "KB") +
+                ", mmap: " + (mmap == null ? "auto" : mmap);
+    }
+}
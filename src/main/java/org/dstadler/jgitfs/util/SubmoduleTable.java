@@ -0,0 +1,171 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+
+/**
+ * Keeps the result of "git submodule status" for a repository, so that looking up
+ * a single submodule does not need to walk the index, the .gitmodules file and
+ * all submodule repositories again.
+ * <p>
+ * The table is read again when the .gitmodules file, the index or the HEAD of one of the
+ * submodules changed. To keep lookups cheap, these files are checked at most once per second.
+ */
+class SubmoduleTable {
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final Repository repository;
+    private final Git git;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile Snapshot snapshot;
+    private volatile long lastCheck;
+
+    SubmoduleTable(Repository repository, Git git) {
+        this.repository = repository;
+        this.git = git;
+    }
+
+    /**
+     * Returns the status of all submodules, keyed by the name of the submodule in .gitmodules.
+     * <p>
+     * While one thread reads the table again, other threads continue to use the previous
+     * table instead of waiting for the refresh.
+     *
+     * @return An unmodifiable map with the status of all submodules, empty for bare repositories.
+     * @throws IOException If accessing the Git repository fails
+     */
+    Map<String, SubmoduleStatus> get() throws IOException {
+        Snapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() < lastCheck + CHECK_INTERVAL) {
+            return current.statuses;
+        }
+
+        if (current == null) {
+            refreshLock.lock();
+        } else if (!refreshLock.tryLock()) {
+            return current.statuses;
+        }
+
+        try {
+            current = snapshot;
+            long now = System.currentTimeMillis();
+            if (current != null && (now < lastCheck + CHECK_INTERVAL || !current.isModified())) {
+                lastCheck = now;
+                return current.statuses;
+            }
+
+            current = read();
+            snapshot = current;
+            lastCheck = now;
+            return current.statuses;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private Snapshot read() throws IOException {
+        if (repository.isBare()) {
+            return new Snapshot(Collections.emptyMap(), Collections.emptyList());
+        }
+
+        // record the state of the files before reading so that changes during reading trigger another refresh
+        List<FileStamp> newStamps = new ArrayList<>();
+        newStamps.add(new FileStamp(new File(repository.getWorkTree(), Constants.DOT_GIT_MODULES)));
+        newStamps.add(new FileStamp(repository.getIndexFile()));
+
+        final Map<String, SubmoduleStatus> statusByPath;
+        try {
+            statusByPath = git.submoduleStatus().call();
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+
+        // the status is reported per path, use the name from .gitmodules as key instead
+        Map<String, SubmoduleStatus> newStatuses = new LinkedHashMap<>();
+        try (SubmoduleWalk walk = SubmoduleWalk.forIndex(repository)) {
+            while (walk.next()) {
+                SubmoduleStatus status = statusByPath.get(walk.getPath());
+                if (status != null) {
+                    newStatuses.put(walk.getModuleName(), status);
+                }
+            }
+        } catch (ConfigInvalidException e) {
+            throw new IOException(e);
+        }
+
+        for (SubmoduleStatus status : newStatuses.values()) {
+            File gitDir = getSubmoduleGitDir(status.getPath());
+            newStamps.add(new FileStamp(new File(gitDir, Constants.HEAD)));
+            // HEAD itself does not change when commits are made on a checked out branch, but the reflog does
+            newStamps.add(new FileStamp(new File(gitDir, Constants.LOGS + "/" + Constants.HEAD)));
+        }
+
+        return new Snapshot(Collections.unmodifiableMap(newStatuses), newStamps);
+    }
+
+    private File getSubmoduleGitDir(String path) {
+        File workTree = new File(repository.getWorkTree(), path);
+        try {
+            // resolves ".git"-files which point to the actual Git directory, e.g. in .git/modules
+            File gitDir = new FileRepositoryBuilder().setWorkTree(workTree).setup().getGitDir();
+            if (gitDir != null) {
+                return gitDir;
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            // submodule is not checked out
+        }
+        return new File(workTree, Constants.DOT_GIT);
+    }
+
+    private static final class Snapshot {
+        private final Map<String, SubmoduleStatus> statuses;
+        private final List<FileStamp> stamps;
+
+        private Snapshot(Map<String, SubmoduleStatus> statuses, List<FileStamp> stamps) {
+            this.statuses = statuses;
+            this.stamps = stamps;
+        }
+
+        private boolean isModified() {
+            for (FileStamp stamp : stamps) {
+                if (stamp.isModified()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class FileStamp {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        private FileStamp(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        private boolean isModified() {
+            return file.lastModified() != lastModified || file.length() != length;
+        }
+    }
+}
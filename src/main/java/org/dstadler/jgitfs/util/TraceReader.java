@@ -0,0 +1,136 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.dstadler.jgitfs.util.TraceRecorder.Call;
+
+/**
+ * Reads the calls of a trace-file which was written by {@link TraceRecorder}.
+ */
+public final class TraceReader implements Closeable {
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final File file;
+    private final DataInputStream in;
+    private final long startMillis;
+    private final List<String> strings = new ArrayList<>();
+    private long previousStart;
+
+    /**
+     * @param file The trace-file
+     * @throws IOException If the file cannot be read or is not a trace-file
+     */
+    public TraceReader(File file) throws IOException {
+        this.file = file;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != TraceRecorder.MAGIC) {
+                throw new IOException("File " + file + " is not a trace of JGitFS");
+            }
+            int version = in.readUnsignedByte();
+            if (version != TraceRecorder.VERSION) {
+                throw new IOException("Unsupported version " + version + " of trace " + file);
+            }
+            startMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The time when the recording started in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return The next call or null at the end of the file
+     * @throws IOException If reading fails or the file is corrupt
+     */
+    public Call next() throws IOException {
+        while (true) {
+            int tag = in.read();
+            if (tag == -1) {
+                return null;
+            }
+
+            try {
+                if (tag == TraceRecorder.TAG_STRING) {
+                    int id = (int) readVarLong();
+                    String value = in.readUTF();
+                    if (id == strings.size()) {
+                        strings.add(value);
+                    } else {
+                        // numbers are re-assigned when the recorder dropped its strings
+                        strings.set(id, value);
+                    }
+                } else if (tag == TraceRecorder.TAG_CALL) {
+                    Operation operation = OPERATIONS[in.readUnsignedByte()];
+                    long start = previousStart + unzigzag(readVarLong());
+                    String thread = strings.get((int) readVarLong());
+                    String repository = strings.get((int) readVarLong());
+                    String path = strings.get((int) readVarLong());
+                    long offset = readVarLong();
+                    long size = readVarLong();
+                    long duration = readVarLong();
+                    int result = (int) unzigzag(readVarLong());
+
+                    previousStart = start;
+                    return new Call(operation, path, offset, size, start, duration, result, thread, repository);
+                } else {
+                    throw new IOException("Unexpected tag " + tag + " in trace " + file);
+                }
+            } catch (@SuppressWarnings("unused") EOFException e) {
+                // the last call is incomplete if the process was killed while recording
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Read all remaining calls.
+     *
+     * @return The calls in the order in which they finished
+     * @throws IOException If reading fails or the file is corrupt
+     */
+    public List<Call> readAll() throws IOException {
+        List<Call> calls = new ArrayList<>();
+        Call call;
+        while ((call = next()) != null) {
+            calls.add(call);
+        }
+        return calls;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid number in trace " + file);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,266 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+
+/**
+ * Records every FUSE callback into a compact binary file which can be read with {@link TraceReader},
+ * e.g. for replaying the workload of an IDE or a CI build against a changed version of JGitFS.
+ * <p>
+ * Calls are written by a background thread. Paths, thread-names and repositories are written only
+ * once and referenced by number afterwards and numbers are written with a variable length, so most
+ * calls need less than 20 bytes. If the writer cannot keep up, calls are dropped and counted.
+ * <p>
+ * Format: the magic number, the version and the start time in milliseconds since the epoch, followed
+ * by entries which start with a tag: {@link #TAG_STRING} defines a string with its number,
+ * {@link #TAG_CALL} contains the operation, the start as difference to the previous call, the numbers
+ * of thread, repository and path, offset, size, duration and result.
+ */
+public final class TraceRecorder implements Closeable {
+    static final int MAGIC = 0x4A474654;    // "JGFT"
+    static final int VERSION = 1;
+
+    static final int TAG_STRING = 1;
+    static final int TAG_CALL = 2;
+
+    /**
+     * The numbers of strings are re-assigned after this many strings to not keep all paths in memory.
+     */
+    static final int MAX_STRINGS = 100_000;
+
+    /**
+     * Each call references this many strings: thread, repository and path.
+     */
+    private static final int STRINGS_PER_CALL = 3;
+
+    private static final int QUEUE_SIZE = 100_000;
+
+    private static volatile TraceRecorder active;
+
+    private final File file;
+    private final int maxStrings;
+    private final long startNanos = System.nanoTime();
+    private final BlockingQueue<Call> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private final DataOutputStream out;
+    private volatile boolean closed;
+
+    // only used by the writer thread
+    private final Map<String, Integer> strings = new HashMap<>();
+    private long previousStart;
+
+    /**
+     * Start recording to the given file.
+     *
+     * @param file The trace-file, it is overwritten if it exists
+     * @throws IOException If the file cannot be created
+     */
+    public TraceRecorder(File file) throws IOException {
+        this(file, MAX_STRINGS);
+    }
+
+    /**
+     * Start recording to the given file.
+     *
+     * @param file The trace-file, it is overwritten if it exists
+     * @param maxStrings The number of strings after which their numbers are re-assigned, at least 3
+     * @throws IOException If the file cannot be created
+     */
+    TraceRecorder(File file, int maxStrings) throws IOException {
+        if (maxStrings < STRINGS_PER_CALL) {
+            throw new IllegalArgumentException("Need to keep at least " + STRINGS_PER_CALL + " strings, had: " + maxStrings);
+        }
+        this.file = file;
+        this.maxStrings = maxStrings;
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        writer = new Thread(this::write, "trace-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return The recorder which receives the callbacks of all filesystems, null if none is installed
+     */
+    public static TraceRecorder get() {
+        return active;
+    }
+
+    /**
+     * Make the given recorder receive the callbacks of all filesystems.
+     *
+     * @param recorder The recorder to use, null to stop recording
+     */
+    public static void install(TraceRecorder recorder) {
+        active = recorder;
+    }
+
+    /**
+     * Record one finished callback.
+     *
+     * @param repository The name of the repository
+     * @param operation The callback
+     * @param path The path which was accessed
+     * @param offset The offset for read, otherwise 0
+     * @param size The size of the buffer for read and readlink, otherwise 0
+     * @param startNanos The value of {@link System#nanoTime()} when the callback started
+     * @param result The value which is returned to FUSE, or {@link OperationStats#FAILED} if an exception was thrown
+     */
+    public void record(String repository, Operation operation, String path, long offset, long size, long startNanos, int result) {
+        if (closed) {
+            return;
+        }
+
+        Call call = new Call(operation, path, offset, size, startNanos - this.startNanos,
+                System.nanoTime() - startNanos, result, Thread.currentThread().getName(), repository);
+        if (queue.offer(call)) {
+            recorded.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of calls which were passed to the writer
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * @return The number of calls which were not written because the writer could not keep up
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void write() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Call call = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (call != null) {
+                    writeCall(call);
+                }
+            }
+        } catch (@SuppressWarnings("unused") InterruptedException e) {
+            // stop writing
+        } catch (IOException e) {
+            System.out.println("Could not write trace to " + file + ", stopping to record: " + e);
+            closed = true;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.out.println("Could not close trace " + file + ": " + e);
+            }
+        }
+    }
+
+    private void writeCall(Call call) throws IOException {
+        // start over before looking up the strings of the call, otherwise one of its
+        // numbers could be re-assigned to another of its strings
+        if (strings.size() + STRINGS_PER_CALL > maxStrings) {
+            strings.clear();
+        }
+
+        int thread = string(call.thread());
+        int repository = string(call.repository());
+        int path = string(call.path());
+
+        out.writeByte(TAG_CALL);
+        out.writeByte(call.operation().ordinal());
+        writeVarLong(out, zigzag(call.startNanos() - previousStart));
+        writeVarLong(out, thread);
+        writeVarLong(out, repository);
+        writeVarLong(out, path);
+        writeVarLong(out, call.offset());
+        writeVarLong(out, call.size());
+        writeVarLong(out, call.durationNanos());
+        writeVarLong(out, zigzag(call.result()));
+        previousStart = call.startNanos();
+    }
+
+    private int string(String value) throws IOException {
+        Integer id = strings.get(value);
+        if (id != null) {
+            return id;
+        }
+
+        id = strings.size();
+        strings.put(value, id);
+
+        out.writeByte(TAG_STRING);
+        writeVarLong(out, id);
+        out.writeUTF(value);
+        return id;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Write the remaining calls and close the file.
+     */
+    @Override
+    public void close() {
+        if (active == this) {
+            install(null);
+        }
+
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (@SuppressWarnings("unused") InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file + " (" + recorded + " recorded, " + dropped + " dropped)";
+    }
+
+    /**
+     * One recorded callback.
+     *
+     * @param operation The callback
+     * @param path The path which was accessed
+     * @param offset The offset for read, otherwise 0
+     * @param size The size of the buffer for read and readlink, otherwise 0
+     * @param startNanos The start of the call in nanoseconds since the start of the recording
+     * @param durationNanos The duration of the call in nanoseconds
+     * @param result The value which was returned to FUSE, or {@link OperationStats#FAILED}
+     * @param thread The name of the thread which executed the call
+     * @param repository The name of the repository
+     */
+    public record Call(Operation operation, String path, long offset, long size, long startNanos,
+                       long durationNanos, int result, String thread, String repository) {
+    }
+}
@@ -0,0 +1,30 @@
+package org.dstadler.jgitfs.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for finding a path in the tree of a commit or listing a directory.
+ */
+@Name("org.dstadler.jgitfs.TreeWalk")
+@Label("Tree Walk")
+@Category({ "JGitFS", "JGit" })
+@Description("Parsing a commit and walking its tree to a path or over a directory")
+@StackTrace(false)
+class TreeWalkEvent extends jdk.jfr.Event {
+    @Label("Commit")
+    String commitId;
+
+    @Label("Path")
+    String path;
+
+    @Label("Kind")
+    @Description("lookup for finding one path, list for reading the entries of a directory")
+    String kind;
+
+    @Label("Entries")
+    int entries;
+}
@@ -0,0 +1,231 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Keeps one ObjectReader together with a RevWalk and two TreeWalks per thread, so that
+ * the inflater and buffers of the reader are not allocated again for every access
+ * to the repository.
+ * <p>
+ * The walkers are handed out via {@link #acquire()} and are only used by one thread at a time.
+ * Nested calls on the same thread and calls from virtual threads get walkers which are
+ * not pooled, the JDK does not allow to keep state per carrier thread.
+ */
+class WalkerPool implements Closeable {
+    /**
+     * The RevWalk keeps all parsed commits, so it is reset after this number of uses
+     * to not retain an unbounded number of objects.
+     */
+    static final int MAX_USES = 1000;
+
+    private final Repository repository;
+    private final Supplier<ObjectReader> readers;
+
+    private final ThreadLocal<Walkers> walkers = new ThreadLocal<>();
+    private final Set<Walkers> allWalkers = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    /**
+     * @param repository The repository to walk
+     * @param readers Creates the ObjectReader for new walkers
+     */
+    WalkerPool(Repository repository, Supplier<ObjectReader> readers) {
+        this.repository = repository;
+        this.readers = readers;
+    }
+
+    /**
+     * Returns the walkers for the current thread, these need to be released by
+     * calling {@link Walkers#close()} when the access to the repository is done.
+     *
+     * @return Walkers which can be used by the current thread until they are closed
+     */
+    Walkers acquire() {
+        if (closed || Thread.currentThread().isVirtual()) {
+            return new Walkers(repository, readers.get(), null);
+        }
+
+        Walkers current = walkers.get();
+        if (current == null || current.disposed) {
+            removeDeadThreads();
+
+            current = new Walkers(repository, readers.get(), this);
+            walkers.set(current);
+            allWalkers.add(current);
+        } else if (current.inUse) {
+            // nested use on the same thread
+            return new Walkers(repository, readers.get(), null);
+        }
+
+        current.inUse = true;
+        return current;
+    }
+
+    private void removeDeadThreads() {
+        // FUSE may stop some of its threads when they are idle, release the walkers of these threads
+        allWalkers.removeIf(w -> {
+            if (w.owner.isAlive()) {
+                return false;
+            }
+
+            w.dispose();
+            return true;
+        });
+    }
+
+    /**
+     * Releases the walkers of all threads, threads get new walkers on their next access.
+     * <p>
+     * This must only be called while no walkers are in use.
+     */
+    void reset() {
+        for (Walkers w : allWalkers) {
+            w.dispose();
+        }
+        allWalkers.clear();
+    }
+
+    /**
+     * Releases the walkers of all threads. Walkers which are acquired afterwards are not pooled any more.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reset();
+    }
+
+    /**
+     * The walkers of one thread, closing it makes them available for the next access
+     * on the same thread.
+     */
+    static final class Walkers implements Closeable {
+        private final WalkerPool pool;
+        private final Thread owner;
+
+        private final ObjectReader reader;
+        private final RevWalk revWalk;
+        private final TreeWalk pathWalk;
+        private final TreeWalk dirWalk;
+
+        private boolean inUse;
+        private int uses;
+        private volatile boolean disposed;
+
+        private Walkers(Repository repository, ObjectReader reader, WalkerPool pool) {
+            this.pool = pool;
+            this.owner = Thread.currentThread();
+
+            this.reader = reader;
+            revWalk = new RevWalk(reader);
+            pathWalk = new TreeWalk(repository, reader);
+            dirWalk = new TreeWalk(repository, reader);
+        }
+
+        ObjectReader reader() {
+            return reader;
+        }
+
+        RevCommit parseCommit(String commit) throws IOException {
+            long start = CallProfile.start();
+            try {
+                return revWalk.parseCommit(ObjectId.fromString(commit));
+            } finally {
+                CallProfile.stop(CallProfile.Phase.COMMIT, start, 1);
+            }
+        }
+
+        /**
+         * Find the given path in the tree, similar to {@link TreeWalk#forPath(ObjectReader, String, AnyObjectId...)},
+         * but using the TreeWalk of this thread.
+         *
+         * @param tree The tree to look at
+         * @param path The path of the file or directory to find
+         * @return A TreeWalk which is positioned on the given path, it is only valid until the next call to this method
+         * @throws IOException If access to the Git repository fails
+         * @throws FileNotFoundException If the given path cannot be found in the tree
+         */
+        TreeWalk find(AnyObjectId tree, String path) throws IOException {
+            PathFilter filter = PathFilter.create(path);
+            pathWalk.setFilter(filter);
+            pathWalk.setRecursive(false);
+            pathWalk.setPostOrderTraversal(false);
+            pathWalk.reset(tree);
+
+            long start = CallProfile.start();
+            int entries = 0;
+            try {
+                while (pathWalk.next()) {
+                    entries++;
+                    if (filter.isDone(pathWalk)) {
+                        return pathWalk;
+                    } else if (pathWalk.isSubtree()) {
+                        pathWalk.enterSubtree();
+                    }
+                }
+            } finally {
+                CallProfile.stop(CallProfile.Phase.TREE, start, entries);
+            }
+
+            throw new FileNotFoundException("Did not find expected file '" + path + "' in tree '" + tree.getName() + "'");
+        }
+
+        /**
+         * Prepare the second TreeWalk of this thread for walking the given tree, it
+         * can be used while the result of {@link #find(AnyObjectId, String)} is still in use.
+         *
+         * @param tree The tree to walk
+         * @return A non-recursive TreeWalk without filter, it is only valid until the next call to this method
+         * @throws IOException If access to the Git repository fails
+         */
+        TreeWalk walk(AnyObjectId tree) throws IOException {
+            dirWalk.setFilter(TreeFilter.ALL);
+            dirWalk.setRecursive(false);
+            dirWalk.setPostOrderTraversal(false);
+            dirWalk.reset(tree);
+            return dirWalk;
+        }
+
+        @Override
+        public void close() {
+            if (pool == null) {
+                dispose();
+                return;
+            }
+
+            uses++;
+            if (uses >= MAX_USES) {
+                // drops all parsed commits and releases the inflater, the reader stays usable
+                revWalk.dispose();
+                uses = 0;
+            }
+
+            inUse = false;
+        }
+
+        private void dispose() {
+            disposed = true;
+            pathWalk.close();
+            dirWalk.close();
+            // the walkers of idle threads stay referenced by their thread, so also drop the parsed commits
+            revWalk.dispose();
+            revWalk.close();
+            reader.close();
+        }
+    }
+}
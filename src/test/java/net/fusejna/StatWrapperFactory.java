@@ -6,4 +6,20 @@ public class StatWrapperFactory {
     public static StatWrapper create() {
         return new StatWrapper(new net.fusejna.StructStat.I686());
     }
+
+    /**
+     * A StatWrapper together with its structure, StatWrapper only allows to set the size of a file, not to read it.
+     */
+    public static final class SizedStat {
+        private final StructStat.I686 struct = new StructStat.I686();
+        private final StatWrapper wrapper = new StatWrapper(struct);
+
+        public StatWrapper getWrapper() {
+            return wrapper;
+        }
+
+        public long getSize() {
+            return struct.st_size();
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package org.dstadler.jgitfs;
+
+import net.fusejna.DirectoryFiller;
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import net.fusejna.types.TypeMode.NodeType;
+import org.apache.commons.lang3.RandomUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test application to measure how the throughput of a single {@link JGitFilesystem}
+ * scales with the number of threads which call it concurrently, as libfuse does
+ * when the filesystem is mounted.
+ *
+ * Usage: ConcurrencyBenchmark [git-dir] [seconds-per-step]
+ */
+public class ConcurrencyBenchmark {
+    private static final int MAX_PATHS = 2000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String gitDir = args.length > 0 ? args[0] : ".";
+        long duration = (args.length > 1 ? Long.parseLong(args[1]) : 5) * 1000;
+
+        try (JGitFilesystem fs = new JGitFilesystem(gitDir, false)) {
+            List<String> files = new ArrayList<>();
+            List<String> dirs = new ArrayList<>();
+            collectPaths(fs, getCommitDir(fs), files, dirs);
+            System.out.println("Using " + files.size() + " files and " + dirs.size() + " directories of " + gitDir);
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            double single = 0;
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                double opsPerSec = run(fs, files, dirs, threads, duration);
+                if (threads == 1) {
+                    single = opsPerSec;
+                }
+                System.out.printf("%3d threads: %,12.0f ops/sec, speedup %.2f%n", threads, opsPerSec, opsPerSec / single);
+
+                if (threads < cores && threads * 2 > cores) {
+                    threads = cores / 2;
+                }
+            }
+        }
+    }
+
+    private static String getCommitDir(JGitFilesystem fs) {
+        List<String> branches = new ArrayList<>();
+        assertEquals(0, fs.readdir("/branch", new JGitFilesystemTest.DirectoryFillerImplementation(branches)), "/branch");
+        if (branches.isEmpty()) {
+            throw new IllegalStateException("Did not find any branch");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        assertEquals(0, fs.readlink("/branch/" + branches.getFirst(), buffer, 1000), "/branch/" + branches.getFirst());
+
+        // the link points to "../commit/xx/yyyy"
+        return new String(buffer.array(), 0, buffer.position()).substring(2);
+    }
+
+    private static void collectPaths(JGitFilesystem fs, String dir, List<String> files, List<String> dirs) {
+        dirs.add(dir);
+
+        List<String> entries = new ArrayList<>();
+        assertEquals(0, fs.readdir(dir, new JGitFilesystemTest.DirectoryFillerImplementation(entries)), dir);
+
+        StatWrapper stat = StatWrapperFactory.create();
+        for (String entry : entries) {
+            if (files.size() + dirs.size() >= MAX_PATHS) {
+                return;
+            }
+
+            String path = dir + "/" + entry;
+            assertEquals(0, fs.getattr(path, stat), path);
+            if (stat.type() == NodeType.DIRECTORY) {
+                collectPaths(fs, path, files, dirs);
+            } else if (stat.type() == NodeType.FILE) {
+                files.add(path);
+            }
+        }
+    }
+
+    private static double run(JGitFilesystem fs, List<String> files, List<String> dirs, int threadCount, long duration) throws InterruptedException {
+        final AtomicLong ops = new AtomicLong();
+        final long end = System.currentTimeMillis() + duration;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                StatWrapper stat = StatWrapperFactory.create();
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                List<String> entries = new ArrayList<>();
+                DirectoryFiller filler = new JGitFilesystemTest.DirectoryFillerImplementation(entries);
+
+                long count = 0;
+                while (System.currentTimeMillis() < end) {
+                    if (RandomUtils.insecure().randomInt(0, 4) == 0) {
+                        String dir = dirs.get(RandomUtils.insecure().randomInt(0, dirs.size()));
+                        entries.clear();
+                        assertEquals(0, fs.readdir(dir, filler), dir);
+                    } else {
+                        String file = files.get(RandomUtils.insecure().randomInt(0, files.size()));
+                        assertEquals(0, fs.getattr(file, stat), file);
+                        buffer.clear();
+                        fs.read(file, buffer, buffer.capacity(), 0, null);
+                    }
+                    count++;
+                }
+                ops.addAndGet(count);
+            }, "Benchmark-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return ops.get() * 1000.0 / duration;
+    }
+}
@@ -0,0 +1,154 @@
+package org.dstadler.jgitfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.fusejna.DirectoryFiller;
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import org.apache.commons.io.FileUtils;
+import org.dstadler.jgitfs.util.RepositoryGenerator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that the number of bytes which the hot callbacks allocate per call stays within a budget,
+ * as garbage collection causes most of the latency outliers when serving large repositories.
+ * <p>
+ * The callbacks run against warm caches, so the budgets cover the steady state and not the
+ * loading of trees or objects. Budgets are given in bytes per call and leave room for differences
+ * between JVMs, they can be changed via system properties like -Djgitfs.allocation.read=16384.
+ * A budget of 0 only prints the actual allocations of the callback without checking them.
+ */
+public class JGitFilesystemAllocationTest {
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 20_000;
+    private static final int READ_SIZE = 4096;
+
+    // all files have the same size, otherwise the allocations of read would mostly depend on the sizes
+    // of the files which happen to be read, as read loads the whole object before copying READ_SIZE bytes
+    private static final int FILE_SIZE = 2 * READ_SIZE;
+
+    // fixed allocations per call, e.g. for looking up the path and for the stream of the object
+    private static final long OVERHEAD = 8 * 1024;
+
+    private static final long GETATTR_BUDGET = 8 * 1024;
+    private static final long READ_BUDGET = FILE_SIZE + READ_SIZE + OVERHEAD;
+    private static final long READDIR_BUDGET = 16 * 1024;
+    private static final long READLINK_BUDGET = 512;
+
+    private static File dir;
+    private static JGitFilesystem fs;
+    private static final List<String> files = new ArrayList<>();
+    private static final List<String> dirs = new ArrayList<>();
+    private static final List<String> links = new ArrayList<>();
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        dir = Files.createTempDirectory("JGitFilesystemAllocationTest").toFile();
+        RepositoryGenerator generator = new RepositoryGenerator()
+                .setCommits(50)
+                .setTree(2, 4, 20)
+                .setFileSizes(FILE_SIZE, FILE_SIZE)
+                .setBranches(10)
+                .setSymlinks(50);
+        String head = generator.generate(dir);
+        String commitDir = "/commit/" + head.substring(0, 2) + "/" + head.substring(2);
+
+        // only regular files, the small .gitmodules or binaries would change the size of reads
+        generator.getFiles().stream().filter(file -> file.endsWith(".txt")).forEach(file -> files.add(commitDir + "/" + file));
+        generator.getDirs().forEach(path -> dirs.add(path.isEmpty() ? commitDir : commitDir + "/" + path));
+        generator.getSymlinks().forEach(link -> links.add(commitDir + "/" + link));
+
+        fs = new JGitFilesystem(dir.getAbsolutePath(), false);
+        List<String> branches = new ArrayList<>();
+        assertEquals(0, fs.readdir("/branch", new JGitFilesystemTest.DirectoryFillerImplementation(branches)));
+        branches.forEach(branch -> links.add("/branch/" + branch));
+    }
+
+    @AfterAll
+    public static void tearDownClass() throws IOException {
+        if (fs != null) {
+            fs.close();
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testGetattr() {
+        StatWrapper stat = StatWrapperFactory.create();
+        measure("getattr", GETATTR_BUDGET, i -> {
+            String path = files.get(i % files.size());
+            assertEquals(0, fs.getattr(path, stat), path);
+        });
+    }
+
+    @Test
+    public void testRead() {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+        measure("read", READ_BUDGET, i -> {
+            String path = files.get(i % files.size());
+            buffer.clear();
+            assertEquals(READ_SIZE, fs.read(path, buffer, READ_SIZE, 0, null), path);
+        });
+    }
+
+    @Test
+    public void testReaddir() {
+        List<String> entries = new ArrayList<>();
+        DirectoryFiller filler = new JGitFilesystemTest.DirectoryFillerImplementation(entries);
+        measure("readdir", READDIR_BUDGET, i -> {
+            String path = dirs.get(i % dirs.size());
+            entries.clear();
+            assertEquals(0, fs.readdir(path, filler), path);
+        });
+    }
+
+    @Test
+    public void testReadlink() {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        measure("readlink", READLINK_BUDGET, i -> {
+            String path = links.get(i % links.size());
+            buffer.clear();
+            assertEquals(0, fs.readlink(path, buffer, buffer.capacity()), path);
+        });
+    }
+
+    private static void measure(String operation, long defaultBudget, Call call) {
+        long budget = Long.getLong("jgitfs.allocation." + operation, defaultBudget);
+
+        // the first calls fill the caches and let the JIT remove allocations which do not escape
+        for (int i = 0; i < WARMUP; i++) {
+            call.call(i);
+        }
+
+        long before = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.call(i);
+        }
+        long perCall = (THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - before) / ITERATIONS;
+
+        System.out.println(operation + " allocated " + perCall + " bytes per call, budget: " + budget);
+        if (budget == 0) {
+            // only report the allocations, e.g. to choose a new budget
+            return;
+        }
+        assertTrue(perCall <= budget,
+                operation + " allocated " + perCall + " bytes per call, which exceeds the budget of " + budget + " bytes");
+    }
+
+    private interface Call {
+        void call(int i);
+    }
+}
@@ -0,0 +1,193 @@
+package org.dstadler.jgitfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.apache.commons.io.FileUtils;
+import org.dstadler.jgitfs.LoadHarness.FilesystemTarget;
+import org.dstadler.jgitfs.LoadHarness.Workload;
+import org.dstadler.jgitfs.util.LatencyHistogram;
+import org.dstadler.jgitfs.util.RepositoryGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Long-running test which reads a large generated repository with concurrent threads while the
+ * heap is small, as JGitFS is expected to work with e.g. -Xmx60m. It is not part of the normal
+ * test-run, but runs via "./gradlew soakTest", which uses a heap of 60MB.
+ * <p>
+ * Walks, small reads at random offsets and full reads of all files including large binaries and
+ * files at the end of a long delta chain run against {@link JGitFilesystem} directly. The test fails
+ * if an {@link OutOfMemoryError} or any other failure happens, if the heap which is still used after
+ * the garbage collections of one interval exceeds a fraction of the maximum heap or if the throughput
+ * of one interval falls below a floor.
+ * <p>
+ * Settings via system properties:
+ * <ul>
+ *     <li>jgitfs.soak.seconds: how long the load runs, default 60</li>
+ *     <li>jgitfs.soak.min-ops: the minimum operations per second of all workloads in each 10 second interval, default 50</li>
+ *     <li>jgitfs.soak.max-heap-percent: the maximum heap used after GC in percent of the maximum heap, default 80</li>
+ *     <li>jgitfs.soak.repository: an existing repository to read instead of generating one</li>
+ * </ul>
+ */
+@Tag("soak")
+public class JGitFilesystemSoakTest {
+    private static final long SECONDS = Long.getLong("jgitfs.soak.seconds", 60);
+    private static final long MIN_OPS = Long.getLong("jgitfs.soak.min-ops", 50);
+    private static final long MAX_HEAP_PERCENT = Long.getLong("jgitfs.soak.max-heap-percent", 80);
+    private static final String REPOSITORY = System.getProperty("jgitfs.soak.repository");
+
+    private static final long INTERVAL_SECONDS = 10;
+
+    private static final Map<Workload, Integer> THREADS = Map.of(
+            Workload.WALK, 2, Workload.READ, 4, Workload.GREP, 2, Workload.DIFF, 1);
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("JGitFilesystemSoakTest").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testConcurrentReadersWithSmallHeap() throws IOException, InterruptedException, ListenerNotFoundException {
+        String gitDir = REPOSITORY;
+        if (gitDir == null) {
+            // more than 4,000 files of up to 300KB, binaries which are larger than the
+            // threshold for streaming objects and a delta chain of 100 versions
+            new RepositoryGenerator()
+                    .setCommits(1_000)
+                    .setChangesPerCommit(5)
+                    .setTree(3, 4, 50)
+                    .setFileSizes(100, 300 * 1024)
+                    .setLargeBinaries(4, 8 * 1024 * 1024)
+                    .setDeltaChain(100)
+                    .setBranches(20)
+                    .setTags(10, 10)
+                    .setSymlinks(50)
+                    .generate(dir);
+            gitDir = dir.getAbsolutePath();
+        }
+
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        System.out.println("Running soak test for " + SECONDS + " seconds against " + gitDir + " with a heap of " +
+                FileUtils.byteCountToDisplaySize(maxHeap));
+
+        HeapMonitor heap = new HeapMonitor();
+        try (FilesystemTarget target = new FilesystemTarget(new JGitFilesystem(gitDir, false))) {
+            LoadHarness harness = new LoadHarness(target, THREADS, 42);
+            harness.start();
+            try {
+                long previousOps = 0;
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+                while (System.nanoTime() < end) {
+                    long intervalStart = System.nanoTime();
+                    TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.SECONDS.toNanos(INTERVAL_SECONDS), end - intervalStart));
+                    double seconds = (System.nanoTime() - intervalStart) / 1e9;
+
+                    long ops = 0;
+                    for (Workload workload : THREADS.keySet()) {
+                        LatencyHistogram.Snapshot latencies = harness.getLatencies(workload);
+                        ops += latencies.getCount();
+                        assertEquals(0, harness.getErrors(workload), "Had failures in workload " + workload);
+                    }
+                    assertNull(harness.getFailure(), "A thread stopped with an error");
+
+                    double opsPerSecond = (ops - previousOps) / seconds;
+                    long usedAfterGc = heap.nextInterval();
+                    System.out.printf("%.0f ops/s, heap used after GC: %s%n", opsPerSecond,
+                            usedAfterGc == -1 ? "no GC" : FileUtils.byteCountToDisplaySize(usedAfterGc));
+                    assertTrue(opsPerSecond >= MIN_OPS,
+                            "Throughput of " + opsPerSecond + " ops/s fell below the floor of " + MIN_OPS + " ops/s");
+                    assertTrue(usedAfterGc <= maxHeap * MAX_HEAP_PERCENT / 100,
+                            "Heap used after GC reached " + usedAfterGc + " bytes of " + maxHeap + " bytes");
+                    previousOps = ops;
+                }
+            } finally {
+                harness.stop();
+                heap.close();
+            }
+
+            for (Workload workload : THREADS.keySet()) {
+                System.out.println(workload + ": " + harness.getLatencies(workload).getCount() + " " + workload.getUnit() +
+                        " operations, " + FileUtils.byteCountToDisplaySize(harness.getBytes(workload)));
+            }
+            assertNull(harness.getFailure(), "A thread stopped with an error");
+        }
+
+        assertTrue(heap.getCollections() > 0, "Expected garbage collections during the test");
+    }
+
+    /**
+     * Records the heap which is still in use after garbage collections. Young collections leave
+     * garbage in the old generation, so the lowest value of an interval is closest to the live data.
+     */
+    private static final class HeapMonitor {
+        private final Set<String> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getName)
+                .collect(Collectors.toSet());
+        private final AtomicLong minUsedAfterGc = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong collections = new AtomicLong();
+        private final NotificationListener listener = (notification, handback) -> {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long used = info.getGcInfo().getMemoryUsageAfterGc().entrySet().stream()
+                        .filter(pool -> heapPools.contains(pool.getKey()))
+                        .mapToLong(pool -> pool.getValue().getUsed())
+                        .sum();
+                minUsedAfterGc.accumulateAndGet(used, Math::min);
+                collections.incrementAndGet();
+            }
+        };
+
+        private HeapMonitor() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+
+        /**
+         * @return The lowest heap used after a GC since the previous call, -1 if no GC happened
+         */
+        private long nextInterval() {
+            long used = minUsedAfterGc.getAndSet(Long.MAX_VALUE);
+            return used == Long.MAX_VALUE ? -1 : used;
+        }
+
+        private long getCollections() {
+            return collections.get();
+        }
+
+        private void close() throws ListenerNotFoundException {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).removeNotificationListener(listener);
+            }
+        }
+    }
+}
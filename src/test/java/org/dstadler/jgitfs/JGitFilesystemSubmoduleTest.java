@@ -1,6 +1,7 @@
 package org.dstadler.jgitfs;
 
 import net.fusejna.DirectoryFiller;
+import net.fusejna.ErrorCodes;
 import net.fusejna.StructStat;
 import net.fusejna.StructStat.StatWrapper;
 import net.fusejna.types.TypeMode.NodeType;
@@ -118,4 +119,26 @@ public class JGitFilesystemSubmoduleTest {
 //        assertEquals(NodeType.FILE, stat.type());
 
     }
+
+    @Test
+    public void testUnknownSubmodule() {
+        StatWrapper stat = JGitFilesystemTest.getStatsWrapper();
+        assertNotNull(stat);
+
+        assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/submodule/notexisting/commit", stat));
+        assertEquals(-ErrorCodes.ENOENT(), fs.readlink("/submodule/notexisting/branch/master", ByteBuffer.allocate(1000), 1000));
+        assertEquals(-ErrorCodes.ENOENT(), fs.readdir("/submodule/notexisting/commit",
+                new JGitFilesystemTest.DirectoryFillerImplementation(new ArrayList<>())));
+    }
+
+    @Test
+    public void testWarmSubmodules() {
+        fs.warmSubmodules();
+
+        // accessing the submodule works while and after warming up in the background
+        StatWrapper stat = JGitFilesystemTest.getStatsWrapper();
+        assertNotNull(stat);
+        assertEquals(0, fs.getattr(SUBMODULE_COMMIT_PATH + "/README.md", stat));
+        assertEquals(NodeType.FILE, stat.type());
+    }
 }
@@ -7,16 +7,29 @@ import net.fusejna.FuseException;
 import net.fusejna.StatWrapperFactory;
 import net.fusejna.StructStat.StatWrapper;
 import net.fusejna.types.TypeMode.NodeType;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.dstadler.commons.testing.ThreadTestHelper;
 import org.dstadler.jgitfs.util.FuseUtils;
 import org.dstadler.jgitfs.util.JGitHelper;
 import org.dstadler.jgitfs.util.JGitHelperTest;
+import org.dstadler.jgitfs.util.MemoryGovernor;
+import org.dstadler.jgitfs.util.OperationStats;
+import org.dstadler.jgitfs.util.RepositoryGenerator;
+import org.dstadler.jgitfs.util.SlowOperationLog;
+import org.dstadler.jgitfs.util.TraceReader;
+import org.dstadler.jgitfs.util.TraceRecorder;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -25,11 +38,18 @@ import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -104,11 +124,240 @@ public class JGitFilesystemTest {
         assertTrue(fs.getStats().toString().contains("read,0"), "Had: " + fs.getStats());
         assertTrue(fs.getStats().toString().contains("readdir,0"), "Had: " + fs.getStats());
         assertTrue(fs.getStats().toString().contains("readlink,0"), "Had: " + fs.getStats());
+        assertTrue(fs.getStats().toString().contains("coalesced,0"), "Had: " + fs.getStats());
 
         StatWrapper stat = getStatsWrapper();
         assertNotNull(stat);
         fs.getattr("", null);
         assertTrue(fs.getStats().toString().contains("getattr,1"), "Had: " + fs.getStats());
+        assertTrue(fs.getStats().toString().contains("enoent,1"), "Had: " + fs.getStats());
+        assertTrue(fs.getStats().toString().contains("errors,0"), "Had: " + fs.getStats());
+
+        assertEquals(0, fs.getattr("/branch", stat));
+        assertEquals(2, fs.getOperationStats().getLatencies(OperationStats.Operation.GETATTR).getCount());
+        assertEquals(1, fs.getOperationStats().getLatencies(OperationStats.Operation.GETATTR, OperationStats.Namespace.BRANCH).getCount());
+    }
+
+    @Test
+    public void testLinkCaches() throws IOException {
+        File dir = Files.createTempDirectory("JGitFilesystemTest").toFile();
+        try {
+            RepositoryGenerator generator = new RepositoryGenerator()
+                    .setCommits(3)
+                    .setTree(1, 1, 3)
+                    .setSymlinks(1);
+            String head = generator.generate(dir);
+            String symlink = "/commit/" + head.substring(0, 2) + "/" + head.substring(2) + "/" + generator.getSymlinks().getFirst();
+
+            try (JGitFilesystem linkFS = new JGitFilesystem(dir.getAbsolutePath(), false)) {
+                assertEquals("../commit/" + head.substring(0, 2) + "/" + head.substring(2), readlink(linkFS, "/branch/master"));
+                assertEquals("../commit/" + head.substring(0, 2) + "/" + head.substring(2), readlink(linkFS, "/branch/master"));
+                String target = readlink(linkFS, symlink);
+                assertEquals(target, readlink(linkFS, symlink));
+
+                List<Pair<String, Long>> stats = linkFS.getStats();
+                assertTrue(stats.contains(Pair.of("refLinkMiss", 1L)), "Had: " + stats);
+                assertTrue(stats.contains(Pair.of("refLinkHit", 1L)), "Had: " + stats);
+                assertTrue(stats.contains(Pair.of("treeLinkMiss", 1L)), "Had: " + stats);
+                assertTrue(stats.contains(Pair.of("treeLinkHit", 1L)), "Had: " + stats);
+
+                // move the branch back to the previous commit
+                final String parent;
+                try (Git git = Git.open(dir);
+                     RevWalk walk = new RevWalk(git.getRepository())) {
+                    RevCommit parentCommit = walk.parseCommit(ObjectId.fromString(head)).getParent(0);
+                    parent = parentCommit.getName();
+
+                    RefUpdate update = git.getRepository().updateRef(Constants.R_HEADS + "master");
+                    update.setNewObjectId(parentCommit);
+                    assertEquals(RefUpdate.Result.FORCED, update.forceUpdate());
+                }
+
+                // reading the branches lets JGit notice the changed ref, the link
+                // changes without waiting for the entry to expire
+                assertEquals(0, linkFS.readdir("/branch", new DirectoryFillerImplementation(new ArrayList<>())));
+                assertEquals("../commit/" + parent.substring(0, 2) + "/" + parent.substring(2), readlink(linkFS, "/branch/master"));
+
+                // links inside commits never change, so they are still cached
+                assertEquals(target, readlink(linkFS, symlink));
+
+                stats = linkFS.getStats();
+                assertTrue(stats.contains(Pair.of("refLinkMiss", 2L)), "Had: " + stats);
+                assertTrue(stats.contains(Pair.of("refLinkHit", 1L)), "Had: " + stats);
+                assertTrue(stats.contains(Pair.of("treeLinkMiss", 1L)), "Had: " + stats);
+                assertTrue(stats.contains(Pair.of("treeLinkHit", 2L)), "Had: " + stats);
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static String readlink(JGitFilesystem linkFS, String path) {
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        assertEquals(0, linkFS.readlink(path, buffer, 1000), path);
+        return new String(buffer.array(), 0, buffer.position());
+    }
+
+    @Test
+    public void testHibernate() {
+        List<String> branches = new ArrayList<>();
+        assertEquals(0, fs.readdir("/branch", new DirectoryFillerImplementation(branches)));
+        assertFalse(branches.isEmpty());
+
+        // recently accessed
+        assertFalse(fs.hibernateIfIdle(60_000));
+        assertFalse(fs.isHibernated());
+
+        assertTrue(fs.hibernateIfIdle(0));
+        assertTrue(fs.isHibernated());
+        assertTrue(fs.getStats().toString().contains("hibernations,1"), "Had: " + fs.getStats());
+
+        // already hibernated
+        assertFalse(fs.hibernateIfIdle(0));
+
+        // the next access opens the repository again
+        List<String> branchesAfter = new ArrayList<>();
+        assertEquals(0, fs.readdir("/branch", new DirectoryFillerImplementation(branchesAfter)));
+        assertEquals(branches, branchesAfter);
+        assertFalse(fs.isHibernated());
+
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        assertEquals(0, fs.readlink("/branch/" + branches.getFirst(), buffer, 1000));
+
+        StatWrapper stat = getStatsWrapper();
+        String commitPath = new String(buffer.array(), 0, buffer.position()).substring(2);
+        assertEquals(0, fs.getattr(commitPath, stat));
+        assertEquals(NodeType.DIRECTORY, stat.type());
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws IOException {
+        Path file = Files.createTempFile("JGitFilesystemTest", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.dstadler.jgitfs.FuseCallback");
+            recording.enable("org.dstadler.jgitfs.TreeWalk");
+            recording.enable("org.dstadler.jgitfs.ObjectOpen");
+            recording.enable("org.dstadler.jgitfs.RefRead");
+            recording.start();
+
+            List<String> branches = new ArrayList<>();
+            assertEquals(0, fs.readdir("/branch", new DirectoryFillerImplementation(branches)));
+
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            assertEquals(0, fs.readlink("/branch/" + branches.getFirst(), buffer, 1000));
+            String commitPath = new String(buffer.array(), 0, buffer.position()).substring(2);
+
+            List<String> files = new ArrayList<>();
+            assertEquals(0, fs.readdir(commitPath, new DirectoryFillerImplementation(files)));
+            assertTrue(files.contains("build.gradle"), "Had: " + files);
+
+            ByteBuffer content = ByteBuffer.allocate(100);
+            assertEquals(100, fs.read(commitPath + "/build.gradle", content, 100, 0, null));
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("org.dstadler.jgitfs.RefRead") &&
+                    "branches".equals(event.getString("kind"))), "Had: " + events);
+            assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("org.dstadler.jgitfs.TreeWalk") &&
+                    "list".equals(event.getString("kind"))), "Had: " + events);
+            assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("org.dstadler.jgitfs.ObjectOpen")),
+                    "Had: " + events);
+            assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("org.dstadler.jgitfs.FuseCallback") &&
+                    "read".equals(event.getString("operation")) && "/commit".equals(event.getString("pathClass")) &&
+                    commitPath.replace("/commit/", "").replace("/", "").equals(event.getString("commitId")) &&
+                    event.getLong("bytes") == 100), "Had: " + events);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testTraceAndReplay() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("JGitFilesystemTest", ".trace");
+        try {
+            final String commitPath;
+            try (TraceRecorder recorder = new TraceRecorder(file.toFile())) {
+                TraceRecorder.install(recorder);
+
+                List<String> branches = new ArrayList<>();
+                assertEquals(0, fs.readdir("/branch", new DirectoryFillerImplementation(branches)));
+
+                ByteBuffer buffer = ByteBuffer.allocate(1000);
+                assertEquals(0, fs.readlink("/branch/" + branches.getFirst(), buffer, 1000));
+                commitPath = new String(buffer.array(), 0, buffer.position()).substring(2);
+
+                StatWrapper stat = getStatsWrapper();
+                assertEquals(0, fs.getattr(commitPath + "/build.gradle", stat));
+                assertEquals(-ErrorCodes.ENOENT(), fs.getattr(commitPath + "/notexisting", stat));
+
+                ByteBuffer content = ByteBuffer.allocate(100);
+                assertEquals(50, fs.read(commitPath + "/build.gradle", content, 50, 10, null));
+            }
+
+            List<TraceRecorder.Call> calls;
+            try (TraceReader reader = new TraceReader(file.toFile())) {
+                calls = reader.readAll();
+            }
+            assertEquals(5, calls.size(), "Had: " + calls);
+            assertEquals(OperationStats.Operation.READDIR, calls.getFirst().operation());
+            assertEquals("/branch", calls.getFirst().path());
+            assertEquals(1000, calls.get(1).size());
+            assertEquals(-ErrorCodes.ENOENT(), calls.get(3).result());
+
+            TraceRecorder.Call read = calls.get(4);
+            assertEquals(commitPath + "/build.gradle", read.path());
+            assertEquals(10, read.offset());
+            assertEquals(50, read.size());
+            assertEquals(50, read.result());
+
+            TraceReplayer.Result result = TraceReplayer.replay(fs, calls, 2, true);
+            assertEquals(0, result.getFailures());
+            assertEquals(0, result.getMismatches());
+            assertEquals(2, result.getLatencies(OperationStats.Operation.GETATTR).getCount());
+            assertEquals(1, result.getLatencies(OperationStats.Operation.READ).getCount());
+        } finally {
+            TraceRecorder.install(null);
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSlowOperationLog() throws IOException {
+        Path file = Files.createTempFile("JGitFilesystemTest", ".log");
+        final String commitPath;
+        try (SlowOperationLog slowLog = new SlowOperationLog(file.toFile(), 0)) {
+            SlowOperationLog.install(slowLog);
+
+            List<String> branches = new ArrayList<>();
+            assertEquals(0, fs.readdir("/branch", new DirectoryFillerImplementation(branches)));
+
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            assertEquals(0, fs.readlink("/branch/" + branches.getFirst(), buffer, 1000));
+            commitPath = new String(buffer.array(), 0, buffer.position()).substring(2);
+
+            ByteBuffer content = ByteBuffer.allocate(100);
+            assertEquals(100, fs.read(commitPath + "/build.gradle", content, 100, 0, null));
+
+            assertEquals(3, slowLog.getLogged());
+        } finally {
+            SlowOperationLog.install(null);
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(3, lines.size(), "Had: " + lines);
+            assertTrue(lines.get(0).contains(" readdir ") && lines.get(0).contains(" /branch "), "Had: " + lines);
+
+            String read = lines.get(2);
+            assertTrue(read.contains(" read ") && read.contains(commitPath + "/build.gradle") && read.contains(" result=100 "), "Had: " + read);
+            assertTrue(read.contains(" commit=") && read.contains("/1 commits "), "Had: " + read);
+            assertTrue(read.contains(" tree=") && read.contains(" object=") && read.contains(" copy=") &&
+                    read.contains("/100 bytes other="), "Had: " + read);
+        } finally {
+            Files.delete(file);
+        }
     }
 
     @Test
@@ -566,6 +815,132 @@ public class JGitFilesystemTest {
         });
     }
 
+    @Test
+    public void testConcurrentAccess() throws Throwable {
+        final List<String> paths = List.of("/", "/branch", "/tag", "/commit/" + DEFAULT_COMMIT_SUB,
+                DEFAULT_COMMIT_PATH, DEFAULT_COMMIT_PATH + "/src", DEFAULT_COMMIT_PATH + "/src/main",
+                DEFAULT_COMMIT_PATH + "/README.md", DEFAULT_COMMIT_PATH + "/build.gradle",
+                DEFAULT_COMMIT_PATH + "/notexist.txt", "/branch/master", "/tag/testtag", "/remote/origin_master");
+
+        // results of a single thread are used as reference
+        final List<String> expected = new ArrayList<>();
+        for (String path : paths) {
+            expected.add(describe(path));
+        }
+
+        ThreadTestHelper helper =
+                new ThreadTestHelper(NUMBER_OF_THREADS, 50);
+
+        helper.executeTest(new ThreadTestHelper.TestRunnable() {
+            @Override
+            public void doEnd(int threadnum) {
+                // nothing to do
+            }
+
+            @Override
+            public void run(int threadnum, int iter) {
+                // start each thread at a different path to have different operations run in parallel
+                int idx = (threadnum + iter) % paths.size();
+                assertEquals(expected.get(idx), describe(paths.get(idx)),
+                        "Thread " + threadnum + " in iteration " + iter + " had a different result for " + paths.get(idx));
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentSubmoduleAccess() throws Throwable {
+        File dir = Files.createTempDirectory("JGitFilesystemTest").toFile();
+        try {
+            new RepositoryGenerator()
+                    .setCommits(3)
+                    .setTree(1, 1, 3)
+                    .setSubmodules(2)
+                    .generate(dir);
+
+            try (JGitFilesystem subFS = new JGitFilesystem(dir.getAbsolutePath(), false)) {
+                // all threads access the submodules at the same time while they are opened
+                ThreadTestHelper helper = new ThreadTestHelper(NUMBER_OF_THREADS, 20);
+                helper.executeTest(new ThreadTestHelper.TestRunnable() {
+                    @Override
+                    public void doEnd(int threadnum) {
+                        // nothing to do
+                    }
+
+                    @Override
+                    public void run(int threadnum, int iter) {
+                        StatWrapper stat = getStatsWrapper();
+                        String path = "/submodule/sub0" + ((threadnum + iter) % 2) + "/branch";
+                        assertEquals(0, subFS.getattr(path, stat), path);
+                        assertEquals(NodeType.DIRECTORY, stat.type());
+
+                        // failed opens are not kept, but reported again
+                        assertEquals(-ErrorCodes.ENOENT(), subFS.getattr("/submodule/notexisting/branch", stat));
+                    }
+                });
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testCloseWhileWarmingSubmodules() throws IOException {
+        File dir = Files.createTempDirectory("JGitFilesystemTest").toFile();
+        try {
+            new RepositoryGenerator()
+                    .setCommits(3)
+                    .setTree(1, 1, 3)
+                    .setSubmodules(4)
+                    .generate(dir);
+
+            StatWrapper stat = getStatsWrapper();
+            int participants = MemoryGovernor.get().getParticipantCount();
+            for (int i = 0; i < 10; i++) {
+                JGitFilesystem subFS = new JGitFilesystem(dir.getAbsolutePath(), false);
+                subFS.warmSubmodules();
+                if (i % 2 == 0) {
+                    assertEquals(0, subFS.getattr("/submodule/sub00/branch", stat));
+                }
+                subFS.close();
+
+                // submodules which were still opened in the background are closed as well
+                assertEquals(participants, MemoryGovernor.get().getParticipantCount(), "Round " + i);
+                assertEquals(-ErrorCodes.ENOENT(), subFS.getattr("/submodule/sub01/branch", stat));
+                assertEquals(participants, MemoryGovernor.get().getParticipantCount(), "Round " + i);
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private String describe(String path) {
+        StatWrapper stat = getStatsWrapper();
+        assertNotNull(stat);
+
+        int ret = fs.getattr(path, stat);
+        if (ret != 0) {
+            return path + ": " + ret;
+        }
+
+        switch (stat.type()) {
+            case DIRECTORY: {
+                final List<String> filledFiles = new ArrayList<>();
+                assertEquals(0, fs.readdir(path, new DirectoryFillerImplementation(filledFiles)));
+                return path + ": " + filledFiles;
+            }
+            case SYMBOLIC_LINK: {
+                ByteBuffer buffer = ByteBuffer.allocate(1000);
+                assertEquals(0, fs.readlink(path, buffer, 1000));
+                return path + " -> " + new String(buffer.array(), 0, buffer.position());
+            }
+            default: {
+                ByteBuffer buffer = ByteBuffer.allocate(100000);
+                int read = fs.read(path, buffer, 100000, 0, null);
+                return path + ": " + read + " bytes, hash " + Arrays.hashCode(buffer.array());
+            }
+        }
+    }
+
     @Test
     public void testWalkRecursively() {
         StatWrapper stat = getStatsWrapper();
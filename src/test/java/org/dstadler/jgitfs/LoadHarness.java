@@ -0,0 +1,604 @@
+package org.dstadler.jgitfs;
+
+import net.fusejna.StatWrapperFactory.SizedStat;
+import net.fusejna.types.TypeMode.NodeType;
+import org.dstadler.jgitfs.util.LatencyHistogram;
+import org.dstadler.jgitfs.util.OperationStats;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test application which puts a configurable mix of workloads on JGitFS, either through a mounted
+ * filesystem or by invoking the callbacks of {@link JGitFilesystem} directly, e.g. to size hardware
+ * or to compare releases under a realistic mixed load.
+ * <p>
+ * Each workload runs in its own threads:
+ * <ul>
+ *     <li>walk: recursively lists the tree of a random branch and reads the attributes of all entries, like "find"</li>
+ *     <li>read: reads a block at a random offset of a random file</li>
+ *     <li>diff: compares the trees of two random branches including the contents of all files, like "diff -r"</li>
+ *     <li>grep: reads all files of a random branch completely and counts their lines, like "grep -r"</li>
+ * </ul>
+ * Throughput and latencies of each workload are printed every 10 seconds and at the end.
+ *
+ * Usage: LoadHarness mount|direct &lt;mountpoint|git-dir&gt; [seconds] [walk=2,read=4,diff=1,grep=1] [seed]
+ */
+public class LoadHarness {
+    private static final String DEFAULT_THREADS = "walk=2,read=4,diff=1,grep=1";
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_DEPTH = 100;
+
+    private final Target target;
+    private final Map<Workload, Integer> threads;
+    private final long seed;
+
+    private final Map<Workload, Stats> stats = new EnumMap<>(Workload.class);
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean stopped;
+    private long startNanos;
+    private long stopNanos;
+
+    /**
+     * The kinds of load, latencies are recorded per unit of work.
+     */
+    public enum Workload {
+        WALK("directory"),
+        READ("block"),
+        DIFF("entry"),
+        GREP("file");
+
+        private final String unit;
+
+        Workload(String unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * @return What one operation of this workload is
+         */
+        public String getUnit() {
+            return unit;
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || !Set.of("mount", "direct").contains(args[0])) {
+            System.err.println("Usage: LoadHarness mount|direct <mountpoint|git-dir> [seconds] [" + DEFAULT_THREADS + "] [seed]");
+            System.exit(1);
+        }
+
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 60;
+        Map<Workload, Integer> threads = parseThreads(args.length > 3 ? args[3] : DEFAULT_THREADS);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.currentTimeMillis();
+
+        System.out.println("Running " + threads + " against " + args[1] + " for " + seconds + " seconds with seed " + seed);
+
+        try (Target target = "mount".equals(args[0]) ? new MountTarget(new File(args[1]).toPath()) :
+                new FilesystemTarget(new JGitFilesystem(args[1], false))) {
+            LoadHarness harness = new LoadHarness(target, threads, seed);
+            harness.start();
+            try {
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                Map<Workload, LatencyHistogram.Snapshot> previous = new EnumMap<>(Workload.class);
+                Map<Workload, Long> previousBytes = new EnumMap<>(Workload.class);
+                for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+                    long interval = Math.min(TimeUnit.SECONDS.toNanos(10), end - now);
+                    TimeUnit.NANOSECONDS.sleep(interval);
+
+                    for (Workload workload : threads.keySet()) {
+                        LatencyHistogram.Snapshot latencies = harness.getLatencies(workload);
+                        long bytes = harness.getBytes(workload);
+                        System.out.println(format(workload,
+                                previous.containsKey(workload) ? latencies.minus(previous.get(workload)) : latencies,
+                                bytes - previousBytes.getOrDefault(workload, 0L), harness.getErrors(workload), interval / 1e9));
+                        previous.put(workload, latencies);
+                        previousBytes.put(workload, bytes);
+                    }
+                    System.out.println();
+                }
+            } finally {
+                harness.stop();
+            }
+
+            System.out.printf("Finished after %.1fs%n", harness.getSeconds());
+            if (harness.getFailure() != null) {
+                System.out.println("Some threads stopped early because of " + harness.getFailure());
+            }
+            for (Workload workload : threads.keySet()) {
+                System.out.println(format(workload, harness.getLatencies(workload), harness.getBytes(workload),
+                        harness.getErrors(workload), harness.getSeconds()));
+            }
+        }
+    }
+
+    /**
+     * @param threads A list like "walk=2,read=4", workloads which are not listed do not run
+     * @return The number of threads per workload
+     */
+    static Map<Workload, Integer> parseThreads(String threads) {
+        Map<Workload, Integer> result = new EnumMap<>(Workload.class);
+        for (String entry : threads.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected <workload>=<threads>, but had: " + entry);
+            }
+
+            int count = Integer.parseInt(parts[1].trim());
+            if (count > 0) {
+                result.put(Workload.valueOf(parts[0].trim().toUpperCase()), count);
+            }
+        }
+        return result;
+    }
+
+    private static String format(Workload workload, LatencyHistogram.Snapshot latencies, long bytes, long errors, double seconds) {
+        return "%-5s %s, %7.1f MB/s, %d errors (per %s)".formatted(workload, OperationStats.format(latencies, seconds),
+                seconds <= 0 ? 0 : bytes / seconds / 1024 / 1024, errors, workload.getUnit());
+    }
+
+    /**
+     * @param target The filesystem to put load on
+     * @param threads The number of threads per workload
+     * @param seed The seed for choosing branches, files and offsets
+     */
+    public LoadHarness(Target target, Map<Workload, Integer> threads, long seed) {
+        this.target = target;
+        this.threads = new EnumMap<>(threads);
+        this.seed = seed;
+
+        for (Workload workload : Workload.values()) {
+            stats.put(workload, new Stats());
+        }
+    }
+
+    /**
+     * Start the threads of all workloads.
+     *
+     * @throws IOException If the branches cannot be listed
+     */
+    public void start() throws IOException {
+        // all workloads start at the commit of a branch
+        List<String> branches = new ArrayList<>();
+        for (String branch : target.list("/branch")) {
+            branches.add(resolve("/branch", target.readlink("/branch/" + branch)));
+        }
+        if (branches.isEmpty()) {
+            throw new IllegalStateException("No branches found in " + target);
+        }
+
+        startNanos = System.nanoTime();
+        int index = 0;
+        for (Map.Entry<Workload, Integer> entry : threads.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                Worker worker = new Worker(entry.getKey(), branches, new Random(seed + index++));
+                Thread thread = new Thread(worker, "load-" + entry.getKey() + "-" + i);
+                thread.setDaemon(true);
+                // errors like OutOfMemoryError stop the thread
+                thread.setUncaughtExceptionHandler((t, e) -> {
+                    System.out.println("Thread " + t.getName() + " stopped: " + e);
+                    failure.compareAndSet(null, e);
+                });
+                thread.start();
+                workers.add(thread);
+            }
+        }
+    }
+
+    /**
+     * Stop all workloads and wait for the current operations to finish.
+     *
+     * @throws InterruptedException If waiting is interrupted
+     */
+    public void stop() throws InterruptedException {
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        stopNanos = System.nanoTime();
+    }
+
+    /**
+     * @param workload The workload
+     * @return The latencies of the operations of this workload, see {@link Workload#getUnit()}
+     */
+    public LatencyHistogram.Snapshot getLatencies(Workload workload) {
+        return stats.get(workload).latencies.snapshot();
+    }
+
+    /**
+     * @param workload The workload
+     * @return The number of bytes which were read by this workload
+     */
+    public long getBytes(Workload workload) {
+        return stats.get(workload).bytes.get();
+    }
+
+    /**
+     * @param workload The workload
+     * @return The number of operations which failed
+     */
+    public long getErrors(Workload workload) {
+        return stats.get(workload).errors.get();
+    }
+
+    /**
+     * @return The first error which stopped a thread of a workload, null if all threads are running
+     */
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * @return The time since the workloads were started, until they were stopped
+     */
+    public double getSeconds() {
+        return ((stopNanos == 0 ? System.nanoTime() : stopNanos) - startNanos) / 1e9;
+    }
+
+    static String resolve(String dir, String link) {
+        return Path.of(dir).resolve(link).normalize().toString();
+    }
+
+    private static String child(String dir, String name) {
+        return dir.endsWith("/") ? dir + name : dir + "/" + name;
+    }
+
+    private static final class Stats {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        private void record(long startNanos, long bytesRead) {
+            latencies.record(System.nanoTime() - startNanos);
+            bytes.addAndGet(bytesRead);
+        }
+    }
+
+    /**
+     * Runs one workload until the harness is stopped, failures are counted and the workload continues.
+     */
+    private final class Worker implements Runnable {
+        private final Workload workload;
+        private final List<String> branches;
+        private final Random random;
+        private final Stats stats;
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] other = new byte[BLOCK_SIZE];
+        private long lines;
+
+        private Worker(Workload workload, List<String> branches, Random random) {
+            this.workload = workload;
+            this.branches = branches;
+            this.random = random;
+            this.stats = LoadHarness.this.stats.get(workload);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    switch (workload) {
+                        case WALK -> walk();
+                        case READ -> read();
+                        case DIFF -> diff();
+                        case GREP -> grep();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // print only the first failures to not flood the output
+                    if (stats.errors.incrementAndGet() <= 10) {
+                        System.out.println("Failure in workload " + workload + ": " + e);
+                    }
+                }
+            }
+        }
+
+        private String randomBranch() {
+            return branches.get(random.nextInt(branches.size()));
+        }
+
+        private void walk() throws IOException {
+            Deque<String> dirs = new ArrayDeque<>();
+            dirs.push(randomBranch());
+            while (!dirs.isEmpty() && !stopped) {
+                String dir = dirs.pop();
+                long start = System.nanoTime();
+                for (String name : target.list(dir)) {
+                    String path = child(dir, name);
+                    if (target.stat(path).type() == NodeType.DIRECTORY) {
+                        dirs.push(path);
+                    }
+                }
+                stats.record(start, 0);
+            }
+        }
+
+        private void read() throws IOException {
+            // descend to a random file, only the read itself is measured
+            String path = randomBranch();
+            Attributes attributes = target.stat(path);
+            for (int depth = 0; attributes.type() == NodeType.DIRECTORY && depth < MAX_DEPTH; depth++) {
+                List<String> entries = target.list(path);
+                if (entries.isEmpty()) {
+                    return;
+                }
+                path = child(path, entries.get(random.nextInt(entries.size())));
+                attributes = target.stat(path);
+            }
+            if (attributes.type() != NodeType.FILE) {
+                return;
+            }
+
+            long offset = attributes.size() <= BLOCK_SIZE ? 0 : random.nextLong(attributes.size() - BLOCK_SIZE);
+            try (Content content = target.open(path)) {
+                long start = System.nanoTime();
+                int read = content.read(buffer, offset);
+                stats.record(start, read);
+            }
+        }
+
+        private void diff() throws IOException {
+            Deque<String[]> pairs = new ArrayDeque<>();
+            pairs.push(new String[] { randomBranch(), randomBranch() });
+            while (!pairs.isEmpty() && !stopped) {
+                String[] pair = pairs.pop();
+                Set<String> names = new TreeSet<>(target.list(pair[0]));
+                names.retainAll(target.list(pair[1]));
+
+                for (String name : names) {
+                    long start = System.nanoTime();
+                    String left = child(pair[0], name);
+                    String right = child(pair[1], name);
+                    NodeType type = target.stat(left).type();
+                    long bytes = 0;
+                    if (type == target.stat(right).type()) {
+                        if (type == NodeType.DIRECTORY) {
+                            pairs.push(new String[] { left, right });
+                        } else if (type == NodeType.FILE) {
+                            bytes = compare(left, right);
+                        }
+                    }
+                    stats.record(start, bytes);
+                }
+            }
+        }
+
+        private long compare(String left, String right) throws IOException {
+            long bytes = 0;
+            try (Content leftContent = target.open(left);
+                 Content rightContent = target.open(right)) {
+                for (long offset = 0; ; offset += BLOCK_SIZE) {
+                    int leftRead = leftContent.read(buffer, offset);
+                    int rightRead = rightContent.read(other, offset);
+                    bytes += leftRead + rightRead;
+
+                    // stop at the first difference, like "diff -q"
+                    if (leftRead != rightRead || !Arrays.equals(buffer, 0, leftRead, other, 0, rightRead) || leftRead < BLOCK_SIZE) {
+                        return bytes;
+                    }
+                }
+            }
+        }
+
+        private void grep() throws IOException {
+            Deque<String> dirs = new ArrayDeque<>();
+            dirs.push(randomBranch());
+            while (!dirs.isEmpty() && !stopped) {
+                String dir = dirs.pop();
+                for (String name : target.list(dir)) {
+                    String path = child(dir, name);
+                    NodeType type = target.stat(path).type();
+                    if (type == NodeType.DIRECTORY) {
+                        dirs.push(path);
+                    } else if (type == NodeType.FILE) {
+                        long start = System.nanoTime();
+                        stats.record(start, countLines(path));
+                    }
+                }
+            }
+        }
+
+        private long countLines(String path) throws IOException {
+            long bytes = 0;
+            try (Content content = target.open(path)) {
+                int read;
+                do {
+                    read = content.read(buffer, bytes);
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                    bytes += read;
+                } while (read == BLOCK_SIZE);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * The type and size of a path, symbolic links are not followed.
+     */
+    public record Attributes(NodeType type, long size) {
+    }
+
+    /**
+     * An opened file.
+     */
+    public interface Content extends Closeable {
+        /**
+         * @param buffer Receives the data
+         * @param offset The position in the file
+         * @return The number of bytes which were read, less than the size of the buffer only at the end of the file
+         * @throws IOException If reading fails
+         */
+        int read(byte[] buffer, long offset) throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    /**
+     * The filesystem which the workloads access, all paths are absolute within the filesystem.
+     */
+    public interface Target extends Closeable {
+        Attributes stat(String path) throws IOException;
+
+        List<String> list(String path) throws IOException;
+
+        Content open(String path) throws IOException;
+
+        String readlink(String path) throws IOException;
+    }
+
+    /**
+     * Accesses a JGitFS which is mounted at the given directory, all requests go through the kernel and FUSE.
+     */
+    public static final class MountTarget implements Target {
+        private final Path root;
+
+        public MountTarget(Path root) {
+            this.root = root;
+        }
+
+        private Path resolve(String path) {
+            return root.resolve(path.substring(1));
+        }
+
+        @Override
+        public Attributes stat(String path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(resolve(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new Attributes(attributes.isDirectory() ? NodeType.DIRECTORY :
+                    attributes.isSymbolicLink() ? NodeType.SYMBOLIC_LINK : NodeType.FILE, attributes.size());
+        }
+
+        @Override
+        public List<String> list(String path) throws IOException {
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(resolve(path))) {
+                stream.forEach(entry -> names.add(entry.getFileName().toString()));
+            }
+            return names;
+        }
+
+        @Override
+        public Content open(String path) throws IOException {
+            FileChannel channel = FileChannel.open(resolve(path));
+            return new Content() {
+                @Override
+                public int read(byte[] buffer, long offset) throws IOException {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer);
+                    while (bytes.hasRemaining()) {
+                        if (channel.read(bytes, offset + bytes.position()) == -1) {
+                            break;
+                        }
+                    }
+                    return bytes.position();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+
+        @Override
+        public String readlink(String path) throws IOException {
+            return Files.readSymbolicLink(resolve(path)).toString();
+        }
+
+        @Override
+        public void close() {
+            // the filesystem stays mounted
+        }
+
+        @Override
+        public String toString() {
+            return root.toString();
+        }
+    }
+
+    /**
+     * Invokes the callbacks of a {@link JGitFilesystem} directly, so only the time spent in JGitFS is measured.
+     */
+    public static final class FilesystemTarget implements Target {
+        private final JGitFilesystem fs;
+
+        public FilesystemTarget(JGitFilesystem fs) {
+            this.fs = fs;
+        }
+
+        @Override
+        public Attributes stat(String path) throws IOException {
+            SizedStat stat = new SizedStat();
+            check(fs.getattr(path, stat.getWrapper()), "getattr", path);
+            return new Attributes(stat.getWrapper().type(), stat.getSize());
+        }
+
+        @Override
+        public List<String> list(String path) throws IOException {
+            List<String> names = new ArrayList<>();
+            check(fs.readdir(path, new JGitFilesystemTest.DirectoryFillerImplementation(names)), "readdir", path);
+            return names;
+        }
+
+        @Override
+        public Content open(String path) {
+            return (buffer, offset) -> check(fs.read(path, ByteBuffer.wrap(buffer), buffer.length, offset, null), "read", path);
+        }
+
+        @Override
+        public String readlink(String path) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            check(fs.readlink(path, buffer, buffer.capacity()), "readlink", path);
+            return new String(buffer.array(), 0, buffer.position());
+        }
+
+        private static int check(int result, String operation, String path) throws IOException {
+            if (result < 0) {
+                throw new IOException("Failed to " + operation + " " + path + ": " + result);
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            fs.close();
+        }
+
+        @Override
+        public String toString() {
+            return fs.toString();
+        }
+    }
+}
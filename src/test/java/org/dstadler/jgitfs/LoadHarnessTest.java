@@ -0,0 +1,118 @@
+package org.dstadler.jgitfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import net.fusejna.types.TypeMode.NodeType;
+import org.apache.commons.io.FileUtils;
+import org.dstadler.jgitfs.LoadHarness.Attributes;
+import org.dstadler.jgitfs.LoadHarness.FilesystemTarget;
+import org.dstadler.jgitfs.LoadHarness.MountTarget;
+import org.dstadler.jgitfs.LoadHarness.Target;
+import org.dstadler.jgitfs.LoadHarness.Workload;
+import org.dstadler.jgitfs.util.JGitHelper;
+import org.dstadler.jgitfs.util.RepositoryGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadHarnessTest {
+    private static final Map<Workload, Integer> ALL = Map.of(
+            Workload.WALK, 1, Workload.READ, 2, Workload.DIFF, 1, Workload.GREP, 1);
+
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("LoadHarnessTest");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testParseThreads() {
+        assertEquals(Map.of(Workload.WALK, 2, Workload.GREP, 1), LoadHarness.parseThreads("walk=2, read=0,grep=1"));
+        assertThrows(IllegalArgumentException.class, () -> LoadHarness.parseThreads("walk"));
+        assertThrows(IllegalArgumentException.class, () -> LoadHarness.parseThreads("find=1"));
+    }
+
+    @Test
+    public void testResolve() {
+        assertEquals("/commit/ab/cdef", LoadHarness.resolve("/branch", "../commit/ab/cdef"));
+        assertEquals("/commit/ab/cdef/dir/file", LoadHarness.resolve("/commit/ab/cdef/links", "../dir/file"));
+    }
+
+    @Test
+    public void testFilesystemTarget() throws IOException, InterruptedException {
+        RepositoryGenerator generator = new RepositoryGenerator()
+                .setCommits(10)
+                .setTree(2, 2, 5)
+                .setFileSizes(10, 200_000)
+                .setBranches(3)
+                .setSymlinks(3);
+        String head = generator.generate(dir.toFile());
+        String commitDir = "/commit/" + head.substring(0, 2) + "/" + head.substring(2);
+
+        try (Target target = new FilesystemTarget(new JGitFilesystem(dir.toString(), false));
+             JGitHelper helper = new JGitHelper(dir.toString())) {
+            String file = generator.getFiles().get(3);
+            long size;
+            try (InputStream stream = helper.openFile(head, file)) {
+                size = stream.readAllBytes().length;
+            }
+            assertEquals(new Attributes(NodeType.FILE, size), target.stat(commitDir + "/" + file));
+            assertEquals(NodeType.DIRECTORY, target.stat(commitDir + "/dir001").type());
+            assertEquals(NodeType.SYMBOLIC_LINK, target.stat(commitDir + "/links/link0000").type());
+            assertEquals(commitDir, LoadHarness.resolve("/branch", target.readlink("/branch/master")));
+            assertThrows(IOException.class, () -> target.stat(commitDir + "/notexisting"));
+
+            run(target);
+        }
+    }
+
+    @Test
+    public void testMountTarget() throws IOException, InterruptedException {
+        // the same layout as a mounted JGitFS
+        Path commit = Files.createDirectories(dir.resolve("commit/ab/cdef"));
+        Files.writeString(commit.resolve("file1"), "line\n".repeat(50_000));
+        Files.writeString(Files.createDirectories(commit.resolve("dir")).resolve("file2"), "some text\n");
+        Path other = Files.createDirectories(dir.resolve("commit/12/3456"));
+        Files.writeString(other.resolve("file1"), "other\n");
+        Files.createDirectories(dir.resolve("branch"));
+        Files.createSymbolicLink(dir.resolve("branch/master"), Path.of("../commit/ab/cdef"));
+        Files.createSymbolicLink(dir.resolve("branch/other"), Path.of("../commit/12/3456"));
+
+        try (Target target = new MountTarget(dir)) {
+            assertEquals(new Attributes(NodeType.FILE, 250_000), target.stat("/commit/ab/cdef/file1"));
+            assertEquals(NodeType.SYMBOLIC_LINK, target.stat("/branch/master").type());
+
+            run(target);
+        }
+    }
+
+    private static void run(Target target) throws IOException, InterruptedException {
+        LoadHarness harness = new LoadHarness(target, ALL, 42);
+        harness.start();
+        Thread.sleep(500);
+        harness.stop();
+
+        double seconds = harness.getSeconds();
+        assertTrue(seconds >= 0.5, "Had: " + seconds);
+        for (Workload workload : Workload.values()) {
+            assertTrue(harness.getLatencies(workload).getCount() > 0, "Had no operations for " + workload);
+            assertEquals(0, harness.getErrors(workload), "Had errors for " + workload);
+            if (workload != Workload.WALK) {
+                assertTrue(harness.getBytes(workload) > 0, "Had no bytes for " + workload);
+            }
+        }
+        assertEquals(seconds, harness.getSeconds(), "Time should not continue after stopping");
+    }
+}
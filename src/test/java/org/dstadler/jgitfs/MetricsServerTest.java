@@ -0,0 +1,72 @@
+package org.dstadler.jgitfs;
+
+import net.fusejna.StructStat.StatWrapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import static org.dstadler.jgitfs.JGitFilesystemTest.getStatsWrapper;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsServerTest {
+    private JGitFilesystem fs;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        fs = new JGitFilesystem(".", false);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        fs.close();
+    }
+
+    @Test
+    public void testRender() throws IOException {
+        StatWrapper stat = getStatsWrapper();
+        assertEquals(0, fs.getattr("/branch", stat));
+        fs.getattr("/notexisting", stat);
+
+        try (MetricsServer server = new MetricsServer(0, () -> Map.of("/opt/some \"repo\"", fs))) {
+            String metrics = server.render();
+
+            assertTrue(metrics.contains("# TYPE jgitfs_operation_duration_seconds histogram"), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_operation_duration_seconds_count{mount=\"/opt/some \\\"repo\\\"\",operation=\"getattr\",namespace=\"/branch\"} 1"), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_operation_duration_seconds_bucket{mount=\"/opt/some \\\"repo\\\"\",operation=\"getattr\",namespace=\"/branch\",le=\"+Inf\"} 1"), "Had: " + metrics);
+            assertFalse(metrics.contains("operation=\"read\""), "Operations without calls are not exported: " + metrics);
+            assertTrue(metrics.contains("jgitfs_enoent_total{mount=\"/opt/some \\\"repo\\\"\"} 1"), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_stat{mount=\"/opt/some \\\"repo\\\"\",name=\"getattr\"} 2"), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_cache_hit_ratio{mount=\"/opt/some \\\"repo\\\"\",cache=\"refLink\"}"), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_window_cache_open_files "), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_heap_max_bytes " + Runtime.getRuntime().maxMemory()), "Had: " + metrics);
+            assertTrue(metrics.contains("jgitfs_memory_waits_total "), "Had: " + metrics);
+            assertFalse(metrics.contains("name=\"memoryWaits\""), "Counters of the process are not exported per mount: " + metrics);
+        }
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        try (MetricsServer server = new MetricsServer(0, () -> Map.of(".", fs));
+             HttpClient client = HttpClient.newHttpClient()) {
+            URI uri = URI.create("http://127.0.0.1:" + server.getPort() + "/metrics");
+
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("text/plain; version=0.0.4"));
+            assertTrue(response.body().contains("jgitfs_read_bytes_total{mount=\".\"} 0"), "Had: " + response.body());
+
+            response = client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, response.statusCode());
+
+            response = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/other")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(404, response.statusCode());
+        }
+    }
+}
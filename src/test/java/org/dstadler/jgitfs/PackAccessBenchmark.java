@@ -0,0 +1,213 @@
+package org.dstadler.jgitfs;
+
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.dstadler.jgitfs.util.MemoryGovernor;
+import org.dstadler.jgitfs.util.StorageProfile;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test application which compares reading pack-files by copying windows into the heap
+ * with accessing them via memory-mapping, see the option --mmap.
+ * <p>
+ * A synthetic repository with one large pack-file is created and for each mode the
+ * WindowCache is re-installed, so the first pass over all files runs with a cold
+ * WindowCache, afterwards random files are read with a warm cache. The pack-file is
+ * read once before, so the page-cache of the operating system is warm in both modes.
+ * <p>
+ * The WindowCache is sized smaller than the pack-file, as for repositories where mmap
+ * is expected to help.
+ *
+ * Usage: PackAccessBenchmark [number-of-files] [file-size-in-KB] [seconds-warm] [repository-dir]
+ */
+public class PackAccessBenchmark {
+    private static final int FILES_PER_DIR = 100;
+
+    public static void main(String[] args) throws IOException {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 32) * 1024;
+        long duration = (args.length > 2 ? Long.parseLong(args[2]) : 10) * 1000;
+        File dir = args.length > 3 ? new File(args[3]) : Files.createTempDirectory("PackAccessBenchmark").toFile();
+
+        try {
+            if (!new File(dir, ".git").exists()) {
+                createRepository(dir, fileCount, fileSize);
+            }
+
+            String commitDir = getCommitDir(dir);
+            List<String> files = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                files.add(commitDir + "/" + dirName(i / FILES_PER_DIR) + "/" + fileName(i));
+            }
+
+            long packBytes = warmPageCache(new File(dir, ".git/objects/pack"));
+            System.out.printf("Using %,d files of %,d bytes, pack-data: %,d bytes%n", fileCount, fileSize, packBytes);
+
+            MemoryGovernor.get().ensureWindowCache();
+
+            // run both modes twice, the first round warms up the JIT
+            for (int round = 0; round < 2; round++) {
+                System.out.println(round == 0 ? "Warmup" : "Measurement");
+                for (boolean mmap : new boolean[] { false, true }) {
+                    StorageProfile profile = new StorageProfile();
+                    profile.setMmap(mmap);
+                    // cache only a quarter of the pack-data
+                    profile.setPackedGitLimit(Math.max(4 * 1024 * 1024, packBytes / 4));
+
+                    // re-installing the WindowCache drops all cached pack-data
+                    MemoryGovernor.get().setStorageProfile(profile, List.of(dir));
+
+                    run(mmap ? "mmap" : "heap", dir, files, fileSize, duration);
+                }
+            }
+        } finally {
+            if (args.length <= 3) {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+    }
+
+    private static void createRepository(File dir, int fileCount, int fileSize) throws IOException {
+        System.out.printf("Creating %,d files of %,d bytes in %s%n", fileCount, fileSize, dir);
+        long start = System.currentTimeMillis();
+
+        try (Repository repository = new FileRepositoryBuilder().setGitDir(new File(dir, ".git")).build()) {
+            repository.create();
+
+            ObjectId commitId;
+            try (PackInserter inserter = ((ObjectDirectory) repository.getObjectDatabase()).newPackInserter()) {
+                inserter.checkExisting(false);
+
+                // random content does not compress, so the pack-file is about as large as all files together
+                Random random = new Random(42);
+                byte[] content = new byte[fileSize];
+
+                TreeFormatter root = new TreeFormatter();
+                for (int d = 0; d * FILES_PER_DIR < fileCount; d++) {
+                    TreeFormatter tree = new TreeFormatter();
+                    for (int i = d * FILES_PER_DIR; i < Math.min(fileCount, (d + 1) * FILES_PER_DIR); i++) {
+                        random.nextBytes(content);
+                        tree.append(fileName(i), FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, content));
+                    }
+                    root.append(dirName(d), FileMode.TREE, inserter.insert(tree));
+                }
+
+                CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(inserter.insert(root));
+                PersonIdent ident = new PersonIdent("Synthetic", "synthetic@example.com");
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                commit.setMessage("Synthetic files\n");
+                commitId = inserter.insert(commit);
+                inserter.flush();
+            }
+
+            RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+            update.setNewObjectId(commitId);
+            update.setForceUpdate(true);
+            update.update();
+        }
+
+        System.out.println("Created repository in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    // tree-entries need to be sorted by name, zero-padded numbers keep them in order
+    private static String dirName(int dir) {
+        return "dir%06d".formatted(dir);
+    }
+
+    private static String fileName(int file) {
+        return "file%09d".formatted(file);
+    }
+
+    private static String getCommitDir(File dir) throws IOException {
+        try (Repository repository = new FileRepositoryBuilder().setGitDir(new File(dir, ".git")).setMustExist(true).build()) {
+            String commit = repository.resolve(Constants.HEAD).getName();
+            return "/commit/" + commit.substring(0, 2) + "/" + commit.substring(2);
+        }
+    }
+
+    private static long warmPageCache(File packDir) throws IOException {
+        long bytes = 0;
+        byte[] buffer = new byte[1024 * 1024];
+        File[] packs = packDir.listFiles((d, name) -> name.endsWith(".pack"));
+        if (packs != null) {
+            for (File pack : packs) {
+                try (InputStream stream = Files.newInputStream(pack.toPath())) {
+                    while (stream.read(buffer) != -1) {
+                        // only read to have the file in the page-cache
+                    }
+                }
+                bytes += pack.length();
+            }
+        }
+        return bytes;
+    }
+
+    private static void run(String mode, File dir, List<String> files, int fileSize, long duration) throws IOException {
+        // a new filesystem for each mode to not re-use any cached data
+        try (JGitFilesystem fs = new JGitFilesystem(dir.getAbsolutePath(), false)) {
+            StatWrapper stat = StatWrapperFactory.create();
+            ByteBuffer buffer = ByteBuffer.allocate(fileSize);
+
+            // cold: every file once, in the order of the pack-file
+            long start = System.nanoTime();
+            for (String file : files) {
+                access(fs, file, stat, buffer);
+            }
+            long cold = System.nanoTime() - start;
+
+            // warm: random files, the WindowCache holds only part of the pack-data
+            long count = 0;
+            start = System.nanoTime();
+            long end = start + duration * 1_000_000;
+            while (System.nanoTime() < end) {
+                access(fs, files.get(RandomUtils.insecure().randomInt(0, files.size())), stat, buffer);
+                count++;
+            }
+            long warm = System.nanoTime() - start;
+
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            long heap = runtime.totalMemory() - runtime.freeMemory();
+
+            System.out.printf("%-5s cold: %,8.0f files/sec, %,7.1f MB/sec   warm: %,8.0f files/sec, %,7.1f MB/sec   heap used: %,5d MB%n",
+                    mode,
+                    files.size() * 1e9 / cold, (double) files.size() * fileSize * 1e9 / cold / 1024 / 1024,
+                    count * 1e9 / warm, (double) count * fileSize * 1e9 / warm / 1024 / 1024,
+                    heap / 1024 / 1024);
+        }
+    }
+
+    private static void access(JGitFilesystem fs, String file, StatWrapper stat, ByteBuffer buffer) {
+        if (fs.getattr(file, stat) != 0) {
+            throw new IllegalStateException("Failed to read attributes of " + file);
+        }
+
+        buffer.clear();
+        if (fs.read(file, buffer, buffer.capacity(), 0, null) != buffer.capacity()) {
+            throw new IllegalStateException("Failed to read " + file);
+        }
+    }
+}
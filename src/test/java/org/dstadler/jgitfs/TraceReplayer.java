@@ -0,0 +1,219 @@
+package org.dstadler.jgitfs;
+
+import net.fusejna.DirectoryFiller;
+import net.fusejna.StatWrapperFactory;
+import org.dstadler.jgitfs.util.LatencyHistogram;
+import org.dstadler.jgitfs.util.OperationStats;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.dstadler.jgitfs.util.TraceReader;
+import org.dstadler.jgitfs.util.TraceRecorder.Call;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Test application which replays a trace recorded with "--trace" against a {@link JGitFilesystem}
+ * without mounting it via FUSE, e.g. to compare the latencies of a workload captured from an IDE
+ * or a CI build before and after a change.
+ * <p>
+ * Calls are either started at the same relative time as they were recorded or as fast as possible.
+ * The latencies are printed per operation, next to the latencies which were recorded.
+ *
+ * Usage: TraceReplayer &lt;git-dir&gt; &lt;trace-file&gt; [threads] [original|max] [repository]
+ */
+public class TraceReplayer {
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: TraceReplayer <git-dir> <trace-file> [threads] [original|max] [repository]");
+            System.exit(1);
+        }
+
+        String gitDir = args[0];
+        File traceFile = new File(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        boolean maxSpeed = args.length > 3 && "max".equals(args[3]);
+
+        List<Call> calls;
+        try (TraceReader reader = new TraceReader(traceFile)) {
+            calls = reader.readAll();
+        }
+
+        // a trace contains the calls of all repositories which were mounted
+        Set<String> repositories = new TreeSet<>();
+        calls.forEach(call -> repositories.add(call.repository()));
+        if (args.length > 4) {
+            calls.removeIf(call -> !call.repository().equals(args[4]));
+        } else if (repositories.size() > 1) {
+            System.err.println("Trace contains calls for repositories " + repositories + ", select one of them");
+            System.exit(1);
+        }
+
+        System.out.println("Replaying " + calls.size() + " calls of " + traceFile + " against " + gitDir +
+                " with " + threads + " threads at " + (maxSpeed ? "maximum" : "original") + " speed");
+
+        try (JGitFilesystem fs = new JGitFilesystem(gitDir, false)) {
+            Result result = replay(fs, calls, threads, maxSpeed);
+
+            Result recorded = new Result();
+            for (Call call : calls) {
+                recorded.latencies[call.operation().ordinal()].record(call.durationNanos());
+            }
+            recorded.nanos = calls.isEmpty() ? 0 :
+                    calls.stream().mapToLong(call -> call.startNanos() + call.durationNanos()).max().orElse(0) -
+                    calls.stream().mapToLong(Call::startNanos).min().orElse(0);
+
+            for (Operation operation : OPERATIONS) {
+                System.out.println(String.format("%-8s", operation) + " recorded: " +
+                        OperationStats.format(recorded.getLatencies(operation), recorded.getSeconds()));
+                System.out.println(String.format("%-8s", "") + " replayed: " +
+                        OperationStats.format(result.getLatencies(operation), result.getSeconds()));
+            }
+            System.out.printf("Replayed in %.1fs, %d calls failed, %d calls had a different result than recorded%n",
+                    result.getSeconds(), result.getFailures(), result.getMismatches());
+        }
+    }
+
+    /**
+     * Execute the given calls against the filesystem.
+     *
+     * @param fs The filesystem
+     * @param calls The recorded calls
+     * @param threads The number of threads which execute calls concurrently
+     * @param maxSpeed If true, calls are started as soon as a thread is available, otherwise at the
+     *                 same time relative to the first call as they were recorded
+     * @return The latencies of the replayed calls
+     * @throws InterruptedException If waiting for the calls is interrupted
+     */
+    static Result replay(JGitFilesystem fs, List<Call> calls, int threads, boolean maxSpeed) throws InterruptedException {
+        // calls are recorded when they finish, but are replayed in the order in which they started
+        List<Call> sorted = new ArrayList<>(calls);
+        sorted.sort(Comparator.comparingLong(Call::startNanos));
+
+        Result result = new Result();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        // do not queue up more calls than the threads can take, so replaying large traces does not need much memory
+        Semaphore slots = new Semaphore(threads * 2);
+
+        long start = System.nanoTime();
+        long first = sorted.isEmpty() ? 0 : sorted.getFirst().startNanos();
+        try {
+            for (Call call : sorted) {
+                if (!maxSpeed) {
+                    long due = start + call.startNanos() - first;
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+
+                slots.acquire();
+                executor.execute(() -> {
+                    try {
+                        execute(fs, call, result);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+                throw new IllegalStateException("Replay did not finish in time");
+            }
+        }
+
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void execute(JGitFilesystem fs, Call call, Result result) {
+        long start = System.nanoTime();
+        int ret;
+        try {
+            ret = switch (call.operation()) {
+                case GETATTR -> fs.getattr(call.path(), StatWrapperFactory.create());
+                case READ -> fs.read(call.path(), ByteBuffer.allocate((int) call.size()), call.size(), call.offset(), null);
+                case READDIR -> fs.readdir(call.path(), new CountingFiller());
+                case READLINK -> fs.readlink(call.path(), ByteBuffer.allocate((int) call.size()), call.size());
+            };
+        } catch (@SuppressWarnings("unused") RuntimeException e) {
+            // FUSE reports exceptions as error
+            result.failures.incrementAndGet();
+            ret = OperationStats.FAILED;
+        }
+        result.latencies[call.operation().ordinal()].record(System.nanoTime() - start);
+
+        // a different outcome shows that the repository is not in the state in which the trace was recorded
+        if ((ret < 0) != (call.result() < 0)) {
+            result.mismatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * The latencies of replayed or recorded calls.
+     */
+    static final class Result {
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong mismatches = new AtomicLong();
+        private long nanos;
+
+        private Result() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        LatencyHistogram.Snapshot getLatencies(Operation operation) {
+            return latencies[operation.ordinal()].snapshot();
+        }
+
+        /**
+         * @return The number of calls which threw an exception
+         */
+        long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return The number of calls which failed while the recorded call succeeded or vice versa
+         */
+        long getMismatches() {
+            return mismatches.get();
+        }
+
+        double getSeconds() {
+            return nanos / 1e9;
+        }
+    }
+
+    private static final class CountingFiller implements DirectoryFiller {
+        private int count;
+
+        @Override
+        public boolean add(String... files) {
+            count += files.length;
+            return true;
+        }
+
+        @Override
+        public boolean add(Iterable<String> files) {
+            files.forEach(file -> count++);
+            return true;
+        }
+    }
+}
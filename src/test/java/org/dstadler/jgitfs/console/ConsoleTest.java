@@ -107,6 +107,21 @@ public class ConsoleTest {
         assertTrue(outStr.contains("exit"), "Had: " + outStr);
     }
 
+    @Test
+    public void testStats() throws Exception {
+        Console console = new Console();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        console.run(new ByteArrayInputStream("stats 1\nstats abc\nexit\n".getBytes()), out);
+        out.close();
+
+        String outStr = out.toString();
+        assertTrue(outStr.contains("jgitfs>"), "Had: " + outStr);
+        assertTrue(outStr.contains("stats 1"), "Had: " + outStr);
+        assertTrue(outStr.contains("Invalid number of seconds: abc"), "Had: " + outStr);
+        assertTrue(outStr.contains("exit"), "Had: " + outStr);
+    }
+
     @Test
     public void testCls() throws Exception {
         Console console = new Console();
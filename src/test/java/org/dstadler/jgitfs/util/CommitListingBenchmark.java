@@ -0,0 +1,188 @@
+package org.dstadler.jgitfs.util;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test application which compares listing the commits of a synthetic history with a
+ * String per commit, as done previously, with comparing the raw ids and streaming
+ * the names into the directory, as done by {@link JGitHelper}.
+ * <p>
+ * It reports the bytes allocated while listing.
+ *
+ * Usage: CommitListingBenchmark [number-of-commits] [repository-dir]
+ */
+public class CommitListingBenchmark {
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long consumed;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        File dir = args.length > 1 ? new File(args[1]) : Files.createTempDirectory("CommitListingBenchmark").toFile();
+
+        try {
+            if (!new File(dir, ".git").exists()) {
+                createHistory(dir, count);
+            }
+
+            try (JGitHelper helper = new JGitHelper(dir.getAbsolutePath());
+                 Repository repository = new FileRepositoryBuilder().setGitDir(new File(dir, ".git")).setMustExist(true).build()) {
+                // run both variants twice, the first round warms up the JIT
+                for (int round = 0; round < 2; round++) {
+                    System.out.println(round == 0 ? "Warmup" : "Measurement");
+
+                    measureAllocation("commit-subs, Strings", () -> consume(listSubsWithStrings(repository)));
+                    measureAllocation("commit-subs, raw ids", () -> consume(helper.allCommitSubs()));
+
+                    measureAllocation("readdir of sub, Strings", () ->
+                            listWithStrings(repository, "a5").forEach(name -> consume(name.substring(2))));
+                    measureAllocation("readdir of sub, raw ids", () ->
+                            helper.allCommits("a5", 2, CommitListingBenchmark::consume));
+                }
+            }
+        } finally {
+            if (args.length <= 1) {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+
+        System.out.println("Consumed " + consumed);
+    }
+
+    private static void createHistory(File dir, int count) throws IOException {
+        System.out.println("Creating " + count + " commits in " + dir);
+        long start = System.currentTimeMillis();
+
+        try (Repository repository = new FileRepositoryBuilder().setGitDir(new File(dir, ".git")).build()) {
+            repository.create();
+
+            // write all commits into a single pack-file, loose objects would be very slow for this many commits
+            ObjectId head;
+            try (PackInserter inserter = ((ObjectDirectory) repository.getObjectDatabase()).newPackInserter()) {
+                inserter.checkExisting(false);
+
+                ObjectId tree = inserter.insert(new TreeFormatter());
+                head = null;
+                for (int i = 0; i < count; i++) {
+                    PersonIdent ident = new PersonIdent("Synthetic", "synthetic@example.com",
+                            Instant.ofEpochSecond(1_000_000_000L + i), ZoneOffset.UTC);
+
+                    CommitBuilder commit = new CommitBuilder();
+                    commit.setTreeId(tree);
+                    if (head != null) {
+                        commit.setParentId(head);
+                    }
+                    commit.setAuthor(ident);
+                    commit.setCommitter(ident);
+                    commit.setMessage("Commit " + i + "\n");
+                    head = inserter.insert(commit);
+                }
+                inserter.flush();
+            }
+
+            RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+            update.setNewObjectId(head);
+            update.setForceUpdate(true);
+            update.update();
+        }
+
+        System.out.println("Created history in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * The previous implementation of JGitHelper.allCommitSubs() which created the name of every commit.
+     */
+    private static Set<String> listSubsWithStrings(Repository repository) throws IOException {
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.setRetainBody(false);
+            markAllRefs(repository, walk);
+
+            Set<String> commitSubs = new HashSet<>();
+            for (RevCommit rev : walk) {
+                commitSubs.add(rev.getName().substring(0, 2));
+                if (commitSubs.size() >= 256) {
+                    break;
+                }
+            }
+            walk.dispose();
+            return commitSubs;
+        }
+    }
+
+    /**
+     * The previous implementation of JGitHelper.allCommits() which created the name of every commit.
+     */
+    private static List<String> listWithStrings(Repository repository, String sub) throws IOException {
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.setRetainBody(false);
+            markAllRefs(repository, walk);
+
+            ObjectIdSubclassMap<RevCommit> map = new ObjectIdSubclassMap<>();
+            for (RevCommit rev : walk) {
+                String name = rev.getName();
+                if (sub == null || name.startsWith(sub)) {
+                    map.addIfAbsent(rev);
+                }
+            }
+            walk.dispose();
+
+            List<String> commits = new ArrayList<>(map.size());
+            for (RevCommit commit : map) {
+                commits.add(commit.getName());
+            }
+            return commits;
+        }
+    }
+
+    private static void markAllRefs(Repository repository, RevWalk walk) throws IOException {
+        for (Ref ref : repository.getRefDatabase().getRefs()) {
+            walk.markStart(walk.parseCommit(ref.getObjectId()));
+        }
+    }
+
+    private static void consume(Object value) {
+        consumed += value.hashCode() & 1;
+    }
+
+    private static void measureAllocation(String name, Operation operation) throws IOException {
+        long threadId = Thread.currentThread().threadId();
+        long bytesBefore = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        operation.run();
+
+        long duration = System.nanoTime() - start;
+        long bytes = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - bytesBefore;
+        System.out.printf("%-28s %,8d ms, %,14d bytes allocated%n", name, duration / 1_000_000, bytes);
+    }
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+}
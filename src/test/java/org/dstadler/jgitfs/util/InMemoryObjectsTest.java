@@ -0,0 +1,210 @@
+package org.dstadler.jgitfs.util;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryObjectsTest {
+    private File dir;
+    private Git git;
+
+    @BeforeEach
+    public void setUp() throws IOException, GitAPIException {
+        dir = Files.createTempDirectory("InMemoryObjectsTest").toFile();
+        git = Git.init().setDirectory(dir).call();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        git.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        RevCommit commit = commit("file1", "content1");
+        git.tag().setName("annotated").setMessage("some tag").call();
+        ObjectId blob = blobOf(commit, "file1");
+
+        InMemoryObjects objects = new InMemoryObjects(git.getRepository(), 1024 * 1024);
+        assertFalse(objects.isLoaded());
+        assertTrue(objects.load());
+        assertTrue(objects.isLoaded());
+        assertEquals(1, objects.getLoadCount());
+
+        // commit, tree, blob and tag
+        assertTrue(objects.getSize() >= 4 * InMemoryObjects.ENTRY_OVERHEAD, "Had: " + objects.getSize());
+
+        // all objects are read from memory, so they are still available without the object-directory
+        FileUtils.deleteDirectory(new File(dir, ".git/objects"));
+        try (ObjectReader reader = objects.newReader()) {
+            assertEquals("content1", new String(reader.open(blob, Constants.OBJ_BLOB).getCachedBytes(), StandardCharsets.UTF_8));
+            assertEquals(8, reader.getObjectSize(blob, Constants.OBJ_BLOB));
+            assertTrue(reader.has(commit));
+            assertEquals(Constants.OBJ_TAG, reader.open(git.getRepository().resolve("refs/tags/annotated")).getType());
+
+            assertThrows(IncorrectObjectTypeException.class, () -> reader.open(blob, Constants.OBJ_COMMIT));
+            assertThrows(MissingObjectException.class, () -> reader.open(ObjectId.zeroId()));
+        }
+
+        objects.close();
+        assertFalse(objects.isLoaded());
+        assertEquals(0, objects.getSize());
+    }
+
+    @Test
+    public void testLimitExceeded() throws Exception {
+        RevCommit commit = commit("file1", "content1");
+
+        InMemoryObjects objects = new InMemoryObjects(git.getRepository(), InMemoryObjects.ENTRY_OVERHEAD);
+        assertFalse(objects.load());
+        assertFalse(objects.isLoaded());
+        assertEquals(0, objects.getSize());
+
+        // not loaded again after the limit was exceeded once
+        assertFalse(objects.load());
+        assertEquals(0, objects.getLoadCount());
+
+        // objects are read from the pack-files instead
+        try (ObjectReader reader = objects.newReader()) {
+            assertEquals("content1", new String(reader.open(blobOf(commit, "file1")).getCachedBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        commit("file1", "content1");
+
+        InMemoryObjects objects = new InMemoryObjects(git.getRepository(), 1024 * 1024);
+        assertTrue(objects.load());
+        long size = objects.getSize();
+
+        // new objects are read from disk until the objects are loaded again
+        RevCommit commit = commit("file2", "content2");
+        ObjectId blob = blobOf(commit, "file2");
+        try (ObjectReader reader = objects.newReader()) {
+            assertEquals("content2", new String(reader.open(blob).getCachedBytes(), StandardCharsets.UTF_8));
+
+            assertTrue(objects.load());
+            assertTrue(objects.getSize() > size, "Had: " + objects.getSize() + " and " + size);
+
+            // a reader which was created before sees the loaded objects as well
+            FileUtils.deleteDirectory(new File(dir, ".git/objects"));
+            assertEquals("content2", new String(reader.open(blob).getCachedBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testHibernateAndReloadAsync() throws Exception {
+        commit("file1", "content1");
+
+        InMemoryObjects objects = new InMemoryObjects(git.getRepository(), 1024 * 1024);
+        assertTrue(objects.load());
+
+        objects.hibernate();
+        assertFalse(objects.isLoaded());
+
+        // not loaded while hibernating, e.g. when refs change
+        assertFalse(objects.load());
+
+        // creating a reader loads the objects in the background
+        objects.newReader().close();
+        waitUntilLoaded(objects, 2);
+
+        objects.close();
+    }
+
+    @Test
+    public void testReloadedAfterEviction() throws Exception {
+        RevCommit commit = commit("file1", "content1");
+        ObjectId blob = blobOf(commit, "file1");
+
+        InMemoryObjects objects = new InMemoryObjects(git.getRepository(), 1024 * 1024, 50);
+        assertTrue(objects.load());
+
+        // e.g. kept by the WalkerPool of a FUSE thread, no new reader is created afterwards
+        try (ObjectReader reader = objects.newReader()) {
+            objects.evict();
+            assertFalse(objects.isLoaded());
+            assertEquals("content1", new String(reader.open(blob).getCachedBytes(), StandardCharsets.UTF_8));
+
+            waitUntilLoaded(objects, 2);
+
+            // evicted again soon after loading, so the next load waits longer
+            long start = System.nanoTime();
+            objects.evict();
+            waitUntilLoaded(objects, 3);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100),
+                    "Had: " + (System.nanoTime() - start) + "ns");
+
+            // the reader which was created before sees the loaded objects
+            FileUtils.deleteDirectory(new File(dir, ".git/objects"));
+            assertEquals("content1", new String(reader.open(blob).getCachedBytes(), StandardCharsets.UTF_8));
+        }
+
+        objects.close();
+    }
+
+    @Test
+    public void testEvictedByGovernor() throws Exception {
+        RevCommit commit = commit("file1", "content1");
+
+        InMemoryObjects objects = new InMemoryObjects(git.getRepository(), 1024 * 1024);
+        assertTrue(objects.load());
+        assertEquals(objects.getSize(), objects.estimateSize());
+
+        // a budget without room for the objects
+        MemoryGovernor governor = new MemoryGovernor(100);
+        governor.register(objects);
+        governor.enforce();
+        assertFalse(objects.isLoaded());
+        assertEquals(0, objects.estimateSize());
+        assertEquals(1, governor.getEvictionCount());
+
+        // objects are read from the pack-files instead
+        try (ObjectReader reader = objects.newReader()) {
+            assertEquals("content1", new String(reader.open(blobOf(commit, "file1")).getCachedBytes(), StandardCharsets.UTF_8));
+        }
+
+        governor.unregister(objects);
+        objects.close();
+    }
+
+    private static void waitUntilLoaded(InMemoryObjects objects, long loadCount) throws InterruptedException {
+        for (int i = 0; i < 100 && objects.getLoadCount() < loadCount; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(objects.isLoaded());
+        assertEquals(loadCount, objects.getLoadCount());
+    }
+
+    private RevCommit commit(String file, String content) throws IOException, GitAPIException {
+        FileUtils.writeStringToFile(new File(dir, file), content, StandardCharsets.UTF_8);
+        git.add().addFilepattern(file).call();
+        return git.commit().setMessage("Add " + file).setSign(false).call();
+    }
+
+    private ObjectId blobOf(RevCommit commit, String file) throws IOException {
+        try (TreeWalk walk = TreeWalk.forPath(git.getRepository(), file, commit.getTree())) {
+            return walk.getObjectId(0);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.dstadler.jgitfs.util;
 
 import net.fusejna.StructStat.StatWrapper;
 import net.fusejna.types.TypeMode.NodeType;
+import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.junit.jupiter.api.AfterEach;
@@ -91,6 +92,23 @@ public class JGitHelperSubmoduleTest {
         }
     }
 
+    @Test
+    public void testGetGitLink() throws IOException {
+        String commit = helper.getBranchHeadCommit("master");
+        assertNotNull(commit);
+
+        Pair<String, String> gitLink = helper.getGitLink(commit, "js");
+        assertNotNull(gitLink);
+        assertEquals("js", gitLink.getLeft());
+        assertEquals(SUBMODULE_COMMIT, gitLink.getRight());
+
+        // cached per tree, so the same result is returned
+        assertSame(gitLink, helper.getGitLink(commit, "js"));
+
+        assertNull(helper.getGitLink(commit, "css"));
+        assertNull(helper.getGitLink(commit, "notexisting"));
+    }
+
     @Test
     public void testGetSubmodulePath() throws IOException {
         assertEquals("js", helper.getSubmodulePath("js"));
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -249,6 +250,30 @@ public class JGitHelperTest {
         assertNotNull(helper.getRemoteHeadCommit("refs_remotes_origin_master"));
     }
 
+    @Test
+    public void testLoadIntoMemory() throws IOException {
+        List<String> branches = helper.getBranches();
+        String commit = helper.getBranchHeadCommit(branches.getFirst());
+        List<String> elements = helper.readElementsAt(commit, "");
+
+        // too small for the repository
+        assertFalse(helper.loadIntoMemory(1024));
+        assertEquals(0, helper.getInMemorySize());
+
+        assertTrue(helper.loadIntoMemory(512L * 1024 * 1024));
+        assertTrue(helper.getInMemorySize() > 0);
+        assertEquals(elements, helper.readElementsAt(commit, ""));
+
+        try (InputStream stream = helper.openFile(commit, "build.gradle")) {
+            assertTrue(IOUtils.toString(stream, CHARSET).contains("dependencies"));
+        }
+
+        // released by hibernation and loaded again in the background on the next access
+        helper.hibernate();
+        assertEquals(0, helper.getInMemorySize());
+        assertEquals(elements, helper.readElementsAt(commit, ""));
+    }
+
     @Test
     public void testGetBranches() throws IOException {
         List<String> branches = helper.getBranches();
@@ -332,6 +357,22 @@ public class JGitHelperTest {
         assertTrue(allCommits.contains(DEFAULT_COMMIT));
     }
 
+    @Test
+    public void testallCommitsConsumer() throws IOException {
+        String sub = helper.allCommits(null).iterator().next().substring(0, 2);
+
+        List<String> expected = new ArrayList<>();
+        helper.allCommits(sub).forEach(commit -> expected.add(commit.substring(2)));
+
+        List<String> streamed = new ArrayList<>();
+        helper.allCommits(sub, 2, streamed::add);
+        assertEquals(expected, streamed);
+
+        streamed.clear();
+        helper.allCommits("zz", 2, streamed::add);
+        assertTrue(streamed.isEmpty());
+    }
+
     @Test
     public void testAllCommitSubs() throws IOException {
         Collection<String> subs = helper.allCommitSubs();
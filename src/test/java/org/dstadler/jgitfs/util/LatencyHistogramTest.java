@@ -0,0 +1,99 @@
+package org.dstadler.jgitfs.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(0.5));
+        assertEquals(0, snapshot.getPercentile(0.99));
+    }
+
+    @Test
+    public void testBuckets() {
+        // buckets are contiguous and each value is counted in the bucket with the next larger upper bound
+        long previous = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long upper = LatencyHistogram.getUpperBound(bucket);
+            assertTrue(upper > previous, "Bucket " + bucket + " had " + upper + " after " + previous);
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            previous = upper;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void testPrecision() {
+        for (long value : new long[] { 1, 7, 8, 100, 12_345, 1_000_000, 987_654_321, Long.MAX_VALUE / 3 }) {
+            long upper = LatencyHistogram.getUpperBound(LatencyHistogram.bucketOf(value));
+            assertTrue(upper >= value);
+            assertTrue(upper - value <= value / 8, "Value " + value + " had upper bound " + upper);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMax());
+        assertEquals(500_500_000, snapshot.getSum());
+
+        assertEquals(500_000, snapshot.getPercentile(0.5), 500_000 / 8.0);
+        assertEquals(990_000, snapshot.getPercentile(0.99), 990_000 / 8.0);
+        assertEquals(1_000_000, snapshot.getPercentile(1));
+        assertEquals(0, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void testCountAtMost() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(1_000);
+        histogram.record(1_000_000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCountAtMost(4));
+        assertEquals(1, snapshot.getCountAtMost(5));
+        assertEquals(1, snapshot.getCountAtMost(999));
+        assertEquals(2, snapshot.getCountAtMost(1_100));
+        assertEquals(3, snapshot.getCountAtMost(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testMinusAndPlus() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        LatencyHistogram.Snapshot before = histogram.snapshot();
+
+        histogram.record(100);
+        histogram.record(200);
+        LatencyHistogram.Snapshot interval = histogram.snapshot().minus(before);
+        assertEquals(2, interval.getCount());
+        assertEquals(300, interval.getSum());
+        assertTrue(interval.getMax() >= 200 && interval.getMax() < 1_000_000, "Had: " + interval.getMax());
+
+        LatencyHistogram.Snapshot combined = interval.plus(before);
+        assertEquals(3, combined.getCount());
+        assertEquals(1_000_000, combined.getMax());
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("0.5us", LatencyHistogram.format(500));
+        assertEquals("850us", LatencyHistogram.format(850_000));
+        assertEquals("1.2ms", LatencyHistogram.format(1_200_000));
+        assertEquals("3.0s", LatencyHistogram.format(3_000_000_000L));
+    }
+}
@@ -0,0 +1,105 @@
+package org.dstadler.jgitfs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+    @Test
+    public void testAcquireRelease() throws InterruptedIOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertEquals(1000, budget.getLimit());
+
+        assertTrue(budget.acquire(600));
+        assertEquals(400, budget.getAvailable());
+        assertTrue(budget.acquire(400));
+        assertEquals(0, budget.getAvailable());
+
+        budget.release(600);
+        budget.release(400);
+        assertEquals(1000, budget.getAvailable());
+
+        assertEquals(0, budget.getWaitCount());
+        assertEquals(0, budget.getFallbackCount());
+    }
+
+    @Test
+    public void testLargerThanLimit() throws InterruptedIOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+
+        // never fits, so it is streamed right away without waiting
+        assertFalse(budget.acquire(1001));
+        assertEquals(0, budget.getWaitCount());
+        assertEquals(1, budget.getFallbackCount());
+        assertEquals(1000, budget.getAvailable());
+    }
+
+    @Test
+    public void testFallbackAfterWaiting() throws InterruptedIOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+
+        assertTrue(budget.acquire(800));
+        assertFalse(budget.acquire(800));
+
+        assertEquals(1, budget.getWaitCount());
+        assertEquals(1, budget.getFallbackCount());
+        assertTrue(budget.getWaitTimeMillis() >= 100, "Had: " + budget.getWaitTimeMillis());
+
+        budget.release(800);
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.acquire(800));
+
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            try {
+                acquired.set(budget.acquire(800));
+            } catch (InterruptedIOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+
+        // wait until the thread is queued
+        while (budget.getQueueDepth() == 0 && thread.isAlive()) {
+            Thread.sleep(1);
+        }
+        budget.release(800);
+        thread.join();
+
+        assertTrue(acquired.get());
+        assertEquals(0, budget.getQueueDepth());
+        assertEquals(1, budget.getWaitCount());
+        assertEquals(0, budget.getFallbackCount());
+        assertEquals(200, budget.getAvailable());
+    }
+
+    @Test
+    public void testSharedInstance() {
+        assertSame(MemoryBudget.get(), MemoryBudget.get());
+        assertTrue(MemoryBudget.get().getLimit() >= 4 * 1024 * 1024);
+    }
+
+    @Test
+    public void testSetLimit() throws InterruptedIOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.acquire(600));
+
+        budget.setLimit(2000);
+        assertEquals(2000, budget.getLimit());
+        assertEquals(1400, budget.getAvailable());
+
+        budget.setLimit(500);
+        assertEquals(500, budget.getLimit());
+        assertEquals(-100, budget.getAvailable());
+
+        budget.release(600);
+        assertEquals(500, budget.getAvailable());
+    }
+}
@@ -0,0 +1,150 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryGovernorTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testShares() {
+        MemoryGovernor governor = new MemoryGovernor(100 * MB);
+        assertEquals(100 * MB, governor.getBudget());
+        assertEquals(40 * MB, governor.getCacheLimit());
+        assertEquals(25 * MB, governor.getInflationBudget().getLimit());
+
+        governor.setBudget(200 * MB);
+        assertEquals(80 * MB, governor.getCacheLimit());
+        assertEquals(50 * MB, governor.getInflationBudget().getLimit());
+
+        // the inflation budget has a lower limit to still allow to read files
+        governor.setBudget(MB);
+        assertEquals(4 * MB, governor.getInflationBudget().getLimit());
+    }
+
+    @Test
+    public void testEnforceEvictsColdestFirst() {
+        MemoryGovernor governor = new MemoryGovernor(100 * MB);
+
+        TestParticipant hot = new TestParticipant(20 * MB, 3000);
+        TestParticipant warm = new TestParticipant(15 * MB, 2000);
+        TestParticipant cold = new TestParticipant(10 * MB, 1000);
+        governor.register(hot);
+        governor.register(warm);
+        governor.register(cold);
+
+        // 45MB are above the limit of 40MB, evicting the coldest cache is enough
+        governor.enforce();
+        assertTrue(cold.evicted);
+        assertFalse(warm.evicted);
+        assertFalse(hot.evicted);
+        assertEquals(1, governor.getEvictionCount());
+
+        // within limit now
+        governor.enforce();
+        assertEquals(1, governor.getEvictionCount());
+
+        // unregistered participants are not evicted any more
+        governor.unregister(warm);
+        governor.unregister(hot);
+        hot.size = 100 * MB;
+        governor.enforce();
+        assertFalse(hot.evicted);
+    }
+
+    @Test
+    public void testShed() {
+        MemoryGovernor governor = new MemoryGovernor(100 * MB);
+
+        TestParticipant hot = new TestParticipant(15 * MB, 3000);
+        TestParticipant warm = new TestParticipant(10 * MB, 2000);
+        TestParticipant cold = new TestParticipant(5 * MB, 1000);
+        governor.register(hot);
+        governor.register(warm);
+        governor.register(cold);
+
+        // 30MB are within the limit
+        governor.enforce();
+        assertEquals(0, governor.getEvictionCount());
+
+        // but shedding evicts down to half of the limit
+        governor.shed(0);
+        assertTrue(cold.evicted);
+        assertTrue(warm.evicted);
+        assertFalse(hot.evicted);
+        assertEquals(2, governor.getEvictionCount());
+        assertEquals(1, governor.getShedCount());
+
+        // notifications after every garbage collection within the interval are ignored
+        governor.shed(TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, governor.getShedCount());
+        governor.shed(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(2, governor.getShedCount());
+    }
+
+    @Test
+    public void testShedShrinksWindowCacheOnlyIfEvictingIsNotEnough() {
+        AtomicLong excess = new AtomicLong(5 * MB);
+        MemoryGovernor governor = new MemoryGovernor(100 * MB, fraction -> excess.get());
+        governor.ensureWindowCache();
+        long packedGitLimit = governor.getStorageProfile().getPackedGitLimit();
+
+        TestParticipant participant = new TestParticipant(30 * MB, 1000);
+        governor.register(participant);
+
+        // evicting 30MB frees more than the 5MB above the threshold
+        governor.shed(0);
+        assertTrue(participant.evicted);
+        assertEquals(0, governor.getWindowCacheShrinkCount());
+        assertEquals(packedGitLimit, governor.getStorageProfile().getPackedGitLimit());
+
+        // nothing left to evict
+        governor.shed(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1, governor.getWindowCacheShrinkCount());
+        assertEquals(packedGitLimit / 2, governor.getStorageProfile().getPackedGitLimit());
+
+        // restored only after the heap usage stayed low for some time
+        excess.set(0);
+        governor.restoreWindowCache(TimeUnit.SECONDS.toNanos(20));
+        assertEquals(packedGitLimit / 2, governor.getStorageProfile().getPackedGitLimit());
+        governor.restoreWindowCache(TimeUnit.SECONDS.toNanos(80));
+        assertEquals(packedGitLimit, governor.getStorageProfile().getPackedGitLimit());
+    }
+
+    @Test
+    public void testSharedInstance() {
+        assertSame(MemoryGovernor.get(), MemoryGovernor.get());
+        assertSame(MemoryBudget.get(), MemoryGovernor.get().getInflationBudget());
+    }
+
+    private static final class TestParticipant implements MemoryGovernor.Participant {
+        private long size;
+        private final long lastAccess;
+        private boolean evicted;
+
+        private TestParticipant(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+
+        @Override
+        public long estimateSize() {
+            return size;
+        }
+
+        @Override
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        @Override
+        public void evict() {
+            evicted = true;
+            size = 0;
+        }
+    }
+}
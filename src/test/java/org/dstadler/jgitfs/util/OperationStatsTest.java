@@ -0,0 +1,57 @@
+package org.dstadler.jgitfs.util;
+
+import net.fusejna.ErrorCodes;
+import org.dstadler.jgitfs.util.OperationStats.Namespace;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationStatsTest {
+    @Test
+    public void testNamespace() {
+        assertEquals(Namespace.ROOT, Namespace.of("/"));
+        assertEquals(Namespace.ROOT, Namespace.of(""));
+        assertEquals(Namespace.COMMIT, Namespace.of("/commit"));
+        assertEquals(Namespace.COMMIT, Namespace.of("/commit/ab/cdef/README.md"));
+        assertEquals(Namespace.BRANCH, Namespace.of("/branch/master"));
+        assertEquals(Namespace.REMOTE, Namespace.of("/remote/origin_master"));
+        assertEquals(Namespace.TAG, Namespace.of("/tag/v1"));
+        assertEquals(Namespace.SUBMODULE, Namespace.of("/submodule/sub/commit"));
+        assertEquals(Namespace.STASH, Namespace.of("/stash/stash@{0}"));
+        assertEquals(Namespace.STASHORIG, Namespace.of("/stashorig/stash@{0}"));
+        assertEquals(Namespace.OTHER, Namespace.of("/commits"));
+        assertEquals(Namespace.OTHER, Namespace.of("/.Trash"));
+
+        assertEquals("/commit", Namespace.COMMIT.toString());
+        assertEquals("getattr", Operation.GETATTR.toString());
+    }
+
+    @Test
+    public void testRecord() {
+        OperationStats stats = new OperationStats();
+        long start = System.nanoTime();
+        stats.record(Operation.READ, "/commit/ab/cdef/file", start, 100);
+        stats.record(Operation.READ, "/commit/ab/cdef/file", start, 50);
+        stats.record(Operation.GETATTR, "/branch/master", start, 0);
+        stats.record(Operation.GETATTR, "/notexisting", start, -ErrorCodes.ENOENT());
+        stats.record(Operation.READDIR, "/tag", start, OperationStats.FAILED);
+
+        assertEquals(150, stats.getBytesRead());
+        assertEquals(1, stats.getNotFound());
+        assertEquals(1, stats.getErrors());
+
+        assertEquals(2, stats.getLatencies(Operation.READ).getCount());
+        assertEquals(2, stats.getLatencies(Operation.READ, Namespace.COMMIT).getCount());
+        assertEquals(0, stats.getLatencies(Operation.READ, Namespace.BRANCH).getCount());
+        assertEquals(2, stats.getLatencies(Operation.GETATTR).getCount());
+        assertEquals(1, stats.getLatencies(Operation.GETATTR, Namespace.OTHER).getCount());
+        assertEquals(0, stats.getLatencies(Operation.READLINK).getCount());
+
+        assertTrue(stats.getSeconds() >= 0);
+        String formatted = OperationStats.format(stats.getLatencies(Operation.READ), 2);
+        assertTrue(formatted.contains("2 ops"), "Had: " + formatted);
+        assertTrue(formatted.contains("1.0 ops/s"), "Had: " + formatted);
+        assertTrue(formatted.contains("p99"), "Had: " + formatted);
+    }
+}
@@ -0,0 +1,590 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Creates local Git repositories of a configurable shape for benchmarks and stress tests,
+ * all objects are written directly via JGit, so no network access or git executable is needed.
+ * <p>
+ * The same settings and seed always create the same commits, so results of runs on
+ * different machines or versions can be compared.
+ * <p>
+ * Usage:
+ * <pre>
+ * RepositoryGenerator generator = new RepositoryGenerator().setCommits(1000).setTree(3, 4, 20).setBranches(50);
+ * String head = generator.generate(dir);
+ * List&lt;String&gt; files = generator.getFiles();
+ * </pre>
+ */
+public class RepositoryGenerator {
+    private static final String[] WORDS = {
+            "public", "class", "return", "final", "static", "void", "int", "String", "if", "else",
+            "for", "while", "new", "this", "null", "true", "false", "import", "package", "private",
+            "git", "tree", "commit", "blob", "path", "file", "read", "write", "cache", "buffer",
+    };
+
+    private static final String CHAIN_FILE = "delta/chain.txt";
+    private static final int CHAIN_FILE_SIZE = 16 * 1024;
+
+    private static final long START_SECONDS = 1_600_000_000L;
+
+    private long seed = 42;
+    private int commits = 10;
+    private int changesPerCommit = 1;
+    private int depth = 2;
+    private int dirsPerDir = 2;
+    private int filesPerDir = 10;
+    private int minFileSize = 100;
+    private int maxFileSize = 10_000;
+    private int largeBinaries;
+    private int largeBinarySize;
+    private int branches = 1;
+    private int tags;
+    private int annotatedTags;
+    private int deltaChain;
+    private int symlinks;
+    private int submodules;
+    private int stashes;
+
+    // the state of the generated repository
+    private Random random;
+    private final Dir root = new Dir();
+    private final List<String> files = new ArrayList<>();
+    private final List<String> dirs = new ArrayList<>();
+    private final List<String> links = new ArrayList<>();
+    private final List<String> submodulePaths = new ArrayList<>();
+    private String head;
+
+    /**
+     * @param seed The seed for the random contents, the default is 42
+     * @return This instance
+     */
+    public RepositoryGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param commits The length of the history of the branch "master", at least 1
+     * @return This instance
+     */
+    public RepositoryGenerator setCommits(int commits) {
+        this.commits = commits;
+        return this;
+    }
+
+    /**
+     * @param changesPerCommit The number of files which are changed by each commit after the first one
+     * @return This instance
+     */
+    public RepositoryGenerator setChangesPerCommit(int changesPerCommit) {
+        this.changesPerCommit = changesPerCommit;
+        return this;
+    }
+
+    /**
+     * @param depth The number of levels of directories below the root directory
+     * @param dirsPerDir The number of sub-directories in each directory above the last level
+     * @param filesPerDir The number of files in each directory, including the root directory
+     * @return This instance
+     */
+    public RepositoryGenerator setTree(int depth, int dirsPerDir, int filesPerDir) {
+        this.depth = depth;
+        this.dirsPerDir = dirsPerDir;
+        this.filesPerDir = filesPerDir;
+        return this;
+    }
+
+    /**
+     * Sizes of files are distributed evenly on a logarithmic scale, so there are many small and few large
+     * files, as in most source code repositories. Files contain text made of words, so they compress similarly.
+     *
+     * @param min The size of the smallest files in bytes
+     * @param max The size of the largest files in bytes
+     * @return This instance
+     */
+    public RepositoryGenerator setFileSizes(int min, int max) {
+        this.minFileSize = min;
+        this.maxFileSize = max;
+        return this;
+    }
+
+    /**
+     * @param count The number of incompressible binary files in the directory "binaries"
+     * @param size The size of each binary file in bytes, they are streamed, so they can be larger than the heap
+     * @return This instance
+     */
+    public RepositoryGenerator setLargeBinaries(int count, int size) {
+        this.largeBinaries = count;
+        this.largeBinarySize = size;
+        return this;
+    }
+
+    /**
+     * @param branches The number of branches including "master", they point to commits spread across the history
+     * @return This instance
+     */
+    public RepositoryGenerator setBranches(int branches) {
+        this.branches = branches;
+        return this;
+    }
+
+    /**
+     * @param lightweight The number of tags which point to commits directly
+     * @param annotated The number of tags which point to a tag-object with tagger and message
+     * @return This instance
+     */
+    public RepositoryGenerator setTags(int lightweight, int annotated) {
+        this.tags = lightweight;
+        this.annotatedTags = annotated;
+        return this;
+    }
+
+    /**
+     * The file "delta/chain.txt" is changed slightly by the given number of commits at the end of the
+     * history and the repository is packed with deltas afterwards, so reading the older versions of
+     * the file needs to apply a long chain of deltas. The history is extended if it is shorter.
+     *
+     * @param length The number of versions of the file, 0 to not create the file and keep the pack without deltas
+     * @return This instance
+     */
+    public RepositoryGenerator setDeltaChain(int length) {
+        this.deltaChain = length;
+        return this;
+    }
+
+    /**
+     * @param symlinks The number of symbolic links in the directory "links" which point to files of the repository
+     * @return This instance
+     */
+    public RepositoryGenerator setSymlinks(int symlinks) {
+        this.symlinks = symlinks;
+        return this;
+    }
+
+    /**
+     * Submodules are small generated repositories in the directory "modules", the working tree of the
+     * repository is checked out and the submodules are initialized, as JGitFS reads them via the index.
+     *
+     * @param submodules The number of submodules
+     * @return This instance
+     */
+    public RepositoryGenerator setSubmodules(int submodules) {
+        this.submodules = submodules;
+        return this;
+    }
+
+    /**
+     * @param stashes The number of stashes, the working tree is checked out to create them
+     * @return This instance
+     */
+    public RepositoryGenerator setStashes(int stashes) {
+        this.stashes = stashes;
+        return this;
+    }
+
+    /**
+     * Create the repository.
+     *
+     * @param dir The directory for the working tree, the Git repository is created in ".git" below it
+     * @return The commit-id of the branch "master"
+     * @throws IOException If writing the repository fails
+     */
+    public String generate(File dir) throws IOException {
+        if (head != null) {
+            throw new IllegalStateException("Repository was generated already, use a separate instance for each repository");
+        }
+        random = new Random(seed);
+
+        try (Repository repository = new FileRepositoryBuilder().setGitDir(new File(dir, Constants.DOT_GIT)).build()) {
+            repository.create();
+
+            // independent of the configuration for new repositories of the current user
+            RefUpdate headUpdate = repository.updateRef(Constants.HEAD);
+            headUpdate.disableRefLog();
+            headUpdate.link(Constants.R_HEADS + Constants.MASTER);
+
+            // submodules are separate repositories, their commit is recorded in the tree
+            Map<String, ObjectId> submoduleHeads = new LinkedHashMap<>();
+            for (int i = 0; i < submodules; i++) {
+                String path = "modules/sub%02d".formatted(i);
+                String subHead = new RepositoryGenerator().setSeed(seed + i + 1).setCommits(3).setTree(1, 1, 5)
+                        .generate(new File(dir, path));
+                submoduleHeads.put(path, ObjectId.fromString(subHead));
+            }
+
+            Map<String, ObjectId> refs = new LinkedHashMap<>();
+            try (PackInserter inserter = ((ObjectDirectory) repository.getObjectDatabase()).newPackInserter()) {
+                inserter.checkExisting(false);
+
+                createTree(inserter, submoduleHeads);
+
+                List<ObjectId> history = new ArrayList<>();
+                int length = Math.max(Math.max(1, commits), deltaChain + 1);
+                ObjectId parent = null;
+                for (int c = 0; c < length; c++) {
+                    if (c > 0) {
+                        for (int i = 0; i < changesPerCommit && !files.isEmpty(); i++) {
+                            String file = files.get(random.nextInt(files.size()));
+                            if (!file.startsWith("binaries/") && !file.equals(CHAIN_FILE)) {
+                                root.put(file, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, text(fileSize())));
+                            }
+                        }
+                    }
+                    if (deltaChain > 0 && c >= length - deltaChain) {
+                        root.put(CHAIN_FILE, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, chainVersion(c)));
+                    }
+
+                    CommitBuilder commit = new CommitBuilder();
+                    commit.setTreeId(root.insert(inserter));
+                    if (parent != null) {
+                        commit.setParentId(parent);
+                    }
+                    PersonIdent ident = ident(c);
+                    commit.setAuthor(ident);
+                    commit.setCommitter(ident);
+                    commit.setMessage("Commit " + c + "\n");
+                    parent = inserter.insert(commit);
+                    history.add(parent);
+                }
+
+                refs.put(Constants.R_HEADS + Constants.MASTER, history.getLast());
+                for (int b = 1; b < branches; b++) {
+                    refs.put(Constants.R_HEADS + "branch%05d".formatted(b), spread(history, b, branches));
+                }
+                for (int t = 0; t < tags; t++) {
+                    refs.put(Constants.R_TAGS + "tag%05d".formatted(t), spread(history, t, tags));
+                }
+                for (int t = 0; t < annotatedTags; t++) {
+                    TagBuilder tag = new TagBuilder();
+                    tag.setTag("release%05d".formatted(t));
+                    tag.setObjectId(spread(history, t, annotatedTags), Constants.OBJ_COMMIT);
+                    tag.setTagger(ident(t));
+                    tag.setMessage("Release " + t + "\n");
+                    refs.put(Constants.R_TAGS + tag.getTag(), inserter.insert(tag));
+                }
+
+                inserter.flush();
+            }
+
+            for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+                RefUpdate update = repository.updateRef(ref.getKey());
+                update.setNewObjectId(ref.getValue());
+                update.setForceUpdate(true);
+                RefUpdate.Result result = update.update();
+                if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED) {
+                    throw new IOException("Could not create ref " + ref.getKey() + ": " + result);
+                }
+            }
+            head = refs.get(Constants.R_HEADS + Constants.MASTER).getName();
+
+            if (submodules > 0 || stashes > 0) {
+                checkout(repository, dir);
+            }
+
+            if (deltaChain > 0) {
+                pack(repository);
+            }
+        }
+
+        return head;
+    }
+
+    private void createTree(ObjectInserter inserter, Map<String, ObjectId> submoduleHeads) throws IOException {
+        createDir(inserter, "", 0);
+
+        for (int i = 0; i < largeBinaries; i++) {
+            String path = "binaries/large%03d.bin".formatted(i);
+            try (InputStream content = new RandomInputStream(random.nextLong(), largeBinarySize)) {
+                root.put(path, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, largeBinarySize, content));
+            }
+            files.add(path);
+        }
+        if (largeBinaries > 0) {
+            dirs.add("binaries");
+        }
+
+        if (deltaChain > 0) {
+            root.put(CHAIN_FILE, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, chainVersion(0)));
+            files.add(CHAIN_FILE);
+            dirs.add("delta");
+        }
+
+        // links are relative to the directory "links"
+        for (int i = 0; i < symlinks && !files.isEmpty(); i++) {
+            String path = "links/link%04d".formatted(i);
+            String target = "../" + files.get(random.nextInt(files.size()));
+            root.put(path, FileMode.SYMLINK, inserter.insert(Constants.OBJ_BLOB, target.getBytes(StandardCharsets.UTF_8)));
+            links.add(path);
+        }
+        if (symlinks > 0) {
+            dirs.add("links");
+        }
+
+        if (!submoduleHeads.isEmpty()) {
+            StringBuilder gitmodules = new StringBuilder();
+            for (Map.Entry<String, ObjectId> submodule : submoduleHeads.entrySet()) {
+                String name = submodule.getKey().substring(submodule.getKey().lastIndexOf('/') + 1);
+                gitmodules.append("[submodule \"").append(name).append("\"]\n")
+                        .append("\tpath = ").append(submodule.getKey()).append('\n')
+                        .append("\turl = ./").append(submodule.getKey()).append('\n');
+                root.put(submodule.getKey(), FileMode.GITLINK, submodule.getValue());
+                submodulePaths.add(submodule.getKey());
+            }
+            root.put(Constants.DOT_GIT_MODULES, FileMode.REGULAR_FILE,
+                    inserter.insert(Constants.OBJ_BLOB, gitmodules.toString().getBytes(StandardCharsets.UTF_8)));
+            files.add(Constants.DOT_GIT_MODULES);
+            dirs.add("modules");
+        }
+    }
+
+    private void createDir(ObjectInserter inserter, String path, int level) throws IOException {
+        dirs.add(path);
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (int f = 0; f < filesPerDir; f++) {
+            String file = prefix + "file%05d.txt".formatted(f);
+            root.put(file, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, text(fileSize())));
+            files.add(file);
+        }
+
+        if (level < depth) {
+            for (int d = 0; d < dirsPerDir; d++) {
+                createDir(inserter, prefix + "dir%03d".formatted(d), level + 1);
+            }
+        }
+    }
+
+    private void checkout(Repository repository, File dir) throws IOException {
+        try (Git git = new Git(repository)) {
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(Constants.MASTER).call();
+            if (submodules > 0) {
+                git.submoduleInit().call();
+            }
+
+            for (int s = 0; s < stashes; s++) {
+                String file = files.get(random.nextInt(files.size()));
+                if (file.startsWith("binaries/")) {
+                    file = files.getFirst();
+                }
+                Files.write(new File(dir, file).toPath(), text(fileSize()));
+                if (git.stashCreate().setPerson(ident(s)).setWorkingDirectoryMessage("Stash " + s).call() == null) {
+                    throw new IOException("Could not create stash " + s + " for changes in " + file);
+                }
+            }
+        } catch (GitAPIException e) {
+            throw new IOException("Could not check out the working tree in " + dir, e);
+        }
+    }
+
+    private void pack(Repository repository) throws IOException {
+        PackConfig config = new PackConfig(repository);
+        config.setMaxDeltaDepth(Math.max(config.getMaxDeltaDepth(), deltaChain));
+
+        // keep packing possible with a small heap: random binaries do not compress into deltas and
+        // bitmaps are only used for fetching and pushing, not for reading objects
+        if (largeBinaries > 0 && largeBinarySize > maxFileSize) {
+            config.setBigFileThreshold(Math.min(config.getBigFileThreshold(), largeBinarySize - 1));
+        }
+        config.setBuildBitmaps(false);
+
+        GC gc = new GC((FileRepository) repository);
+        gc.setPackConfig(config);
+        try {
+            gc.gc().get();
+        } catch (ParseException | GitAPIException | ExecutionException e) {
+            throw new IOException("Could not pack repository " + repository.getDirectory(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while packing repository " + repository.getDirectory(), e);
+        }
+    }
+
+    private static ObjectId spread(List<ObjectId> history, int index, int count) {
+        return history.get((int) ((long) (history.size() - 1) * index / Math.max(1, count)));
+    }
+
+    private static PersonIdent ident(int index) {
+        return new PersonIdent("Generator", "generator@example.com",
+                Instant.ofEpochSecond(START_SECONDS + index * 60L), ZoneOffset.UTC);
+    }
+
+    private int fileSize() {
+        if (maxFileSize <= minFileSize) {
+            return minFileSize;
+        }
+        double logMin = Math.log(Math.max(1, minFileSize));
+        return (int) Math.exp(logMin + random.nextDouble() * (Math.log(maxFileSize) - logMin));
+    }
+
+    private byte[] text(int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        int words = 0;
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(++words % 12 == 0 ? '\n' : ' ');
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // each version changes one line of the previous one, so it is stored as a small delta
+    private byte[] chainVersion(int version) {
+        Random chain = new Random(seed);
+        StringBuilder text = new StringBuilder(CHAIN_FILE_SIZE + 100);
+        for (int line = 0; text.length() < CHAIN_FILE_SIZE; line++) {
+            text.append("line ").append(line).append(": ");
+            for (int w = 0; w < 8; w++) {
+                text.append(WORDS[chain.nextInt(WORDS.length)]).append(' ');
+            }
+            if (line % 64 == version % 64) {
+                text.append("changed in version ").append(version);
+            }
+            text.append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The commit-id of the branch "master", null before {@link #generate(File)} was called
+     */
+    public String getHead() {
+        return head;
+    }
+
+    /**
+     * @return The paths of all files in the last commit, relative to the root of the repository
+     */
+    public List<String> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * @return The paths of all directories in the last commit, relative to the root of the repository, "" for the root
+     */
+    public List<String> getDirs() {
+        return Collections.unmodifiableList(dirs);
+    }
+
+    /**
+     * @return The paths of all symbolic links in the last commit
+     */
+    public List<String> getSymlinks() {
+        return Collections.unmodifiableList(links);
+    }
+
+    /**
+     * @return The paths of all submodules in the last commit
+     */
+    public List<String> getSubmodules() {
+        return Collections.unmodifiableList(submodulePaths);
+    }
+
+    /**
+     * A directory of the tree which is committed next, trees which did not change since the
+     * last commit keep their id, so only the trees along changed paths are written again.
+     */
+    private static final class Dir {
+        // Git sorts entries as if the names of directories end with a slash
+        private final TreeMap<String, Entry> entries = new TreeMap<>();
+        private ObjectId id;
+
+        void put(String path, FileMode mode, ObjectId objectId) {
+            id = null;
+
+            int slash = path.indexOf('/');
+            if (slash == -1) {
+                entries.put(path, new Entry(path, mode, objectId, null));
+                return;
+            }
+
+            String name = path.substring(0, slash);
+            Entry entry = entries.computeIfAbsent(name + "/", key -> new Entry(name, FileMode.TREE, null, new Dir()));
+            entry.dir.put(path.substring(slash + 1), mode, objectId);
+        }
+
+        ObjectId insert(ObjectInserter inserter) throws IOException {
+            if (id == null) {
+                TreeFormatter tree = new TreeFormatter();
+                for (Entry entry : entries.values()) {
+                    tree.append(entry.name, entry.mode, entry.dir == null ? entry.objectId : entry.dir.insert(inserter));
+                }
+                id = inserter.insert(tree);
+            }
+            return id;
+        }
+    }
+
+    private record Entry(String name, FileMode mode, ObjectId objectId, Dir dir) {
+    }
+
+    /**
+     * Incompressible content which is created while it is read.
+     */
+    private static final class RandomInputStream extends InputStream {
+        private final Random random;
+        private long remaining;
+
+        private RandomInputStream(long seed, long size) {
+            this.random = new Random(seed);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int count = (int) Math.min(len, remaining);
+            byte[] bytes = new byte[count];
+            random.nextBytes(bytes);
+            System.arraycopy(bytes, 0, b, off, count);
+            remaining -= count;
+            return count;
+        }
+    }
+}
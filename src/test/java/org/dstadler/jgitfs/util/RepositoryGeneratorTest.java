@@ -0,0 +1,171 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RepositoryGeneratorTest {
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("RepositoryGeneratorTest");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testTree() throws IOException {
+        RepositoryGenerator generator = new RepositoryGenerator()
+                .setCommits(20)
+                .setChangesPerCommit(3)
+                .setTree(2, 3, 4)
+                .setFileSizes(10, 5_000)
+                .setBranches(5)
+                .setTags(3, 2);
+        String head = generator.generate(dir.toFile());
+        assertEquals(head, generator.getHead());
+
+        // 1 + 3 + 9 directories with 4 files each
+        assertEquals(13, generator.getDirs().size());
+        assertEquals(52, generator.getFiles().size());
+        assertTrue(generator.getDirs().contains(""));
+        assertTrue(generator.getDirs().contains("dir002/dir001"));
+        assertTrue(generator.getFiles().contains("dir002/dir001/file00003.txt"));
+
+        try (JGitHelper helper = new JGitHelper(dir.toString())) {
+            assertEquals(head, helper.getBranchHeadCommit("master"));
+            // refs are listed with their short and their full name
+            assertEquals(10, helper.getBranches().size());
+            assertTrue(helper.getBranches().contains("branch00004"), "Had: " + helper.getBranches());
+            assertEquals(10, helper.getTags().size());
+            assertTrue(helper.getTags().contains("release00001"), "Had: " + helper.getTags());
+            assertEquals(20, helper.allCommits(null).size());
+
+            for (String file : generator.getFiles()) {
+                try (InputStream stream = helper.openFile(head, file)) {
+                    int size = stream.readAllBytes().length;
+                    assertTrue(size >= 10 && size <= 5_000, "Had size " + size + " for " + file);
+                }
+            }
+            assertEquals(List.of("dir000", "dir001", "dir002", "file00000.txt", "file00001.txt", "file00002.txt", "file00003.txt"),
+                    helper.readElementsAt(head, ""));
+        }
+
+        try (FileRepository repository = new FileRepository(new File(dir.toFile(), Constants.DOT_GIT));
+             RevWalk walk = new RevWalk(repository)) {
+            ObjectId release = repository.resolve("release00001^{commit}");
+            assertNotNull(release);
+            assertNotEquals(release, repository.exactRef(Constants.R_TAGS + "release00001").getObjectId(),
+                    "Annotated tags point to a tag-object");
+            assertEquals(Constants.OBJ_COMMIT, walk.parseAny(release).getType());
+        }
+    }
+
+    @Test
+    public void testRepeatable() throws IOException {
+        String head1 = new RepositoryGenerator().setCommits(5).setTags(0, 1).generate(dir.resolve("1").toFile());
+        String head2 = new RepositoryGenerator().setCommits(5).setTags(0, 1).generate(dir.resolve("2").toFile());
+        String head3 = new RepositoryGenerator().setSeed(1).setCommits(5).setTags(0, 1).generate(dir.resolve("3").toFile());
+
+        assertEquals(head1, head2);
+        assertNotEquals(head1, head3);
+    }
+
+    @Test
+    public void testGenerateTwice() throws IOException {
+        RepositoryGenerator generator = new RepositoryGenerator().setCommits(1);
+        generator.generate(dir.resolve("1").toFile());
+        assertThrows(IllegalStateException.class, () -> generator.generate(dir.resolve("2").toFile()));
+    }
+
+    @Test
+    public void testBinariesAndSymlinks() throws IOException {
+        RepositoryGenerator generator = new RepositoryGenerator()
+                .setCommits(3)
+                .setTree(0, 0, 5)
+                .setLargeBinaries(2, 3 * 1024 * 1024)
+                .setSymlinks(4);
+        String head = generator.generate(dir.toFile());
+
+        assertEquals(7, generator.getFiles().size());
+        assertEquals(4, generator.getSymlinks().size());
+
+        try (JGitHelper helper = new JGitHelper(dir.toString())) {
+            try (InputStream stream = helper.openFile(head, "binaries/large001.bin")) {
+                assertEquals(3 * 1024 * 1024, stream.readAllBytes().length);
+            }
+            for (String link : generator.getSymlinks()) {
+                String target = helper.readSymlink(head, link);
+                assertTrue(target.startsWith("../"), "Had: " + target);
+                assertTrue(generator.getFiles().contains(target.substring(3)), "Had: " + target);
+            }
+        }
+    }
+
+    @Test
+    public void testDeltaChain() throws IOException {
+        RepositoryGenerator generator = new RepositoryGenerator()
+                .setCommits(2)
+                .setTree(0, 0, 2)
+                .setDeltaChain(60);
+        String head = generator.generate(dir.toFile());
+        assertTrue(generator.getFiles().contains("delta/chain.txt"));
+
+        try (FileRepository repository = new FileRepository(new File(dir.toFile(), Constants.DOT_GIT))) {
+            // the history is extended to hold all versions of the file
+            GC.RepoStatistics statistics = new GC(repository).getStatistics();
+            assertEquals(1, statistics.numberOfPackFiles);
+            assertEquals(0, statistics.numberOfLooseObjects);
+        }
+
+        try (JGitHelper helper = new JGitHelper(dir.toString())) {
+            assertEquals(61, helper.allCommits(null).size());
+
+            String content;
+            try (InputStream stream = helper.openFile(head, "delta/chain.txt")) {
+                content = new String(stream.readAllBytes());
+            }
+            assertTrue(content.contains("changed in version 60"), "Had: " + content);
+        }
+    }
+
+    @Test
+    public void testSubmodulesAndStashes() throws IOException {
+        RepositoryGenerator generator = new RepositoryGenerator()
+                .setCommits(3)
+                .setTree(1, 1, 3)
+                .setSubmodules(2)
+                .setStashes(3);
+        String head = generator.generate(dir.toFile());
+        assertEquals(List.of("modules/sub00", "modules/sub01"), generator.getSubmodules());
+
+        try (JGitHelper helper = new JGitHelper(dir.toString())) {
+            assertEquals(3, helper.getStashes().size());
+            assertEquals(2, helper.allSubmodules().size(), "Had: " + helper.allSubmodules());
+            assertTrue(helper.isGitLink(head, "modules/sub01"));
+
+            for (String submodule : helper.allSubmodules()) {
+                assertNotNull(helper.getSubmoduleHead(submodule), "Had: " + submodule);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedBlobTest {
+    private static final byte[] DATA = "some content".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testReleasedByLastStream() throws IOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertTrue(budget.acquire(600));
+        SharedBlob blob = new SharedBlob(new ObjectLoader.SmallObject(Constants.OBJ_BLOB, DATA), budget, 600);
+        assertTrue(blob.isLoaded());
+
+        assertTrue(blob.retain());
+        InputStream first = blob.openStream();
+        assertTrue(blob.retain());
+        InputStream second = blob.openStream();
+        assertArrayEquals(DATA, first.readAllBytes());
+        assertArrayEquals(DATA, second.readAllBytes());
+
+        first.close();
+        assertEquals(400, budget.getAvailable());
+
+        // closing twice does not release the reader again
+        first.close();
+        assertEquals(400, budget.getAvailable());
+
+        second.close();
+        assertEquals(1000, budget.getAvailable());
+
+        // readers which come too late need to load the object again
+        assertFalse(blob.retain());
+        second.close();
+        assertEquals(1000, budget.getAvailable());
+    }
+
+    @Test
+    public void testNotLoaded() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        SharedBlob blob = new SharedBlob(null, budget, 0);
+        assertFalse(blob.isLoaded());
+
+        assertTrue(blob.retain());
+        blob.release();
+        assertFalse(blob.retain());
+        assertEquals(1000, budget.getAvailable());
+    }
+}
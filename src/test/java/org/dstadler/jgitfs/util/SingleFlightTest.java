@@ -0,0 +1,121 @@
+package org.dstadler.jgitfs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+    @Test
+    public void testSequentialCallsAreNotCoalesced() throws IOException {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("value", flight.execute("key", () -> "value" + (loads.incrementAndGet() > 1 ? loads.get() : "")));
+        assertEquals("value2", flight.execute("key", () -> "value" + (loads.incrementAndGet() > 1 ? loads.get() : "")));
+
+        assertEquals(2, loads.get());
+        assertEquals(0, flight.getCoalesced());
+    }
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        AtomicReference<Object> result = new AtomicReference<>();
+
+        Thread leader = new Thread(() -> {
+            try {
+                result.set(flight.execute("key", () -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new Object();
+                }));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        leader.start();
+        loading.await();
+
+        AtomicReference<Object> coalescedResult = new AtomicReference<>();
+        Thread follower = new Thread(() -> {
+            try {
+                coalescedResult.set(flight.execute("key", () -> {
+                    loads.incrementAndGet();
+                    return new Object();
+                }));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        follower.start();
+
+        // wait until the second request waits for the first one
+        while (flight.getCoalesced() == 0) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        leader.join();
+        follower.join();
+
+        assertEquals(1, loads.get());
+        assertNotNull(result.get());
+        assertSame(result.get(), coalescedResult.get());
+    }
+
+    @Test
+    public void testExceptionIsPassedToWaitingCalls() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = new Thread(() -> assertThrows(FileNotFoundException.class, () -> flight.execute("key", () -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            throw new FileNotFoundException("not found");
+        })));
+        leader.start();
+        loading.await();
+
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread follower = new Thread(() -> {
+            try {
+                flight.execute("key", () -> "value");
+            } catch (IOException e) {
+                thrown.set(e);
+            }
+        });
+        follower.start();
+
+        while (flight.getCoalesced() == 0) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        leader.join();
+        follower.join();
+
+        assertInstanceOf(FileNotFoundException.class, thrown.get());
+
+        // a failed computation is not remembered
+        assertEquals("value", flight.execute("key", () -> "value"));
+    }
+}
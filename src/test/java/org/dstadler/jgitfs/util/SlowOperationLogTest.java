@@ -0,0 +1,139 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.dstadler.jgitfs.util.CallProfile.Phase;
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlowOperationLogTest {
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("SlowOperationLogTest");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        SlowOperationLog.install(null);
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testProfileDisabled() {
+        assertNull(SlowOperationLog.get());
+        assertEquals(0, CallProfile.start());
+
+        CallProfile.begin();
+        CallProfile.stop(Phase.TREE, CallProfile.start(), 5);
+        assertNull(CallProfile.end());
+    }
+
+    @Test
+    public void testProfile() {
+        File file = dir.resolve("slow.log").toFile();
+        try (SlowOperationLog log = new SlowOperationLog(file, 1000)) {
+            SlowOperationLog.install(log);
+            assertSame(log, SlowOperationLog.get());
+
+            CallProfile.begin();
+            CallProfile.stop(Phase.COMMIT, CallProfile.start(), 1);
+
+            // nested calls add to the outermost one
+            CallProfile.begin();
+            CallProfile.stop(Phase.OBJECT, CallProfile.start(), 1024);
+            CallProfile.stop(Phase.OBJECT, CallProfile.start(), 1024);
+            assertNull(CallProfile.end());
+
+            CallProfile profile = CallProfile.end();
+            assertNotNull(profile);
+            assertEquals(1, profile.getAmount(Phase.COMMIT));
+            assertEquals(2048, profile.getAmount(Phase.OBJECT));
+            assertEquals(0, profile.getAmount(Phase.TREE));
+            assertEquals(0, profile.getNanos(Phase.COPY));
+            assertTrue(profile.getNanos(Phase.OBJECT) > 0);
+            assertTrue(profile.getCpuNanos() >= 0);
+
+            // the next call starts from scratch
+            CallProfile.begin();
+            profile = CallProfile.end();
+            assertNotNull(profile);
+            assertEquals(0, profile.getAmount(Phase.OBJECT));
+
+            // unbalanced calls are ignored
+            assertNull(CallProfile.end());
+        }
+
+        assertNull(SlowOperationLog.get());
+        assertEquals(0, CallProfile.start());
+    }
+
+    @Test
+    public void testRecord() throws IOException {
+        File file = dir.resolve("slow.log").toFile();
+        try (SlowOperationLog log = new SlowOperationLog(file, 50)) {
+            SlowOperationLog.install(log);
+            assertEquals(50, log.getThresholdMillis());
+
+            CallProfile.begin();
+            CallProfile profile = CallProfile.end();
+            assertFalse(log.record("repo", Operation.READ, "/commit/ab/cdef/fast", System.nanoTime(), 10, profile));
+
+            CallProfile.begin();
+            CallProfile.stop(Phase.COPY, CallProfile.start(), 4096);
+            profile = CallProfile.end();
+            long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(60);
+            assertTrue(log.record("repo", Operation.READ, "/commit/ab/cdef/slow file", start, 4096, profile));
+            assertTrue(log.record("repo", Operation.GETATTR, "/commit/ab/cdef/failed", start, OperationStats.FAILED, profile));
+
+            assertEquals(2, log.getLogged());
+            assertEquals(0, log.getDropped());
+            assertTrue(log.toString().contains("2 logged"), "Had: " + log);
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(2, lines.size(), "Had: " + lines);
+        assertTrue(lines.get(0).contains(" read ") && lines.get(0).contains(" /commit/ab/cdef/slow file repository=repo result=4096 "),
+                "Had: " + lines);
+        assertTrue(lines.get(0).contains("/4096 bytes other="), "Had: " + lines);
+        assertTrue(lines.get(0).contains(" commit=0.0us/0 commits "), "Had: " + lines);
+        assertTrue(lines.get(1).contains(" getattr ") && lines.get(1).contains(" result=failed "), "Had: " + lines);
+    }
+
+    @Test
+    public void testRollOver() throws IOException {
+        File file = dir.resolve("slow.log").toFile();
+        try (SlowOperationLog log = new SlowOperationLog(file, 0, 1000, 3)) {
+            SlowOperationLog.install(log);
+            CallProfile.begin();
+            CallProfile profile = CallProfile.end();
+            for (int i = 0; i < 100; i++) {
+                assertTrue(log.record("repo", Operation.READDIR, "/commit/" + i, System.nanoTime(), 0, profile));
+            }
+        }
+
+        assertTrue(file.exists());
+        assertTrue(new File(file.getPath() + ".1").exists());
+        assertTrue(new File(file.getPath() + ".2").exists());
+        assertFalse(new File(file.getPath() + ".3").exists());
+
+        for (File logFile : List.of(file, new File(file.getPath() + ".1"), new File(file.getPath() + ".2"))) {
+            assertTrue(logFile.length() <= 1000, "Had: " + logFile.length());
+        }
+
+        // the newest lines are kept
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertTrue(lines.getLast().contains(" /commit/99 "), "Had: " + lines);
+    }
+}
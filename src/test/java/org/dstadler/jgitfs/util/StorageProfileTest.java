@@ -0,0 +1,156 @@
+package org.dstadler.jgitfs.util;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageProfileTest {
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long GB = 1024 * MB;
+
+    @Test
+    public void testSmallContainer() {
+        // e.g. -Xmx60m, i.e. a budget of 30MB, without knowing the repositories
+        StorageProfile profile = new StorageProfile().resolve(30 * MB, 0, 0, 0, 1024);
+
+        assertEquals((long) (30 * MB * 0.25), profile.getPackedGitLimit());
+        assertEquals(8 * KB, profile.getWindowSize());
+        assertEquals(128, profile.getOpenFiles());
+        assertEquals((int) (30 * MB * 0.10), profile.getDeltaBaseCacheLimit());
+        assertEquals(MB, profile.getStreamFileThreshold());
+        assertFalse(profile.isMmap());
+    }
+
+    @Test
+    public void testLargeHost() {
+        // large heap and large pack-files in many repositories
+        StorageProfile profile = new StorageProfile().resolve(16 * GB, 20 * GB, 50, 10, 65536);
+
+        assertEquals(4 * GB, profile.getPackedGitLimit());
+        assertEquals(MB, profile.getWindowSize());
+        assertEquals(50 + 10 * 32, profile.getOpenFiles());
+        assertEquals(50 * MB, profile.getStreamFileThreshold());
+        assertTrue(profile.isMmap(), "Pack-files are much larger than the cache");
+    }
+
+    @Test
+    public void testSmallRepositoryOnLargeHost() {
+        // the cache is not larger than the pack-files
+        StorageProfile profile = new StorageProfile().resolve(16 * GB, 100 * MB, 2, 1, 65536);
+
+        assertEquals(100 * MB, profile.getPackedGitLimit());
+        assertEquals(64 * KB, profile.getWindowSize());
+        assertEquals(128, profile.getOpenFiles());
+        assertFalse(profile.isMmap());
+    }
+
+    @Test
+    public void testOpenFilesLimitedByProcess() {
+        StorageProfile profile = new StorageProfile().resolve(GB, GB, 10, 100, 1024);
+        assertEquals(256, profile.getOpenFiles());
+    }
+
+    @Test
+    public void testExplicitValues() {
+        StorageProfile requested = new StorageProfile();
+        requested.setPackedGitLimit(10 * MB);
+        requested.setWindowSize((int) (16 * KB));
+        requested.setOpenFiles(17);
+        requested.setDeltaBaseCacheLimit((int) (3 * MB));
+        requested.setStreamFileThreshold((int) (512 * KB));
+        requested.setMmap(true);
+
+        StorageProfile profile = requested.resolve(16 * GB, 20 * GB, 50, 10, 65536);
+        assertEquals(10 * MB, profile.getPackedGitLimit());
+        assertEquals(16 * KB, profile.getWindowSize());
+        assertEquals(17, profile.getOpenFiles());
+        assertEquals(3 * MB, profile.getDeltaBaseCacheLimit());
+        assertEquals(512 * KB, profile.getStreamFileThreshold());
+        assertTrue(profile.isMmap());
+
+        // the requested profile is not changed by resolving it
+        assertEquals(17, requested.getOpenFiles());
+        requested.setMmap(false);
+        assertFalse(requested.resolve(16 * GB, 20 * GB, 50, 10, 65536).isMmap());
+    }
+
+    @Test
+    public void testToConfig() {
+        StorageProfile profile = new StorageProfile().resolve(GB, 0, 0, 1, 1024);
+        WindowCacheConfig cfg = profile.toConfig();
+
+        assertEquals(profile.getPackedGitLimit(), cfg.getPackedGitLimit());
+        assertEquals(profile.getWindowSize(), cfg.getPackedGitWindowSize());
+        assertEquals(profile.getOpenFiles(), cfg.getPackedGitOpenFiles());
+        assertEquals(profile.getDeltaBaseCacheLimit(), cfg.getDeltaBaseCacheLimit());
+        assertEquals(profile.getStreamFileThreshold(), cfg.getStreamFileThreshold());
+        assertEquals(profile.isMmap(), cfg.isPackedGitMMAP());
+
+        assertTrue(profile.toString().contains("window-size"), "Had: " + profile);
+    }
+
+    @Test
+    public void testShrink() {
+        StorageProfile profile = new StorageProfile().resolve(GB, 0, 0, 1, 1024);
+        StorageProfile shrunk = profile.shrink();
+        assertNotNull(shrunk);
+        assertEquals(profile.getPackedGitLimit() / 2, shrunk.getPackedGitLimit());
+        assertEquals(profile.getDeltaBaseCacheLimit() / 2, shrunk.getDeltaBaseCacheLimit());
+        assertEquals(profile.getWindowSize(), shrunk.getWindowSize());
+        assertEquals(profile.getOpenFiles(), shrunk.getOpenFiles());
+        assertEquals(profile.getStreamFileThreshold(), shrunk.getStreamFileThreshold());
+
+        // down to the minimum size
+        while (shrunk.shrink() != null) {
+            shrunk = shrunk.shrink();
+        }
+        assertEquals(4 * MB, shrunk.getPackedGitLimit());
+        assertTrue(shrunk.getWindowSize() <= shrunk.getPackedGitLimit());
+    }
+
+    @Test
+    public void testScanPacks() throws IOException {
+        File dir = Files.createTempDirectory("StorageProfileTest").toFile();
+        try {
+            File gitDir = new File(dir, ".git");
+            writePack(new File(gitDir, "objects/pack/pack-1.pack"), 100);
+            writePack(new File(gitDir, "objects/pack/pack-1.idx"), 50);
+            writePack(new File(gitDir, "objects/pack/pack-2.pack"), 200);
+
+            // submodules, also with a slash in the name
+            writePack(new File(gitDir, "modules/sub/objects/pack/pack-3.pack"), 300);
+            writePack(new File(gitDir, "modules/nested/name/objects/pack/pack-4.pack"), 400);
+
+            long[] packs = StorageProfile.scanPacks(gitDir);
+            assertEquals(1000, packs[0]);
+            assertEquals(4, packs[1]);
+
+            // the working tree can be passed as well
+            StorageProfile profile = new StorageProfile().resolve(GB, List.of(dir));
+            assertEquals(4 * MB, profile.getPackedGitLimit());
+
+            assertEquals(0, StorageProfile.scanPacks(new File(dir, "notexisting"))[0]);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testResolveWithoutRepositories() {
+        StorageProfile profile = new StorageProfile().resolve(GB, Collections.emptyList());
+        assertEquals(GB / 4, profile.getPackedGitLimit());
+    }
+
+    private static void writePack(File file, int size) throws IOException {
+        FileUtils.writeByteArrayToFile(file, new byte[size]);
+    }
+}
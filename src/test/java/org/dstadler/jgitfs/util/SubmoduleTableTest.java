@@ -0,0 +1,57 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubmoduleTableTest {
+    private static final String CLONE_URL = "https://github.com/githubtraining/example-dependency.git";
+    private static final File CLONE_DIR = new File(System.getProperty("java.io.tmpdir"), "example-dependency");
+
+    @BeforeAll
+    public static void setUpClass() throws GitAPIException {
+        // clone sample repo if not available yet
+        if (!CLONE_DIR.exists()) {
+            Git.cloneRepository()
+                    .setURI(CLONE_URL)
+                    // this is important to also get the submodule checked out
+                    .setCloneSubmodules(true)
+                    .setDirectory(CLONE_DIR)
+                    .call().close();
+        }
+    }
+
+    @Test
+    public void testCachedUntilIndexChanges() throws IOException, InterruptedException {
+        try (Git git = Git.open(CLONE_DIR)) {
+            SubmoduleTable table = new SubmoduleTable(git.getRepository(), git);
+
+            Map<String, SubmoduleStatus> statuses = table.get();
+            assertEquals("[js]", statuses.keySet().toString());
+            assertEquals("js", statuses.get("js").getPath());
+            assertNotNull(statuses.get("js").getHeadId());
+
+            // nothing changed, so the same table is returned
+            assertSame(statuses, table.get());
+            Thread.sleep(1100);
+            assertSame(statuses, table.get());
+
+            // touching the index causes the table to be read again
+            File index = git.getRepository().getIndexFile();
+            assertTrue(index.setLastModified(index.lastModified() + 1000));
+            Thread.sleep(1100);
+
+            Map<String, SubmoduleStatus> reread = table.get();
+            assertNotSame(statuses, reread);
+            assertEquals(statuses.keySet(), reread.keySet());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dstadler.jgitfs.util.OperationStats.Operation;
+import org.dstadler.jgitfs.util.TraceRecorder.Call;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceRecorderTest {
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("TraceRecorderTest", ".trace").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        TraceRecorder.install(null);
+        Files.delete(file.toPath());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        long before = System.currentTimeMillis();
+        try (TraceRecorder recorder = new TraceRecorder(file)) {
+            TraceRecorder.install(recorder);
+            assertSame(recorder, TraceRecorder.get());
+
+            long start = System.nanoTime();
+            recorder.record("repo", Operation.GETATTR, "/commit/ab/cdef/README.md", 0, 0, start, 0);
+            recorder.record("repo", Operation.READ, "/commit/ab/cdef/README.md", 8192, 4096, start + 1000, 4096);
+            recorder.record("other", Operation.READDIR, "/branch", 0, 0, start - 5000, OperationStats.FAILED);
+            recorder.record("repo", Operation.READLINK, "/branch/master", 0, 1000, start, -2);
+
+            assertEquals(4, recorder.getRecorded());
+            assertEquals(0, recorder.getDropped());
+        }
+        assertNull(TraceRecorder.get());
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertTrue(reader.getStartMillis() >= before);
+
+            List<Call> calls = reader.readAll();
+            assertEquals(4, calls.size());
+
+            Call read = calls.get(1);
+            assertEquals(Operation.READ, read.operation());
+            assertEquals("/commit/ab/cdef/README.md", read.path());
+            assertEquals(8192, read.offset());
+            assertEquals(4096, read.size());
+            assertEquals(4096, read.result());
+            assertEquals(Thread.currentThread().getName(), read.thread());
+            assertEquals("repo", read.repository());
+            assertEquals(1000, read.startNanos() - calls.get(0).startNanos());
+            assertTrue(read.durationNanos() >= 0);
+
+            Call readdir = calls.get(2);
+            assertEquals("other", readdir.repository());
+            assertEquals(-6000, readdir.startNanos() - read.startNanos());
+            assertEquals(OperationStats.FAILED, readdir.result());
+
+            assertEquals(-2, calls.get(3).result());
+            assertEquals(1000, calls.get(3).size());
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testManyPaths() throws IOException {
+        int count = TraceRecorder.MAX_STRINGS + 100;
+        long recorded;
+        try (TraceRecorder recorder = new TraceRecorder(file)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                recorder.record("repo", Operation.GETATTR, "/commit/" + i, i, 0, start, 0);
+            }
+            recorded = recorder.getRecorded();
+            assertEquals(count, recorded + recorder.getDropped());
+        }
+
+        // numbers of paths are re-used after the limit, they still need to resolve to the right path
+        try (TraceReader reader = new TraceReader(file)) {
+            List<Call> calls = reader.readAll();
+            assertEquals(recorded, calls.size());
+            for (Call call : calls) {
+                assertEquals("/commit/" + call.offset(), call.path());
+            }
+        }
+    }
+
+    @Test
+    public void testStringsOfOneCallAreNotReassigned() throws IOException {
+        // the limit is reached while looking up the strings of a call at different positions
+        for (int maxStrings = 3; maxStrings <= 7; maxStrings++) {
+            try (TraceRecorder recorder = new TraceRecorder(file, maxStrings)) {
+                long start = System.nanoTime();
+                for (int i = 0; i < 20; i++) {
+                    recorder.record("repo" + (i % 3), Operation.GETATTR, "/commit/" + i, i, 0, start, 0);
+                }
+                assertEquals(0, recorder.getDropped());
+            }
+
+            try (TraceReader reader = new TraceReader(file)) {
+                List<Call> calls = reader.readAll();
+                assertEquals(20, calls.size());
+                for (Call call : calls) {
+                    assertEquals(Thread.currentThread().getName(), call.thread(), "Limit " + maxStrings);
+                    assertEquals("repo" + (call.offset() % 3), call.repository(), "Limit " + maxStrings);
+                    assertEquals("/commit/" + call.offset(), call.path(), "Limit " + maxStrings);
+                }
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new TraceRecorder(file, 2));
+    }
+
+    @Test
+    public void testInvalidFile() throws IOException {
+        Files.writeString(file.toPath(), "some text which is not a trace");
+        assertThrows(IOException.class, () -> new TraceReader(file));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        try (TraceRecorder recorder = new TraceRecorder(file)) {
+            recorder.record("repo", Operation.GETATTR, "/tag", 0, 0, System.nanoTime(), 0);
+            recorder.record("repo", Operation.GETATTR, "/tag/v1", 0, 0, System.nanoTime(), 0);
+        }
+
+        // the process may be killed while writing
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+
+        try (TraceReader reader = new TraceReader(file)) {
+            List<Call> calls = reader.readAll();
+            assertEquals(1, calls.size());
+            assertEquals("/tag", calls.getFirst().path());
+        }
+    }
+}
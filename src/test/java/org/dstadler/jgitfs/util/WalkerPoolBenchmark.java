@@ -0,0 +1,145 @@
+package org.dstadler.jgitfs.util;
+
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test application which compares the latency and the allocation per call of
+ * {@link JGitHelper#readType}, {@link JGitHelper#openFile} and {@link JGitHelper#readElementsAt},
+ * which use the walkers of the {@link WalkerPool}, with the same lookups done with
+ * a new RevWalk/TreeWalk for every call.
+ *
+ * Usage: WalkerPoolBenchmark [git-dir] [iterations]
+ */
+public class WalkerPoolBenchmark {
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        String gitDir = args.length > 0 ? args[0] : ".";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        try (JGitHelper helper = new JGitHelper(gitDir);
+             Repository repository = new FileRepositoryBuilder().setGitDir(new File(gitDir, ".git")).setMustExist(true).build()) {
+            String commit = helper.getBranchHeadCommit(helper.getBranches().getFirst());
+
+            List<String> files = new ArrayList<>();
+            List<String> dirs = new ArrayList<>();
+            dirs.add("");
+            try (TreeWalk walk = new TreeWalk(repository)) {
+                walk.addTree(repository.parseCommit(ObjectId.fromString(commit)).getTree());
+                walk.setRecursive(false);
+                while (walk.next()) {
+                    if (walk.isSubtree()) {
+                        dirs.add(walk.getPathString());
+                        walk.enterSubtree();
+                    } else if ((walk.getFileMode(0).getBits() & FileMode.TYPE_FILE) != 0) {
+                        files.add(walk.getPathString());
+                    }
+                }
+            }
+            System.out.println("Using " + files.size() + " files and " + dirs.size() + " directories of commit " + commit);
+
+            StatWrapper stat = StatWrapperFactory.create();
+
+            // run both variants twice, the first round warms up the JIT
+            for (int round = 0; round < 2; round++) {
+                System.out.println(round == 0 ? "Warmup" : "Measurement");
+
+                measure("readType, pooled", iterations, i -> helper.readType(commit, files.get(i % files.size()), stat));
+                measure("readType, unpooled", iterations, i -> {
+                    try (TreeWalk walk = unpooledTreeWalk(repository, commit, files.get(i % files.size()))) {
+                        stat.size(repository.open(walk.getObjectId(0)).getSize());
+                    }
+                });
+
+                measure("openFile, pooled", iterations, i -> {
+                    try (InputStream stream = helper.openFile(commit, files.get(i % files.size()))) {
+                        stream.transferTo(OutputStreamSink.INSTANCE);
+                    }
+                });
+                measure("openFile, unpooled", iterations, i -> {
+                    try (TreeWalk walk = unpooledTreeWalk(repository, commit, files.get(i % files.size()));
+                         InputStream stream = repository.open(walk.getObjectId(0)).openStream()) {
+                        stream.transferTo(OutputStreamSink.INSTANCE);
+                    }
+                });
+
+                measure("readElementsAt, pooled", iterations, i -> helper.readElementsAt(commit, dirs.get(i % dirs.size())));
+                measure("readElementsAt, unpooled", iterations, i -> {
+                    String dir = dirs.get(i % dirs.size());
+                    List<String> items = new ArrayList<>();
+                    try (TreeWalk dirWalk = new TreeWalk(repository)) {
+                        if (dir.isEmpty()) {
+                            dirWalk.addTree(unpooledCommit(repository, commit).getTree());
+                        } else {
+                            try (TreeWalk walk = unpooledTreeWalk(repository, commit, dir)) {
+                                dirWalk.addTree(walk.getObjectId(0));
+                            }
+                        }
+                        while (dirWalk.next()) {
+                            items.add(dirWalk.getPathString());
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static RevCommit unpooledCommit(Repository repository, String commit) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            return revWalk.parseCommit(ObjectId.fromString(commit));
+        }
+    }
+
+    private static TreeWalk unpooledTreeWalk(Repository repository, String commit, String path) throws IOException {
+        return TreeWalk.forPath(repository, path, unpooledCommit(repository, commit).getTree());
+    }
+
+    private static void measure(String name, int iterations, Operation operation) throws IOException {
+        long threadId = Thread.currentThread().threadId();
+        long bytesBefore = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            operation.run(i);
+        }
+
+        long duration = System.nanoTime() - start;
+        long bytes = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        System.out.printf("%-26s %,10d ns/op %,10d bytes/op%n", name, duration / iterations, bytes / iterations);
+    }
+
+    private interface Operation {
+        void run(int i) throws IOException;
+    }
+
+    private static final class OutputStreamSink extends java.io.OutputStream {
+        private static final OutputStreamSink INSTANCE = new OutputStreamSink();
+
+        @Override
+        public void write(int b) {
+            // discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.dstadler.jgitfs.util;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalkerPoolTest {
+    private File dir;
+    private Git git;
+    private RevCommit commit;
+
+    private final List<TrackingReader> readers = new ArrayList<>();
+    private WalkerPool pool;
+
+    @BeforeEach
+    public void setUp() throws IOException, GitAPIException {
+        dir = Files.createTempDirectory("WalkerPoolTest").toFile();
+        git = Git.init().setDirectory(dir).call();
+        FileUtils.writeStringToFile(new File(dir, "file1"), "content1", "UTF-8");
+        git.add().addFilepattern("file1").call();
+        commit = git.commit().setMessage("commit").call();
+
+        pool = new WalkerPool(git.getRepository(), () -> {
+            TrackingReader reader = new TrackingReader(git.getRepository().newObjectReader());
+            synchronized (readers) {
+                readers.add(reader);
+            }
+            return reader;
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        pool.close();
+        git.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testReusedOnSameThread() throws IOException {
+        WalkerPool.Walkers walkers;
+        try (WalkerPool.Walkers first = pool.acquire()) {
+            walkers = first;
+            assertEquals(commit, first.parseCommit(commit.getName()));
+            TreeWalk walk = first.find(commit.getTree(), "file1");
+            assertEquals("file1", walk.getPathString());
+            assertThrows(FileNotFoundException.class, () -> first.find(commit.getTree(), "file2"));
+        }
+
+        try (WalkerPool.Walkers second = pool.acquire()) {
+            assertSame(walkers, second);
+        }
+
+        assertEquals(1, readers.size());
+        assertFalse(readers.getFirst().closed);
+    }
+
+    @Test
+    public void testNestedAcquire() {
+        try (WalkerPool.Walkers outer = pool.acquire()) {
+            WalkerPool.Walkers inner = pool.acquire();
+            assertNotSame(outer, inner);
+            assertNotSame(outer.reader(), inner.reader());
+
+            // walkers of a nested call are not pooled
+            inner.close();
+            assertTrue(readers.get(1).closed);
+            assertFalse(readers.get(0).closed);
+
+            try (WalkerPool.Walkers again = pool.acquire()) {
+                assertNotSame(outer, again);
+            }
+        }
+
+        try (WalkerPool.Walkers walkers = pool.acquire()) {
+            assertSame(readers.getFirst(), walkers.reader());
+        }
+        assertEquals(3, readers.size());
+    }
+
+    @Test
+    public void testReset() {
+        WalkerPool.Walkers walkers;
+        try (WalkerPool.Walkers first = pool.acquire()) {
+            walkers = first;
+        }
+
+        pool.reset();
+        assertTrue(readers.getFirst().closed);
+
+        // the disposed walkers are not used again
+        try (WalkerPool.Walkers second = pool.acquire()) {
+            assertNotSame(walkers, second);
+            assertFalse(((TrackingReader) second.reader()).closed);
+        }
+        assertEquals(2, readers.size());
+    }
+
+    @Test
+    public void testRemoveDeadThreads() throws InterruptedException {
+        AtomicReference<ObjectReader> threadReader = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try (WalkerPool.Walkers walkers = pool.acquire()) {
+                threadReader.set(walkers.reader());
+            }
+        });
+        thread.start();
+        thread.join();
+
+        TrackingReader reader = (TrackingReader) threadReader.get();
+        assertNotNull(reader);
+        assertFalse(reader.closed, "The walkers of a thread are kept after the access");
+
+        // walkers of terminated threads are released when another thread gets new walkers
+        try (WalkerPool.Walkers ignored = pool.acquire()) {
+            assertTrue(reader.closed);
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsAreNotPooled() throws InterruptedException {
+        List<ObjectReader> threadReaders = new ArrayList<>();
+        Thread thread = Thread.ofVirtual().start(() -> {
+            for (int i = 0; i < 2; i++) {
+                try (WalkerPool.Walkers walkers = pool.acquire()) {
+                    threadReaders.add(walkers.reader());
+                }
+            }
+        });
+        thread.join();
+
+        assertEquals(2, threadReaders.size());
+        assertNotSame(threadReaders.get(0), threadReaders.get(1));
+        for (ObjectReader reader : threadReaders) {
+            assertTrue(((TrackingReader) reader).closed);
+        }
+    }
+
+    @Test
+    public void testRevWalkDisposedAfterMaxUses() throws IOException {
+        RevCommit parsed;
+        try (WalkerPool.Walkers walkers = pool.acquire()) {
+            parsed = walkers.parseCommit(commit.getName());
+            assertSame(parsed, walkers.parseCommit(commit.getName()));
+        }
+
+        for (int i = 1; i < WalkerPool.MAX_USES - 1; i++) {
+            try (WalkerPool.Walkers walkers = pool.acquire()) {
+                assertSame(parsed, walkers.parseCommit(commit.getName()), "Use " + i);
+            }
+        }
+
+        // the RevWalk forgets the parsed commits, the same reader is used afterwards
+        try (WalkerPool.Walkers walkers = pool.acquire()) {
+            assertSame(parsed, walkers.parseCommit(commit.getName()));
+        }
+        try (WalkerPool.Walkers walkers = pool.acquire()) {
+            RevCommit again = walkers.parseCommit(commit.getName());
+            assertNotSame(parsed, again);
+            assertEquals(parsed, again);
+            assertSame(readers.getFirst(), walkers.reader());
+        }
+        assertEquals(1, readers.size());
+    }
+
+    @Test
+    public void testClose() {
+        try (WalkerPool.Walkers ignored = pool.acquire()) {
+            // make the pool keep walkers for this thread
+        }
+
+        pool.close();
+        assertTrue(readers.getFirst().closed);
+
+        // walkers are not pooled any more after closing
+        try (WalkerPool.Walkers walkers = pool.acquire()) {
+            assertNotSame(readers.getFirst(), walkers.reader());
+        }
+        assertTrue(readers.get(1).closed);
+    }
+
+    /**
+     * Records if the reader was closed.
+     */
+    private static final class TrackingReader extends ObjectReader.Filter {
+        private final ObjectReader delegate;
+        private volatile boolean closed;
+
+        private TrackingReader(ObjectReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected ObjectReader delegate() {
+            return delegate;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+    }
+}